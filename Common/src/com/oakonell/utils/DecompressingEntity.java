@@ -0,0 +1,187 @@
+package com.oakonell.utils;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Wraps a response entity, transparently decoding a gzip or deflate
+ * Content-Encoding as the content is streamed, and counting the bytes read
+ * off the wire. The transfer is logged (and added to the
+ * {@link SharedHttpClient} totals) when the content is closed.
+ */
+public class DecompressingEntity extends HttpEntityWrapper {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private final String uri;
+    private final String encoding;
+    private InputStream content;
+
+    public DecompressingEntity(HttpEntity wrapped, String uri) {
+        super(wrapped);
+        this.uri = uri;
+        Header encodingHeader = wrapped.getContentEncoding();
+        String theEncoding = null;
+        if (encodingHeader != null) {
+            String value = encodingHeader.getValue().trim().toLowerCase(Locale.US);
+            if (GZIP.equals(value) || "x-gzip".equals(value)) {
+                theEncoding = GZIP;
+            } else if (DEFLATE.equals(value)) {
+                theEncoding = DEFLATE;
+            }
+        }
+        encoding = theEncoding;
+    }
+
+    public boolean isCompressed() {
+        return encoding != null;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        if (content == null) {
+            WireCountingInputStream wire = new WireCountingInputStream(wrappedEntity.getContent());
+            InputStream decoded = wire;
+            if (GZIP.equals(encoding)) {
+                decoded = new GZIPInputStream(wire);
+            } else if (DEFLATE.equals(encoding)) {
+                decoded = new InflaterInputStream(wire);
+            }
+            content = new DecodedCountingInputStream(decoded, wire);
+        }
+        return content;
+    }
+
+    @Override
+    public void consumeContent() throws IOException {
+        if (content == null) {
+            super.consumeContent();
+            return;
+        }
+        // closing the managed content skips the rest of the response, and
+        // releases the connection
+        content.close();
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        if (isCompressed()) {
+            return null;
+        }
+        return super.getContentEncoding();
+    }
+
+    @Override
+    public long getContentLength() {
+        if (isCompressed()) {
+            // the decoded length is not known up front
+            return -1;
+        }
+        return super.getContentLength();
+    }
+
+    /**
+     * Counts the raw bytes, and the time spent waiting for them.
+     */
+    private static final class WireCountingInputStream extends FilterInputStream {
+        private long bytes;
+        private long readNanos;
+
+        WireCountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int result = super.read();
+            readNanos += System.nanoTime() - start;
+            if (result >= 0) {
+                bytes++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int result = super.read(buffer, offset, count);
+            readNanos += System.nanoTime() - start;
+            if (result > 0) {
+                bytes += result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Counts the decoded bytes, and the time spent decoding them (the total
+     * read time less the time spent waiting on the wire).
+     */
+    private final class DecodedCountingInputStream extends FilterInputStream {
+        private final WireCountingInputStream wire;
+        private long bytes;
+        private long totalNanos;
+        private boolean reported;
+
+        DecodedCountingInputStream(InputStream in, WireCountingInputStream wire) {
+            super(in);
+            this.wire = wire;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int result = super.read();
+            totalNanos += System.nanoTime() - start;
+            if (result >= 0) {
+                bytes++;
+            } else {
+                report();
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            int result = super.read(buffer, offset, count);
+            totalNanos += System.nanoTime() - start;
+            if (result > 0) {
+                bytes += result;
+            } else if (result < 0) {
+                report();
+            }
+            return result;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                report();
+            }
+        }
+
+        private void report() {
+            if (reported) {
+                return;
+            }
+            reported = true;
+            long decodeMs = (totalNanos - wire.readNanos) / 1000000;
+            SharedHttpClient.recordTransfer(wire.bytes, bytes);
+            LogHelper.info("DecompressingEntity", uri + ": " + wire.bytes + " bytes on wire, " + bytes
+                    + " bytes " + (encoding == null ? "uncompressed" : encoding + " decoded in " + decodeMs
+                            + " ms"));
+        }
+    }
+}
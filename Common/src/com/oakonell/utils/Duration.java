@@ -55,6 +55,10 @@ public final class Duration {
         return new Duration(hours, minutes, seconds);
     }
 
+    public static Duration fromMilliseconds(long milliseconds) {
+        return new Duration(0, 0, (int) (milliseconds / MS_IN_SECOND));
+    }
+
     public int getHours() {
         return hours;
     }
@@ -10,8 +10,19 @@ import android.net.Uri;
  * Enables custom handling of HttpResponse and the entities they contain.
  */
 public interface ResponseHandler {
-    void handleResponse(HttpResponse response, Uri uri)
+    /**
+     * @return false if the handler was cancelled before it read the
+     *         response, so that another waiting handler can have it
+     */
+    boolean handleResponse(HttpResponse response, Uri uri)
             throws IOException;
 
     void requestError(IOException e);
+
+    /**
+     * Called instead of {@link #handleResponse(HttpResponse, Uri)} when this
+     * request joined another in progress request for the same data, once that
+     * request's handler has dealt with the response.
+     */
+    void sharedResponseHandled(Uri uri);
 }
@@ -1,16 +1,31 @@
 package com.oakonell.utils;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.concurrent.GuardedBy;
 
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
 
 import android.content.Context;
 
+/**
+ * Runs network requests on the {@link TaskScheduler}. Concurrent requests with
+ * the same tag are coalesced- they share a single HTTP request, the response
+ * is handled once, and every requester is told when it completes.
+ */
 public class ServiceReadToDBBufferer {
+    @GuardedBy("REQUESTS_IN_PROGRESS")
     private static final Map<String, UriRequestTask> REQUESTS_IN_PROGRESS = new HashMap<String, UriRequestTask>();
+
+    private static final AtomicInteger COALESCED_COUNT = new AtomicInteger();
+    private static final AtomicInteger REJECTED_COUNT = new AtomicInteger();
+
     private final Context context;
     private final ResponseHandler handler;
 
@@ -19,18 +34,39 @@ public class ServiceReadToDBBufferer {
         this.handler = handler;
     }
 
-    private UriRequestTask getRequestTask(String queryText) {
-        return REQUESTS_IN_PROGRESS.get(queryText);
+    public void requestComplete(UriRequestTask task) {
+        synchronized (REQUESTS_IN_PROGRESS) {
+            // a cancelled task may since have been replaced by a new request
+            // with the same tag
+            if (REQUESTS_IN_PROGRESS.get(task.getRequestTag()) == task) {
+                REQUESTS_IN_PROGRESS.remove(task.getRequestTag());
+            }
+        }
+        LogHelper.debug("ServiceReadToDBBufferer", "Completed request " + task.getRequestTag() + ", "
+                + describeMetrics());
     }
 
-    public void requestComplete(String mQueryText) {
+    /**
+     * Withdraw this requester from the in progress request with the given tag,
+     * if any. The HTTP request itself is only aborted once no other requester
+     * is waiting on it. A later request with the same tag starts afresh rather
+     * than joining an aborted one.
+     */
+    public void cancel(String queryTag) {
+        UriRequestTask requestTask;
         synchronized (REQUESTS_IN_PROGRESS) {
-            REQUESTS_IN_PROGRESS.remove(mQueryText);
+            requestTask = REQUESTS_IN_PROGRESS.get(queryTag);
+            if (requestTask == null || !requestTask.removeHandler(handler)) {
+                return;
+            }
+            REQUESTS_IN_PROGRESS.remove(queryTag);
         }
+        LogHelper.debug("ServiceReadToDBBufferer", "Cancelling request " + queryTag);
+        requestTask.abort();
     }
 
     /**
-     * Creates a new worker thread to carry out a RESTful network invocation.
+     * Queues a RESTful network invocation on the task scheduler.
      * 
      * @param queryTag
      *            unique tag that identifies this request.
@@ -39,26 +75,62 @@ public class ServiceReadToDBBufferer {
      *            the complete URI that should be access by this request.
      */
     public void asyncQueryRequest(String queryTag, String queryUri) {
+        asyncQueryRequest(queryTag, new HttpGet(queryUri));
+    }
+
+    /**
+     * Queues the given request on the task scheduler, allowing the caller
+     * to prepare it first (eg, with conditional request headers). If a request
+     * with the same tag is already in progress, this one joins it instead.
+     * 
+     * @param queryTag
+     *            unique tag that identifies this request.
+     * 
+     * @param request
+     *            the request to execute.
+     */
+    public void asyncQueryRequest(String queryTag, HttpUriRequest request) {
+        asyncQueryRequest(queryTag, request, TaskScheduler.Lane.NETWORK);
+    }
+
+    /**
+     * As {@link #asyncQueryRequest(String, HttpUriRequest)}, running on the
+     * given scheduler lane (eg, background for a bulk sync).
+     */
+    public void asyncQueryRequest(String queryTag, HttpUriRequest request, TaskScheduler.Lane lane) {
+        UriRequestTask requestTask;
         synchronized (REQUESTS_IN_PROGRESS) {
-            UriRequestTask requestTask = getRequestTask(queryTag);
-            if (requestTask == null) {
-                requestTask = newQueryTask(queryTag, queryUri);
-                Thread t = new Thread(requestTask);
-                // allows other requests to run in parallel.
-                t.start();
+            requestTask = REQUESTS_IN_PROGRESS.get(queryTag);
+            if (requestTask != null && requestTask.addHandler(handler)) {
+                COALESCED_COUNT.incrementAndGet();
+                LogHelper.debug("ServiceReadToDBBufferer", "Joined in progress request " + queryTag);
+                return;
             }
+            requestTask = new UriRequestTask(queryTag, this, request, handler, context);
+            REQUESTS_IN_PROGRESS.put(queryTag, requestTask);
+        }
+
+        if (TaskScheduler.execute(lane, requestTask).wasRejected()) {
+            REJECTED_COUNT.incrementAndGet();
+            LogHelper.warn("ServiceReadToDBBufferer", "Too many queued requests, rejecting " + queryTag);
+            requestTask.reject(new IOException("Too many queued requests"));
         }
     }
 
-    private UriRequestTask newQueryTask(String requestTag, String url) {
-        UriRequestTask requestTask;
+    /**
+     * @return the number of requests that joined one already in progress
+     */
+    public static int getCoalescedCount() {
+        return COALESCED_COUNT.get();
+    }
 
-        final HttpGet get = new HttpGet(url);
-        requestTask = new UriRequestTask(requestTag, this, get,
-                handler, context);
+    public static int getRejectedCount() {
+        return REJECTED_COUNT.get();
+    }
 
-        REQUESTS_IN_PROGRESS.put(requestTag, requestTask);
-        return requestTask;
+    public static String describeMetrics() {
+        return "coalesced=" + getCoalescedCount() + ", rejected=" + getRejectedCount() + ", "
+                + TaskScheduler.describeMetrics();
     }
 
     public static String encode(String gDataQuery) {
@@ -0,0 +1,151 @@
+package com.oakonell.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * A single, thread safe HttpClient for the small metadata fetches (catalog
+ * searches, book feeds, web pages), so that connections to the same host are
+ * kept alive and reused rather than set up for every request.
+ * 
+ * Responses are requested gzip/deflate compressed, and decoded transparently
+ * as they are read (see {@link DecompressingEntity}).
+ * 
+ * Connections are only returned to the pool once the response entity has
+ * been fully read or closed- use {@link #release(HttpEntity)} when done with
+ * a response.
+ */
+public final class SharedHttpClient {
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT_MS = 30 * 1000;
+
+    private static final int MAX_TOTAL_CONNECTIONS = 10;
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    // how long to wait for a free pooled connection
+    private static final long POOL_TIMEOUT_MS = 10 * 1000;
+    private static final int SOCKET_BUFFER_SIZE = 8192;
+    private static final String ACCEPT_ENCODING = "Accept-Encoding";
+
+    private static final AtomicLong WIRE_BYTES = new AtomicLong();
+    private static final AtomicLong DECODED_BYTES = new AtomicLong();
+
+    private static final DefaultHttpClient CLIENT = createClient();
+
+    private SharedHttpClient() {
+        // prevent instantiation
+    }
+
+    public static HttpClient get() {
+        return CLIENT;
+    }
+
+    /**
+     * Change the timeouts used for subsequent requests.
+     */
+    public static void setTimeouts(int connectTimeoutMs, int readTimeoutMs) {
+        HttpParams params = CLIENT.getParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMs);
+        HttpConnectionParams.setSoTimeout(params, readTimeoutMs);
+    }
+
+    /**
+     * Finish with a response, returning its connection to the pool.
+     */
+    public static void release(HttpEntity entity) {
+        if (entity == null) {
+            return;
+        }
+        try {
+            entity.consumeContent();
+        } catch (Exception e) {
+            // the connection is not reused in this case, nothing more to do
+            LogHelper.debug("SharedHttpClient", "Error releasing response", e);
+        }
+    }
+
+    static void recordTransfer(long wireBytes, long decodedBytes) {
+        WIRE_BYTES.addAndGet(wireBytes);
+        DECODED_BYTES.addAndGet(decodedBytes);
+    }
+
+    /**
+     * @return the total response bytes read off the network
+     */
+    public static long getWireBytes() {
+        return WIRE_BYTES.get();
+    }
+
+    /**
+     * @return the total response bytes after decoding any content encoding
+     */
+    public static long getDecodedBytes() {
+        return DECODED_BYTES.get();
+    }
+
+    private static DefaultHttpClient createClient() {
+        HttpParams params = new BasicHttpParams();
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, "UTF-8");
+        HttpConnectionParams.setConnectionTimeout(params, DEFAULT_CONNECT_TIMEOUT_MS);
+        HttpConnectionParams.setSoTimeout(params, DEFAULT_READ_TIMEOUT_MS);
+        HttpConnectionParams.setSocketBufferSize(params, SOCKET_BUFFER_SIZE);
+        HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+        ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(MAX_CONNECTIONS_PER_HOST));
+        ConnManagerParams.setTimeout(params, POOL_TIMEOUT_MS);
+
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+
+        ClientConnectionManager manager = new ThreadSafeClientConnManager(params, schemeRegistry);
+        DefaultHttpClient client = new DefaultHttpClient(manager, params);
+
+        // the xml feeds compress well, ask for them compressed
+        client.addRequestInterceptor(new HttpRequestInterceptor() {
+            @Override
+            public void process(HttpRequest request, HttpContext context) {
+                if (!request.containsHeader(ACCEPT_ENCODING)) {
+                    request.addHeader(ACCEPT_ENCODING, DecompressingEntity.GZIP + ", "
+                            + DecompressingEntity.DEFLATE);
+                }
+            }
+        });
+        client.addResponseInterceptor(new HttpResponseInterceptor() {
+            @Override
+            public void process(HttpResponse response, HttpContext context) {
+                HttpEntity entity = response.getEntity();
+                if (entity == null) {
+                    return;
+                }
+                HttpRequest request = (HttpRequest) context.getAttribute(ExecutionContext.HTTP_REQUEST);
+                String uri = request == null ? "" : request.getRequestLine().getUri();
+                response.setEntity(new DecompressingEntity(entity, uri));
+            }
+        });
+        return client;
+    }
+}
@@ -0,0 +1,183 @@
+package com.oakonell.utils;
+
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+
+/**
+ * The app wide place to run background work, instead of starting a thread
+ * per task. Work is submitted to one of a few lanes, each with its own
+ * bounded pool, queue and thread priority, so that a burst of tasks in one
+ * lane can't starve the others (eg, UI taps can't compete with playback).
+ */
+public final class TaskScheduler {
+    public enum Lane {
+        /** short work in response to a user action, eg, a tap or a local query */
+        INTERACTIVE(3, 32, Process.THREAD_PRIORITY_DEFAULT),
+        /** work the audio player is waiting on */
+        PLAYBACK(2, 16, Process.THREAD_PRIORITY_AUDIO),
+        /**
+         * a request to a server someone is waiting on, eg, a search- kept
+         * apart from the interactive lane, so a slow server can't hold up taps
+         */
+        NETWORK(3, 32, Process.THREAD_PRIORITY_DEFAULT),
+        /** bulk work nobody is waiting on, eg, file deletes and syncs */
+        BACKGROUND(2, 64, Process.THREAD_PRIORITY_BACKGROUND);
+
+        private final ThreadPoolExecutor executor;
+        private final AtomicInteger rejected = new AtomicInteger();
+
+        private Lane(int poolSize, int queueLimit, final int threadPriority) {
+            final String namePrefix = "Task-" + name().toLowerCase(Locale.US) + "-";
+            executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueLimit), new ThreadFactory() {
+                        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(final Runnable runnable) {
+                            Thread thread = new Thread(new Runnable() {
+                                @Override
+                                public void run() {
+                                    Process.setThreadPriority(threadPriority);
+                                    runnable.run();
+                                }
+                            }, namePrefix + threadNumber.getAndIncrement());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+
+        /**
+         * @return the number of tasks waiting for a thread
+         */
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        /**
+         * @return the number of tasks currently running
+         */
+        public int getActiveCount() {
+            return executor.getActiveCount();
+        }
+
+        public long getCompletedCount() {
+            return executor.getCompletedTaskCount();
+        }
+
+        /**
+         * @return the number of tasks turned away because the queue was full
+         */
+        public int getRejectedCount() {
+            return rejected.get();
+        }
+
+        public String describeMetrics() {
+            return name() + "[queued=" + getQueueDepth() + ", active=" + getActiveCount() + ", completed="
+                    + getCompletedCount() + ", rejected=" + getRejectedCount() + "]";
+        }
+    }
+
+    /**
+     * A task that checks its token to stop early when cancelled.
+     */
+    public interface CancellableTask {
+        void run(CancellationToken token);
+    }
+
+    /**
+     * Lets the submitter cancel a task, and the task notice it was cancelled.
+     */
+    public static final class CancellationToken {
+        private volatile boolean cancelled;
+        private volatile boolean rejected;
+        private volatile Future<?> future;
+
+        /**
+         * Cancel the task- a queued task won't run, a running one is
+         * interrupted and should check {@link #isCancelled()}.
+         */
+        public void cancel() {
+            cancelled = true;
+            Future<?> theFuture = future;
+            if (theFuture != null) {
+                theFuture.cancel(true);
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return true if the task was never queued, because its lane was full
+         */
+        public boolean wasRejected() {
+            return rejected;
+        }
+    }
+
+    private TaskScheduler() {
+        // prevent instantiation
+    }
+
+    public static CancellationToken execute(Lane lane, final Runnable runnable) {
+        return execute(lane, new CancellableTask() {
+            @Override
+            public void run(CancellationToken token) {
+                runnable.run();
+            }
+        });
+    }
+
+    /**
+     * Queue the task on the lane. If the lane's queue is full, the task is
+     * dropped and the returned token reports it as rejected (and cancelled).
+     */
+    public static CancellationToken execute(Lane lane, final CancellableTask task) {
+        final CancellationToken token = new CancellationToken();
+        try {
+            token.future = lane.executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (token.isCancelled()) {
+                        return;
+                    }
+                    try {
+                        task.run(token);
+                    } catch (RuntimeException e) {
+                        // submit() would otherwise swallow it silently
+                        LogHelper.error("TaskScheduler", "Uncaught exception in " + Thread.currentThread().getName(),
+                                e);
+                        throw e;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            lane.rejected.incrementAndGet();
+            token.rejected = true;
+            token.cancelled = true;
+            LogHelper.warn("TaskScheduler", "Lane full, rejected task: " + lane.describeMetrics());
+        }
+        return token;
+    }
+
+    public static String describeMetrics() {
+        StringBuilder builder = new StringBuilder();
+        for (Lane each : Lane.values()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(each.describeMetrics());
+        }
+        return builder.toString();
+    }
+}
@@ -1,11 +1,13 @@
 package com.oakonell.utils;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.GuardedBy;
 
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.impl.client.DefaultHttpClient;
 
 import android.content.Context;
 import android.net.Uri;
@@ -14,10 +16,20 @@ import android.net.Uri;
  * Provides a runnable that uses an HttpClient to asynchronously load a given
  * URI. After the network content is loaded, the task delegates handling of the
  * request to a ResponseHandler specialized to handle the given content.
+ * 
+ * Other handlers may join the task while it is in progress. The response is
+ * only handled by the first handler still waiting (or the next, if that one
+ * is cancelled before reading it), the others are told once it is done.
  */
 public class UriRequestTask implements Runnable {
     private HttpUriRequest mRequest;
-    private ResponseHandler mHandler;
+    @GuardedBy("this")
+    private final List<ResponseHandler> mHandlers = new ArrayList<ResponseHandler>();
+    @GuardedBy("this")
+    private boolean mDispatching;
+    // the handler reading the response, no longer in mHandlers
+    @GuardedBy("this")
+    private ResponseHandler mCurrent;
 
     // private Context mAppContext;
 
@@ -30,10 +42,54 @@ public class UriRequestTask implements Runnable {
         mRequestTag = requestTag;
         mSiteProvider = siteProvider;
         mRequest = request;
-        mHandler = handler;
+        mHandlers.add(handler);
         // mAppContext = appContext;
     }
 
+    /**
+     * @return false if the task is already delivering its result, and can't
+     *         be joined
+     */
+    public synchronized boolean addHandler(ResponseHandler handler) {
+        if (mDispatching) {
+            return false;
+        }
+        mHandlers.add(handler);
+        return true;
+    }
+
+    /**
+     * @return true if no handlers remain waiting on this task
+     */
+    public synchronized boolean removeHandler(ResponseHandler handler) {
+        mHandlers.remove(handler);
+        if (handler == mCurrent) {
+            mCurrent = null;
+        }
+        return mHandlers.isEmpty() && mCurrent == null;
+    }
+
+    /**
+     * @return the next waiting handler to give the response to, or null if
+     *         none is left
+     */
+    private synchronized ResponseHandler nextHandler() {
+        mDispatching = true;
+        mCurrent = mHandlers.isEmpty() ? null : mHandlers.remove(0);
+        return mCurrent;
+    }
+
+    /**
+     * @return the handlers still waiting
+     */
+    private synchronized List<ResponseHandler> finishDispatch() {
+        mDispatching = true;
+        mCurrent = null;
+        List<ResponseHandler> handlers = new ArrayList<ResponseHandler>(mHandlers);
+        mHandlers.clear();
+        return handlers;
+    }
+
     /**
      * Carries out the request on the complete URI as indicated by the protocol,
      * host, and port contained in the configuration, and the URI supplied to
@@ -45,20 +101,70 @@ public class UriRequestTask implements Runnable {
 
         try {
             response = execute();
-            mHandler.handleResponse(response, getUri());
+            try {
+                Uri uri = getUri();
+                ResponseHandler handler = nextHandler();
+                // a handler cancelled since it joined leaves the response
+                // unread, for the next one
+                while (handler != null && !handler.handleResponse(response, uri)) {
+                    handler = nextHandler();
+                }
+                for (ResponseHandler each : finishDispatch()) {
+                    each.sharedResponseHandled(uri);
+                }
+            } finally {
+                SharedHttpClient.release(response.getEntity());
+            }
         } catch (IOException e) {
-            mHandler.requestError(e);
+            notifyError(e);
             LogHelper.warn("UriRequestTask", "exception processing asynch request", e);
         } finally {
             if (mSiteProvider != null) {
-                mSiteProvider.requestComplete(mRequestTag);
+                mSiteProvider.requestComplete(this);
             }
         }
     }
 
+    /**
+     * The task could not be run at all.
+     */
+    void reject(IOException e) {
+        try {
+            notifyError(e);
+        } finally {
+            if (mSiteProvider != null) {
+                mSiteProvider.requestComplete(this);
+            }
+        }
+    }
+
+    private void notifyError(IOException e) {
+        ResponseHandler current;
+        synchronized (this) {
+            current = mCurrent;
+        }
+        if (current != null) {
+            current.requestError(e);
+        }
+        for (ResponseHandler each : finishDispatch()) {
+            each.requestError(e);
+        }
+    }
+
     private HttpResponse execute() throws IOException {
-        HttpClient client = new DefaultHttpClient();
-        return client.execute(mRequest);
+        return SharedHttpClient.get().execute(mRequest);
+    }
+
+    public String getRequestTag() {
+        return mRequestTag;
+    }
+
+    /**
+     * Abort the request- an in progress read of the response will fail with
+     * an IOException.
+     */
+    public void abort() {
+        mRequest.abort();
     }
 
     public Uri getUri() {
@@ -0,0 +1,141 @@
+package com.oakonell.utils.db;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Coalesces a content provider's change notifications, so observing cursors
+ * requery once per burst of writes rather than once per row (or progress
+ * tick).
+ *
+ * Notifications are held for a short window and then delivered once per uri;
+ * a uri whose ancestor is also pending is dropped, as notifying the ancestor
+ * already reaches its observers. A batch holds back only the notifications
+ * of the thread that began it (other writers' are delivered as usual), and
+ * delivers them as it ends.
+ */
+public final class ChangeNotifier {
+    private final ContentResolver resolver;
+    private final long windowMs;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable deliverTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (ChangeNotifier.this) {
+                deliveryScheduled = false;
+            }
+            deliver();
+        }
+    };
+    private final ThreadLocal<Batch> batches = new ThreadLocal<Batch>();
+
+    /**
+     * The notifications held back by one thread's batch.
+     */
+    private static final class Batch {
+        private int depth;
+        private final Set<Uri> pending = new LinkedHashSet<Uri>();
+    }
+
+    @GuardedBy("this")
+    private final Set<Uri> pending = new LinkedHashSet<Uri>();
+    @GuardedBy("this")
+    private boolean deliveryScheduled;
+    @GuardedBy("this")
+    private int requestedCount;
+    @GuardedBy("this")
+    private int deliveredCount;
+
+    public ChangeNotifier(ContentResolver resolver, long windowMs) {
+        this.resolver = resolver;
+        this.windowMs = windowMs;
+    }
+
+    public void notifyChange(Uri uri) {
+        Batch batch = batches.get();
+        synchronized (this) {
+            requestedCount++;
+            if (batch != null) {
+                addPending(batch.pending, uri);
+                return;
+            }
+            addPending(pending, uri);
+            if (deliveryScheduled) {
+                return;
+            }
+            deliveryScheduled = true;
+        }
+        handler.postDelayed(deliverTask, windowMs);
+    }
+
+    /**
+     * Hold this thread's notifications until the matching endBatch. Batches
+     * may nest.
+     */
+    public void beginBatch() {
+        Batch batch = batches.get();
+        if (batch == null) {
+            batch = new Batch();
+            batches.set(batch);
+        }
+        batch.depth++;
+    }
+
+    public void endBatch() {
+        Batch batch = batches.get();
+        if (batch == null) {
+            throw new IllegalStateException("endBatch without beginBatch");
+        }
+        batch.depth--;
+        if (batch.depth > 0) {
+            return;
+        }
+        batches.remove();
+        synchronized (this) {
+            for (Uri each : batch.pending) {
+                addPending(pending, each);
+            }
+        }
+        deliver();
+    }
+
+    private static void addPending(Set<Uri> pending, Uri uri) {
+        String uriString = uri.toString();
+        for (Iterator<Uri> iter = pending.iterator(); iter.hasNext();) {
+            String each = iter.next().toString();
+            if (uriString.equals(each) || uriString.startsWith(each + "/")) {
+                return;
+            }
+            if (each.startsWith(uriString + "/")) {
+                iter.remove();
+            }
+        }
+        pending.add(uri);
+    }
+
+    private void deliver() {
+        List<Uri> uris;
+        synchronized (this) {
+            uris = new ArrayList<Uri>(pending);
+            pending.clear();
+            deliveredCount += uris.size();
+        }
+        for (Uri each : uris) {
+            resolver.notifyChange(each, null);
+        }
+    }
+
+    public synchronized String describeMetrics() {
+        return "requested=" + requestedCount + ", delivered=" + deliveredCount + ", pending=" + pending.size();
+    }
+}
@@ -0,0 +1,92 @@
+package com.oakonell.utils.db;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import com.oakonell.utils.LogHelper;
+
+/**
+ * A read only connection of its own for a provider's queries, beside the
+ * helper's connection that its writes go through- so a list query needn't
+ * wait for the writer's connection while an import or progress save holds
+ * it.
+ *
+ * The second connection is only opened once the database is in write-ahead
+ * logging mode (see {@link WriteAheadLogging}). Without it a reader would
+ * still wait out (or fail on) every write, so until then- and on platforms
+ * without write-ahead logging- queries share the helper's connection.
+ */
+public final class ReadConnection {
+    private final SQLiteOpenHelper databaseHelper;
+
+    @GuardedBy("this")
+    private SQLiteDatabase writer;
+    @GuardedBy("this")
+    private SQLiteDatabase reader;
+
+    public ReadConnection(SQLiteOpenHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+
+    /**
+     * @return the database to query- not to be written to
+     */
+    public synchronized SQLiteDatabase getDatabase() {
+        // opened (and upgraded) by the helper first, which turns on
+        // write-ahead logging
+        SQLiteDatabase current = databaseHelper.getReadableDatabase();
+        if (current != writer) {
+            closeReader();
+            writer = current;
+            if (isWriteAheadLogging(current)) {
+                reader = openReader(current);
+            }
+        }
+        return reader == null ? current : reader;
+    }
+
+    /**
+     * @return whether queries have a connection of their own
+     */
+    public synchronized boolean isSeparate() {
+        getDatabase();
+        return reader != null;
+    }
+
+    public synchronized void close() {
+        closeReader();
+        writer = null;
+    }
+
+    @GuardedBy("this")
+    private void closeReader() {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+
+    private static boolean isWriteAheadLogging(SQLiteDatabase db) {
+        return "wal".equalsIgnoreCase(DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null));
+    }
+
+    /**
+     * @return the second connection, or null if it can't be opened
+     */
+    private static SQLiteDatabase openReader(SQLiteDatabase db) {
+        try {
+            // the provider's queries use no localized collation, and a read
+            // only connection can't make the table for one
+            return SQLiteDatabase.openDatabase(db.getPath(), null, SQLiteDatabase.OPEN_READONLY
+                    | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        } catch (SQLiteException e) {
+            LogHelper.warn("ReadConnection", "Unable to open a read connection to " + db.getPath()
+                    + ", reading through the writer's", e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.oakonell.utils.db;
+
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.oakonell.utils.LogHelper;
+
+/**
+ * The ordered steps that bring a database schema up from an older version,
+ * keeping its data (ALTER TABLE, copy-table, backfill...) rather than dropping
+ * and recreating tables. Use from SQLiteOpenHelper.onUpgrade.
+ * 
+ * A step registered for version N is run when upgrading from a version below
+ * N; versions without a step had no schema change.
+ */
+public final class SchemaMigrations {
+    public interface Step {
+        void migrate(SQLiteDatabase db);
+    }
+
+    private final String databaseName;
+    private final int oldestMigratableVersion;
+    private final SortedMap<Integer, Step> steps = new TreeMap<Integer, Step>();
+
+    /**
+     * @param oldestMigratableVersion
+     *            the oldest version that the steps can upgrade from
+     */
+    public SchemaMigrations(String databaseName, int oldestMigratableVersion) {
+        this.databaseName = databaseName;
+        this.oldestMigratableVersion = oldestMigratableVersion;
+    }
+
+    public SchemaMigrations add(int toVersion, Step step) {
+        if (toVersion <= oldestMigratableVersion) {
+            throw new IllegalArgumentException("Step to version " + toVersion
+                    + " is not after the oldest migratable version " + oldestMigratableVersion);
+        }
+        if (steps.put(toVersion, step) != null) {
+            throw new IllegalArgumentException("Duplicate step to version " + toVersion);
+        }
+        return this;
+    }
+
+    /**
+     * @return false if the version is too old to migrate, and the database
+     *         has to be recreated
+     */
+    public boolean canMigrate(int fromVersion) {
+        return fromVersion >= oldestMigratableVersion;
+    }
+
+    /**
+     * Run the steps after fromVersion up to and including toVersion, in order,
+     * in a single transaction- if any step fails, none of them are applied.
+     */
+    public void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        if (!canMigrate(fromVersion)) {
+            throw new IllegalArgumentException(databaseName + " version " + fromVersion
+                    + " is too old to migrate");
+        }
+        int latest = steps.isEmpty() ? oldestMigratableVersion : steps.lastKey();
+        if (toVersion > latest) {
+            throw new RuntimeException("DB upgrade not yet catered to: " + databaseName + " version " + toVersion);
+        }
+
+        db.beginTransaction();
+        try {
+            for (Entry<Integer, Step> each : steps.subMap(fromVersion + 1, toVersion + 1).entrySet()) {
+                LogHelper.info("SchemaMigrations", "Migrating " + databaseName + " to version " + each.getKey());
+                each.getValue().migrate(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.oakonell.utils.db;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
+
+/**
+ * Compiled statements for a provider's fixed-shape writes (eg, a download's
+ * progress, a book's position), so the SQL is compiled once per shape rather
+ * than on every call. Each shape is made once by its caller (see
+ * {@link #updateByIdShape}), and values are bound to it as parameters.
+ *
+ * A statement belongs to the connection it was compiled on; the cache is
+ * cleared if the helper hands back a different database. The least recently
+ * used statement is closed once more than {@link #MAX_STATEMENTS} are held.
+ *
+ * A statement is taken out of the cache while it is bound and run, so the
+ * cache's monitor is never held while the database's lock is waited for (or
+ * the other way round, by a caller calling in from its own transaction).
+ */
+public final class StatementCache {
+    // a provider has only a handful of hot shapes, this only guards against
+    // an unexpected variety
+    static final int MAX_STATEMENTS = 32;
+    private static final int MIN_SDK_VERSION_FOR_UPDATE_DELETE = 11;
+    private static final Method EXECUTE_UPDATE_DELETE = findExecuteUpdateDelete();
+    private static final Shape CHANGES = queryShape("SELECT changes()");
+
+    /**
+     * A statement's SQL and the columns bound to it, in order.
+     */
+    public static final class Shape {
+        private final String sql;
+        private final String[] columns;
+        private final boolean everyColumn;
+
+        private Shape(String sql, String[] columns, boolean everyColumn) {
+            this.sql = sql;
+            this.columns = columns;
+            this.everyColumn = everyColumn;
+        }
+
+        /**
+         * @return whether the values can be written with this shape- an
+         *         update needs a value for each of its columns, an insert
+         *         binds null for those left out (so a column with a default
+         *         must be given)
+         */
+        public boolean fits(ContentValues values) {
+            if (values.size() > columns.length || (everyColumn && values.size() != columns.length)) {
+                return false;
+            }
+            for (Entry<String, Object> each : values.valueSet()) {
+                if (!hasColumn(each.getKey())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean hasColumn(String column) {
+            for (String each : columns) {
+                if (each.equals(column)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return the last parameter index bound
+         */
+        private int bind(SQLiteStatement statement, ContentValues values) {
+            for (int i = 0; i < columns.length; i++) {
+                bindValue(statement, i + 1, values.get(columns[i]));
+            }
+            return columns.length;
+        }
+
+        @Override
+        public String toString() {
+            return sql;
+        }
+    }
+
+    /**
+     * @return the shape of an insert of the columns into the table
+     */
+    public static Shape insertShape(String table, String... columns) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+        StringBuilder parameters = new StringBuilder();
+        for (String each : columns) {
+            if (parameters.length() > 0) {
+                sql.append(", ");
+                parameters.append(", ");
+            }
+            sql.append(each);
+            parameters.append('?');
+        }
+        sql.append(") VALUES (").append(parameters).append(')');
+        return new Shape(sql.toString(), columns.clone(), false);
+    }
+
+    /**
+     * @return the shape of an update of the columns of a row, by its id
+     */
+    public static Shape updateByIdShape(String table, String... columns) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        boolean first = true;
+        for (String each : columns) {
+            if (!first) {
+                sql.append(", ");
+            }
+            first = false;
+            sql.append(each).append(" = ?");
+        }
+        sql.append(" WHERE ").append(BaseColumns._ID).append(" = ?");
+        return new Shape(sql.toString(), columns.clone(), true);
+    }
+
+    /**
+     * @return the shape of a query for a single number, its arguments bound
+     *         as strings
+     */
+    public static Shape queryShape(String sql) {
+        return new Shape(sql, new String[0], false);
+    }
+
+    /**
+     * @return the first of the shapes that {@link Shape#fits} the values, or
+     *         null
+     */
+    public static Shape fitting(ContentValues values, Shape... shapes) {
+        for (Shape each : shapes) {
+            if (each.fits(values)) {
+                return each;
+            }
+        }
+        return null;
+    }
+
+    private final SQLiteOpenHelper databaseHelper;
+
+    @GuardedBy("this")
+    private SQLiteDatabase db;
+    // in access order, the least recently used first
+    @GuardedBy("this")
+    private final LinkedHashMap<Shape, SQLiteStatement> statements = new LinkedHashMap<Shape, SQLiteStatement>(16,
+            0.75f, true);
+
+    public StatementCache(SQLiteOpenHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+
+    /**
+     * Insert the values as a new row.
+     *
+     * @param shape
+     *            which {@link Shape#fits} the values
+     * @return the new row's id
+     * @throws SQLException
+     *             if the row could not be inserted
+     */
+    public long insert(Shape shape, ContentValues values) {
+        SQLiteDatabase current = databaseHelper.getWritableDatabase();
+        SQLiteStatement statement = take(current, shape);
+        try {
+            shape.bind(statement, values);
+            long rowId = statement.executeInsert();
+            if (rowId == -1) {
+                throw new SQLException("Failed to insert row with " + shape);
+            }
+            return rowId;
+        } finally {
+            release(current, shape, statement);
+        }
+    }
+
+    /**
+     * Update the row with the given id.
+     *
+     * @param shape
+     *            which {@link Shape#fits} the values
+     * @return the number of rows updated
+     */
+    public int updateById(Shape shape, ContentValues values, long id) {
+        SQLiteDatabase current = databaseHelper.getWritableDatabase();
+        SQLiteStatement statement = take(current, shape);
+        try {
+            int index = shape.bind(statement, values);
+            statement.bindLong(index + 1, id);
+            if (EXECUTE_UPDATE_DELETE != null) {
+                return executeUpdateDelete(statement);
+            }
+            return executeCountingChanges(current, statement);
+        } finally {
+            release(current, shape, statement);
+        }
+    }
+
+    /**
+     * @return the single number selected by the query, or null if it selects
+     *         no row
+     */
+    public Long simpleQueryForLong(Shape shape, String... args) {
+        SQLiteDatabase current = databaseHelper.getWritableDatabase();
+        SQLiteStatement statement = take(current, shape);
+        try {
+            for (int i = 0; i < args.length; i++) {
+                bindValue(statement, i + 1, args[i]);
+            }
+            try {
+                return statement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return null;
+            }
+        } finally {
+            release(current, shape, statement);
+        }
+    }
+
+    public void close() {
+        List<SQLiteStatement> closing;
+        synchronized (this) {
+            closing = clear();
+        }
+        closeAll(closing);
+    }
+
+    /**
+     * @return the number of compiled statements held
+     */
+    synchronized int size() {
+        return statements.size();
+    }
+
+    /**
+     * @return whether the shape's statement is held
+     */
+    synchronized boolean holds(Shape shape) {
+        return statements.containsKey(shape);
+    }
+
+    /**
+     * Before API 11 a statement gives no count of the rows it changed; it is
+     * read with changes(), on the same connection straight after- in the
+     * caller's transaction if it is in one, otherwise in one of its own.
+     */
+    private int executeCountingChanges(SQLiteDatabase current, SQLiteStatement statement) {
+        boolean ownTransaction = !current.inTransaction();
+        if (ownTransaction) {
+            current.beginTransaction();
+        }
+        try {
+            statement.execute();
+            SQLiteStatement changes = take(current, CHANGES);
+            int count;
+            try {
+                count = (int) changes.simpleQueryForLong();
+            } finally {
+                release(current, CHANGES, changes);
+            }
+            if (ownTransaction) {
+                current.setTransactionSuccessful();
+            }
+            return count;
+        } finally {
+            if (ownTransaction) {
+                current.endTransaction();
+            }
+        }
+    }
+
+    /**
+     * Take the shape's statement out of the cache (compiling one if there is
+     * none), so no other caller binds it meanwhile.
+     */
+    private SQLiteStatement take(SQLiteDatabase current, Shape shape) {
+        List<SQLiteStatement> stale = null;
+        SQLiteStatement statement;
+        synchronized (this) {
+            if (current != db) {
+                stale = clear();
+                db = current;
+            }
+            statement = statements.remove(shape);
+        }
+        // (closing or compiling a statement may take the database's lock, so
+        // not under the monitor)
+        if (stale != null) {
+            closeAll(stale);
+        }
+        if (statement == null) {
+            statement = current.compileStatement(shape.sql);
+        }
+        return statement;
+    }
+
+    /**
+     * Put the statement back, unless another of its shape was put back
+     * meanwhile, or it was compiled on a connection since replaced.
+     */
+    private void release(SQLiteDatabase current, Shape shape, SQLiteStatement statement) {
+        SQLiteStatement closing = statement;
+        synchronized (this) {
+            if (current == db && !statements.containsKey(shape)) {
+                statements.put(shape, statement);
+                closing = null;
+                if (statements.size() > MAX_STATEMENTS) {
+                    Iterator<SQLiteStatement> leastRecentlyUsed = statements.values().iterator();
+                    closing = leastRecentlyUsed.next();
+                    leastRecentlyUsed.remove();
+                }
+            }
+        }
+        if (closing != null) {
+            closing.close();
+        }
+    }
+
+    @GuardedBy("this")
+    private List<SQLiteStatement> clear() {
+        List<SQLiteStatement> cleared = new ArrayList<SQLiteStatement>(statements.values());
+        statements.clear();
+        db = null;
+        return cleared;
+    }
+
+    private static void closeAll(List<SQLiteStatement> closing) {
+        for (SQLiteStatement each : closing) {
+            each.close();
+        }
+    }
+
+    private static Method findExecuteUpdateDelete() {
+        if (android.os.Build.VERSION.SDK_INT < MIN_SDK_VERSION_FOR_UPDATE_DELETE) {
+            return null;
+        }
+        try {
+            return SQLiteStatement.class.getMethod("executeUpdateDelete");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static int executeUpdateDelete(SQLiteStatement statement) {
+        try {
+            return (Integer) EXECUTE_UPDATE_DELETE.invoke(statement);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to run " + statement, e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Unable to run " + statement, e.getCause());
+        }
+    }
+
+    private static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Float || value instanceof Double) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
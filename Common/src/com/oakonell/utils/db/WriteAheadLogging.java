@@ -0,0 +1,40 @@
+package com.oakonell.utils.db;
+
+import java.lang.reflect.Method;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.oakonell.utils.LogHelper;
+
+/**
+ * Write-ahead logging lets queries run alongside a write (eg, the list
+ * requerying while a download's progress is saved) instead of waiting for
+ * it, on a {@link ReadConnection}. It is only available from Honeycomb, so
+ * is enabled reflectively; on older platforms reads and writes share the one
+ * connection.
+ */
+public final class WriteAheadLogging {
+    private static final int MIN_SDK_VERSION_FOR_WAL = 11;
+
+    private WriteAheadLogging() {
+        // prevent instantiation
+    }
+
+    /**
+     * Call from SQLiteOpenHelper.onOpen, outside of any transaction.
+     * 
+     * @return whether the database is now in write-ahead logging mode
+     */
+    public static boolean enable(SQLiteDatabase db) {
+        if (android.os.Build.VERSION.SDK_INT < MIN_SDK_VERSION_FOR_WAL || db.isReadOnly()) {
+            return false;
+        }
+        try {
+            Method enable = SQLiteDatabase.class.getMethod("enableWriteAheadLogging");
+            return (Boolean) enable.invoke(db);
+        } catch (Exception e) {
+            LogHelper.warn("WriteAheadLogging", "Unable to enable write-ahead logging for " + db.getPath(), e);
+            return false;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
 
 import android.content.Context;
 import android.net.Uri;
@@ -13,6 +14,7 @@ import com.oakonell.utils.LogHelper;
 import com.oakonell.utils.R;
 import com.oakonell.utils.ResponseHandler;
 import com.oakonell.utils.ServiceReadToDBBufferer;
+import com.oakonell.utils.TaskScheduler;
 import com.oakonell.utils.query.Communications.CommunicationEntry;
 
 public abstract class AbstractAsyncQueryHelper implements ResponseHandler {
@@ -22,6 +24,9 @@ public abstract class AbstractAsyncQueryHelper implements ResponseHandler {
     private String parseString;
     private String readString;
     private Context context;
+    private String queryText;
+    private volatile String requestTag;
+    private volatile boolean cancelled;
 
     public AbstractAsyncQueryHelper(Context context, String communicationId, String parseString, String readString) {
         reader = new ServiceReadToDBBufferer(context, this);
@@ -32,16 +37,87 @@ public abstract class AbstractAsyncQueryHelper implements ResponseHandler {
 
     }
 
+    /**
+     * Start the request, or join one in progress for the same uri read by the
+     * same kind of helper- a helper of another kind handles the response
+     * differently, so never shares it (eg, the catalog sync and a search).
+     */
     public final void asyncQueryRequest(String queryText) {
+        this.queryText = queryText;
         updateStartQueryProgress();
         startQueryTime = System.currentTimeMillis();
-        reader.asyncQueryRequest(queryText, getQueryUri(queryText));
+        String queryUri = getQueryUri(queryText);
+        HttpGet request = new HttpGet(queryUri);
+        prepareRequest(request);
+        requestTag = getClass().getName() + " " + queryUri;
+        reader.asyncQueryRequest(requestTag, request, getLane());
+    }
+
+    /**
+     * @return the scheduler lane to run the request on
+     */
+    protected TaskScheduler.Lane getLane() {
+        return TaskScheduler.Lane.NETWORK;
+    }
+
+    public String getQueryText() {
+        return queryText;
+    }
+
+    /**
+     * Abort the request, when its results are no longer wanted (eg, a newer
+     * search superseded it). A response already being parsed should check
+     * {@link #isCancelled()} and drop its results.
+     */
+    public void cancel() {
+        cancelled = true;
+        String tag = requestTag;
+        if (tag != null) {
+            reader.cancel(tag);
+        }
+        deleteProgress();
+    }
+
+    protected boolean isCancelled() {
+        return cancelled;
     }
 
     protected abstract String getQueryUri(String queryText);
 
     protected abstract int parseResponseEntity(HttpEntity entity, Uri uri) throws IOException;
 
+    /**
+     * Hook to add headers (eg, cache validators) to the request before it is
+     * sent.
+     */
+    protected void prepareRequest(HttpGet request) {
+        // nothing by default
+    }
+
+    /**
+     * Called after the response entity was successfully parsed.
+     */
+    protected void responseParsed(HttpResponse response, Uri uri) {
+        // nothing by default
+    }
+
+    /**
+     * Called instead of parsing, when the server answers with an error status
+     * (the body is not read, nor {@link #responseParsed(HttpResponse, Uri)}
+     * called).
+     */
+    protected void responseFailed(HttpResponse response, Uri uri) {
+        // nothing by default
+    }
+
+    /**
+     * Called instead of parsing, when the server reports the content is
+     * unchanged since the validators sent by {@link #prepareRequest(HttpGet)}.
+     */
+    protected void responseNotModified(HttpResponse response, Uri uri) {
+        // nothing by default
+    }
+
     private void updateStartQueryProgress() {
         if (communicationId == null) {
             return;
@@ -68,35 +144,58 @@ public abstract class AbstractAsyncQueryHelper implements ResponseHandler {
 
     @Override
     public void requestError(IOException e) {
-        if (communicationId != null) {
+        if (communicationId != null && !cancelled) {
             CommunicationEntry entry = Communications.get(communicationId);
             entry.placeInError(context.getString(R.string.connectionProblem));
         }
         deleteProgress();
     }
 
+    @Override
+    public void sharedResponseHandled(Uri uri) {
+        LogHelper.info("Libridroid.AsyncQuery", "Shared response for " + uri.toString() + " handled in "
+                + (System.currentTimeMillis() - startQueryTime) + " ms");
+        deleteProgress();
+    }
+
     /**
      * Handles the response from the librivox server, which is in the form of an
      * xml doc.
      */
     @Override
-    public final void handleResponse(HttpResponse response, Uri uri) {
+    public final boolean handleResponse(HttpResponse response, Uri uri) {
+        if (cancelled) {
+            return false;
+        }
         try {
             LogHelper.info("Libridroid.AsyncQuery",
                     "Read reasponse for " + uri.toString() + " in "
                             + (System.currentTimeMillis() - startQueryTime)
                             + " ms");
             int statusCode = response.getStatusLine().getStatusCode();
+            if (HttpStatus.SC_NOT_MODIFIED == statusCode) {
+                responseNotModified(response, uri);
+                deleteProgress();
+                return true;
+            }
             if (HttpStatus.SC_OK != statusCode) {
                 if (communicationId != null) {
                     CommunicationEntry entry = Communications.get(communicationId);
                     entry.placeInError(context.getString(R.string.httpError, statusCode));
                 }
+                LogHelper.warn("Libridroid.AsyncQuery", "Status " + statusCode + " for " + uri.toString());
+                responseFailed(response, uri);
                 deleteProgress();
+                return true;
             }
             updateParsingResponseProgress();
             long start = System.currentTimeMillis();
             int newCount = parseResponseEntity(response.getEntity(), uri);
+            if (cancelled) {
+                LogHelper.info("Libridroid.AsyncQuery", "Cancelled query for " + uri.toString());
+                return true;
+            }
+            responseParsed(response, uri);
 
             LogHelper.info("Libridroid.AsyncQuery",
                     "Parsed search for " + uri.toString() + " in "
@@ -105,5 +204,6 @@ public abstract class AbstractAsyncQueryHelper implements ResponseHandler {
         } catch (IOException e) {
             requestError(e);
         }
+        return true;
     }
 }
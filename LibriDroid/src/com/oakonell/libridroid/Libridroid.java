@@ -18,6 +18,8 @@ public final class Libridroid {
         }
 
         public static final String SEARCH_TABLE_NAME = "search";
+        /** The full text index over the search table's text columns */
+        public static final String SEARCH_FTS_TABLE_NAME = "search_fts";
 
         private static final String PATH_BOOKS = "/search";
         private static final String PATH_BOOK_ID = "/search/";
@@ -65,12 +67,44 @@ public final class Libridroid {
         public static final String COLUMN_NAME_LIBRIVOX_URL = "librivox_url";
         public static final String COLUMN_NAME_BOOK_ID = "book_id";
         public static final String COLUMN_NAME_LAST_USED = "last_used";
+        /** non-zero for rows kept as part of the offline catalog mirror */
+        public static final String COLUMN_NAME_MIRRORED = "mirrored";
 
         public static final String COLUMN_NAME_IS_DOWNLOADED = "is_downloaded";
 
         // useful for generic searches- which will hit librivox
         public static final String QUERY_PARAM_NAME = "q";
 
+        /**
+         * Filters the local search rows through the full text index- each
+         * word is prefix matched against author, title, genre and category,
+         * and results are ranked by relevance unless a sort order is given
+         */
+        public static final String FILTER_PARAM_NAME = "filter";
+
+        /**
+         * Marks a bulk insert as catalog mirror rows- existing rows are
+         * refreshed with the new values, and are not expired with old searches
+         */
+        public static final String MIRROR_PARAM_NAME = "mirror";
+
+        /**
+         * Pages the results- at most this many rows are returned, ordered by
+         * their sort key (relevance when filtered, otherwise title) and then
+         * id. A sort order may not be given with it.
+         */
+        public static final String PAGE_SIZE_PARAM_NAME = "page_size";
+
+        /**
+         * The sort key and id of the last row of the previous page, the next
+         * page starts after it
+         */
+        public static final String AFTER_SORT_KEY_PARAM_NAME = "after_key";
+        public static final String AFTER_ID_PARAM_NAME = "after_id";
+
+        /** the key a paged row is ordered by, only returned when paging */
+        public static final String COLUMN_NAME_SORT_KEY = "sort_key";
+
     }
 
     public static final class Books implements BaseColumns {
@@ -128,6 +162,11 @@ public final class Libridroid {
         public static final String COLUMN_NAME_CURRENT_SECTION = "current_section_number";
         public static final String COLUMN_NAME_CURRENT_POSITION = "current_position";
         public static final String COLUMN_NAME_LAST_LISTENED_ON = "last_listened_on";
+
+        // totals of the book's sections, kept current by the database
+        public static final String COLUMN_NAME_TOTAL_DURATION_MS = "total_duration_ms";
+        public static final String COLUMN_NAME_TOTAL_SIZE_BYTES = "total_size_bytes";
+        public static final String COLUMN_NAME_SECTION_COUNT = "section_count";
     }
 
     public static final class BookSections implements BaseColumns {
@@ -143,9 +182,19 @@ public final class Libridroid {
         public static final String COLUMN_NAME_DURATION = "duration";
         public static final String COLUMN_NAME_SECTION_TITLE = "title";
         public static final String COLUMN_NAME_SECTION_AUTHOR = "author";
+        // the size and duration as numbers, parsed from the feed's text once
+        // when the section is saved
+        public static final String COLUMN_NAME_SIZE_BYTES = "size_bytes";
+        public static final String COLUMN_NAME_DURATION_MS = "duration_ms";
 
         public static final String DEFAULT_SORT_ORDER = "book_id ASC, section_number ASC";
 
+        /**
+         * Marks a bulk insert as a refetch of the book's sections- each row
+         * replaces any existing section with the same number
+         */
+        public static final String REPLACE_PARAM_NAME = "replace";
+
         public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.oakonell.book.section";
 
         public static final String CONTENT_ITEM_TYPE = "vnd.android.cursor.item/vnd.oakonell.book.section";
@@ -21,7 +21,6 @@ import android.os.Bundle;
 import android.os.IBinder;
 import android.text.Html;
 import android.text.Spanned;
-import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -51,6 +50,7 @@ import com.oakonell.libridroid.player.ProgressUpdater;
 import com.oakonell.utils.ByteSizeHelper;
 import com.oakonell.utils.Duration;
 import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.TaskScheduler;
 import com.oakonell.utils.activity.AbstractFlingableActitivty;
 import com.oakonell.utils.query.BackgroundQueryHelper;
 
@@ -198,7 +198,7 @@ public class BookViewActivity extends AbstractFlingableActitivty {
                         runOnUiThread(updateLabel);
                     }
                 };
-                new Thread(runnable).start();
+                TaskScheduler.execute(TaskScheduler.Lane.INTERACTIVE, runnable);
             }
 
         });
@@ -283,7 +283,7 @@ public class BookViewActivity extends AbstractFlingableActitivty {
                 runOnUiThread(updateLabel);
             }
         };
-        new Thread(runnable).start();
+        TaskScheduler.execute(TaskScheduler.Lane.INTERACTIVE, runnable);
     }
 
     private void updateDeleteButton(Button button) {
@@ -332,12 +332,10 @@ public class BookViewActivity extends AbstractFlingableActitivty {
                 int sectionNumber = cursor
                         .getInt(cursor
                                 .getColumnIndex(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER));
-                String duration = cursor
-                        .getString(cursor
-                                .getColumnIndex(Libridroid.BookSections.COLUMN_NAME_DURATION));
+                int durationIndex = cursor.getColumnIndex(Libridroid.BookSections.COLUMN_NAME_DURATION_MS);
                 long size = cursor
                         .getLong(cursor
-                                .getColumnIndex(Libridroid.BookSections.COLUMN_NAME_SIZE));
+                                .getColumnIndex(Libridroid.BookSections.COLUMN_NAME_SIZE_BYTES));
                 String sectionTitle = cursor
                         .getString(cursor
                                 .getColumnIndex(Libridroid.BookSections.COLUMN_NAME_SECTION_TITLE));
@@ -358,9 +356,9 @@ public class BookViewActivity extends AbstractFlingableActitivty {
 
                 TextView durationView = (TextView)
                         view.findViewById(R.id.duration);
-                if (!TextUtils.isEmpty(duration)) {
-                    Duration dur = Duration.from(duration);
-                    duration = dur.toString();
+                String duration = "";
+                if (!cursor.isNull(durationIndex)) {
+                    duration = Duration.fromMilliseconds(cursor.getLong(durationIndex)).toString();
                 }
                 durationView.setText(duration);
 
@@ -404,14 +402,13 @@ public class BookViewActivity extends AbstractFlingableActitivty {
         AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
-                Duration dur = new Duration(0, 0, 0);
-                long size = 0;
                 long diskUsage = 0;
 
+                // the totals are kept with the book
                 book.refresh(getContentResolver());
+                Duration dur = book.getDuration();
+                long size = book.getSize();
                 for (BookSection each : sections) {
-                    dur = dur.add(each.getDuration());
-                    size += each.getSize();
                     long sectionNum = each.getSectionNumber();
 
                     File file = FileHelper.getFile(getContentResolver(), book.getId(), sectionNum, false,
@@ -713,7 +710,7 @@ public class BookViewActivity extends AbstractFlingableActitivty {
                         runOnUiThread(uiPostDelete);
                     }
                 };
-                new Thread(runnable).start();
+                TaskScheduler.execute(TaskScheduler.Lane.INTERACTIVE, runnable);
                 return true;
             case SectionMenuItems.DOWNLOAD:
                 BooksHelper.downloadSectionIfNeeded(this, book.getUri(), index);
@@ -30,6 +30,7 @@ import com.oakonell.libridroid.impl.FileHelper;
 import com.oakonell.libridroid.player.LibriDroidPlayerService;
 import com.oakonell.libridroid.player.PlayerActivity;
 import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.TaskScheduler;
 
 public final class BooksHelper {
     private BooksHelper() {
@@ -52,7 +53,7 @@ public final class BooksHelper {
                 }
             }
         };
-        new Thread(runnable).start();
+        TaskScheduler.execute(TaskScheduler.Lane.INTERACTIVE, runnable);
     }
 
     private static void startDownloadService(final Context context) {
@@ -96,8 +97,7 @@ public final class BooksHelper {
                 }
             }
         };
-        Thread thread = new Thread(runnable);
-        thread.start();
+        TaskScheduler.execute(TaskScheduler.Lane.PLAYBACK, runnable);
     }
 
     public static void playSection(Context context, Uri bookUri, int index) {
@@ -205,7 +205,7 @@ public final class BooksHelper {
                 }
             }
         };
-        new Thread(runnable).start();
+        TaskScheduler.execute(TaskScheduler.Lane.INTERACTIVE, runnable);
     }
 
     private static boolean sectionDownloadNeeded(Context context, BookSection section, boolean addIfMissing) {
@@ -270,13 +270,12 @@ public final class BooksHelper {
                                 }
                             }
                         };
-                        Thread thread = new Thread(new Runnable() {
+                        TaskScheduler.execute(TaskScheduler.Lane.BACKGROUND, new Runnable() {
                             @Override
                             public void run() {
                                 deleteBookFiles(context, bookUri, dismissProgressAndPostDelete);
                             }
                         });
-                        thread.start();
                         break;
 
                     case DialogInterface.BUTTON_NEGATIVE:
@@ -304,7 +303,7 @@ public final class BooksHelper {
                 }
             }
         };
-        Thread thread = new Thread(new Runnable() {
+        TaskScheduler.execute(TaskScheduler.Lane.INTERACTIVE, new Runnable() {
             @Override
             public void run() {
                 Book book = Book.read(context.getContentResolver(), bookUri);
@@ -324,7 +323,6 @@ public final class BooksHelper {
                 }
             }
         });
-        thread.start();
     }
 
 }
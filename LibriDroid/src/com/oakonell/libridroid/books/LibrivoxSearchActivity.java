@@ -1,13 +1,17 @@
 package com.oakonell.libridroid.books;
 
 import android.app.Activity;
+import android.content.AsyncQueryHandler;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.text.Editable;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.KeyEvent;
@@ -15,6 +19,8 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.inputmethod.InputMethodManager;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
 import android.widget.AdapterView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
 import android.widget.AdapterView.OnItemClickListener;
@@ -34,12 +40,41 @@ import com.oakonell.utils.LogHelper;
 import com.oakonell.utils.query.BackgroundQueryHelper;
 
 public class LibrivoxSearchActivity extends Activity {
+    // wait for a short pause in typing before filtering the local results,
+    // and a longer one before asking librivox
+    private static final long LOCAL_SEARCH_DELAY_MS = 250;
+    private static final long REMOTE_SEARCH_DELAY_MS = 700;
+    private static final int MIN_REMOTE_SEARCH_LENGTH = 3;
+    private static final int PAGE_SIZE = 40;
+    // read the next page while this many rows are still below the screen
+    private static final int PREFETCH_ROWS = 10;
+    private static final int SEARCH_TOKEN = 1;
+
+    private final Handler handler = new Handler();
+    private final Runnable localSearch = new Runnable() {
+        @Override
+        public void run() {
+            search(mSearchText.getText().toString(), false);
+        }
+    };
+    private final Runnable remoteSearch = new Runnable() {
+        @Override
+        public void run() {
+            search(mSearchText.getText().toString(), true);
+        }
+    };
+
     private ResourceCursorAdapter mAdapter;
     private EditText mSearchText;
 
     private BackgroundQueryHelper backgroundSearchQueryHelper;
+    private SearchPages searchPages;
     private Cursor searchCursor;
     private ListView searchList;
+    private AsyncQueryHandler searchQueryHandler;
+    // the local uri of the latest search, until its first page is read- an
+    // older search's page read meanwhile is dropped
+    private Uri pendingSearch;
 
     /** Called when the activity is first created. */
     @Override
@@ -50,9 +85,41 @@ public class LibrivoxSearchActivity extends Activity {
         backgroundSearchQueryHelper = new BackgroundQueryHelper(this, (ProgressBar) findViewById(R.id.search_progress),
                 (TextView) findViewById(R.id.progress_message), null, R.color.error);
 
+        searchPages = new SearchPages(getContentResolver(), PAGE_SIZE);
+        searchQueryHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                if (cookie != pendingSearch) {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                    return;
+                }
+                pendingSearch = null;
+                // only the first page is read now, the rest as the list is
+                // scrolled
+                showResults(searchPages.start((Uri) cookie, cursor));
+                searchList.setAdapter(mAdapter);
+            }
+        };
+
         searchList = (ListView) findViewById(R.id.list);
         registerForContextMenu(searchList);
 
+        searchList.setOnScrollListener(new OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                // nothing to do
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                if (searchPages.hasMore() && firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_ROWS) {
+                    showResults(searchPages.next());
+                }
+            }
+        });
+
         searchList.setOnItemClickListener(new OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> adapterview, View view, int position, long rowId) {
@@ -68,8 +135,8 @@ public class LibrivoxSearchActivity extends Activity {
         mAdapter = new ResourceCursorAdapter(this, R.layout.librivox_list_item, null) {
             @Override
             protected void onContentChanged() {
-                super.onContentChanged();
-                updateCount();
+                // re-read the pages loaded so far, rather than requery each
+                showResults(searchPages.reload());
             }
 
             @Override
@@ -134,6 +201,34 @@ public class LibrivoxSearchActivity extends Activity {
             }
         });
 
+        mSearchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence text, int start, int count, int after) {
+                // nothing to do
+            }
+
+            @Override
+            public void onTextChanged(CharSequence text, int start, int before, int count) {
+                // nothing to do
+            }
+
+            @Override
+            public void afterTextChanged(Editable text) {
+                // filter the local results once typing pauses, and only go
+                // to the network after a longer pause
+                handler.removeCallbacks(localSearch);
+                handler.removeCallbacks(remoteSearch);
+                String input = text.toString().trim();
+                if (TextUtils.isEmpty(input)) {
+                    return;
+                }
+                handler.postDelayed(localSearch, LOCAL_SEARCH_DELAY_MS);
+                if (input.length() >= MIN_REMOTE_SEARCH_LENGTH) {
+                    handler.postDelayed(remoteSearch, REMOTE_SEARCH_DELAY_MS);
+                }
+            }
+        });
+
         final Button searchButton = (Button) findViewById(R.id.searchButton);
         searchButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -177,11 +272,20 @@ public class LibrivoxSearchActivity extends Activity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        handler.removeCallbacks(localSearch);
+        handler.removeCallbacks(remoteSearch);
+        // (a page already being read is closed when it completes)
+        pendingSearch = null;
+        searchQueryHandler.cancelOperation(SEARCH_TOKEN);
         backgroundSearchQueryHelper.onDestroy();
+        // closes the search's pages
+        mAdapter.changeCursor(null);
     }
 
     // sends the query to the content provider
     void query() {
+        handler.removeCallbacks(localSearch);
+        handler.removeCallbacks(remoteSearch);
         InputMethodManager imm = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
         imm.hideSoftInputFromWindow(mSearchText.getWindowToken(), 0);
         // These are attempts to have the keyboard hidden when the search is
@@ -191,59 +295,55 @@ public class LibrivoxSearchActivity extends Activity {
         // searchButton.requestFocus();
         // mSearchText.clearFocus();
 
-        String input = mSearchText.getText().toString();
+        search(mSearchText.getText().toString(), true);
+    }
+
+    /**
+     * Read the search's first page on the query handler's thread, and show it
+     * when read, unless a newer search was started meanwhile.
+     *
+     * @param remote
+     *            whether to also fetch from librivox, or just filter the
+     *            local results
+     */
+    private void search(String input, boolean remote) {
         if (TextUtils.isEmpty(input)) {
             return;
         }
 
-        String queryString = Libridroid.Search.QUERY_PARAM_NAME + "=" + Uri.encode(input);
+        // the same text is used to fetch from librivox, and to filter the
+        // local results through the full text index
+        String queryString = Libridroid.Search.FILTER_PARAM_NAME + "=" + Uri.encode(input);
+        Uri localUri = Uri.parse(Libridroid.Search.CONTENT_URI + "?" + queryString);
+        if (remote) {
+            queryString = Libridroid.Search.QUERY_PARAM_NAME + "=" + Uri.encode(input) + "&" + queryString;
+        }
         String baseUri = Libridroid.Search.CONTENT_URI + "?" + queryString;
 
-        // final Uri queryUri = backgroundSearchQueryHelper.beginQuery(baseUri);
-        final Uri queryUri = Uri.parse(baseUri);
-
-        String[] searchFields = new String[] {
-                Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_AUTHOR,
-                Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_TITLE,
-                Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_GENRE,
-                Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_CATEGORY
-        };
-        final String[] selectArguments = new String[searchFields.length];
-        String likePatternInput = "%" + input + "%";
-        StringBuilder selectionBuilder = new StringBuilder();
-        int i = 0;
-        for (String eachField : searchFields) {
-            if (i != 0) {
-                selectionBuilder.append(" OR ");
-            }
-            selectionBuilder.append(eachField);
-            selectionBuilder.append(" like ? ");
-            selectArguments[i] = likePatternInput;
-            i++;
+        // the provider cancels the fetch of an older search superseded by
+        // this one
+        Uri queryUri;
+        if (remote) {
+            queryUri = backgroundSearchQueryHelper.beginQuery(baseUri);
+        } else {
+            queryUri = Uri.parse(baseUri);
         }
-        final String selectCriteria = selectionBuilder.toString();
-
-        runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                if (searchCursor != null) {
-                    searchCursor.close();
-                    stopManagingCursor(searchCursor);
-                    searchCursor = null;
-                }
-
-                searchCursor = managedQuery(queryUri, null, selectCriteria,
-                        selectArguments, null);
-                startManagingCursor(searchCursor);
 
-                // searchList.invalidate();
+        // (an older search still queued is read, so a librivox fetch it
+        // started reports its progress, but its page is then dropped)
+        pendingSearch = localUri;
+        searchQueryHandler.startQuery(SEARCH_TOKEN, localUri, searchPages.firstPageUri(queryUri), null, null, null,
+                null);
+    }
 
-                mAdapter.changeCursor(searchCursor);
-                mAdapter.notifyDataSetChanged();
-                searchList.setAdapter(mAdapter);
-                // mAdapter.notifyDataSetInvalidated();
-            }
-        });
+    private void showResults(Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        // the previous cursor (and its pages, unless they were carried on to
+        // this one) is closed
+        searchCursor = cursor;
+        mAdapter.changeCursor(cursor);
         updateCount();
     }
 
@@ -258,8 +358,8 @@ public class LibrivoxSearchActivity extends Activity {
             public void run() {
                 int count = searchCursor.getCount();
                 TextView countView = (TextView) findViewById(R.id.booksFound);
-                countView.setText(getResources().getQuantityString(R.plurals.books_found,
-                        count, count));
+                int plural = searchPages.hasMore() ? R.plurals.books_found_more : R.plurals.books_found;
+                countView.setText(getResources().getQuantityString(plural, count, count));
             }
         });
     }
@@ -324,9 +424,7 @@ public class LibrivoxSearchActivity extends Activity {
 
                     @Override
                     public void run() {
-                        if (searchCursor != null) {
-                            searchCursor.requery();
-                        }
+                        showResults(searchPages.reload());
                     }
                 };
                 runOnUiThread(runnable);
@@ -351,9 +449,7 @@ public class LibrivoxSearchActivity extends Activity {
                             BooksHelper.getBookUriForSearch(this, searchUri, true);
                 }
                 BooksHelper.addBookToLibrary(LibrivoxSearchActivity.this, bookUri);
-                if (searchCursor != null) {
-                    searchCursor.requery();
-                }
+                showResults(searchPages.reload());
                 return true;
             case SearchMenuItems.REMOVE:
                 if (bookUri != null) {
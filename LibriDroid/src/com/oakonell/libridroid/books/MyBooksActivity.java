@@ -32,6 +32,7 @@ import com.oakonell.libridroid.impl.FileHelper;
 import com.oakonell.libridroid.impl.MenuHelper;
 import com.oakonell.utils.ByteSizeHelper;
 import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.TaskScheduler;
 import com.oakonell.utils.activity.AbstractFlingableActitivty;
 import com.oakonell.utils.activity.AppLaunchUtils;
 
@@ -105,7 +106,7 @@ public class MyBooksActivity extends AbstractFlingableActitivty {
         diskUsageUpdater = new Runnable() {
             @Override
             public void run() {
-                Thread thread = new Thread(new Runnable() {
+                TaskScheduler.execute(TaskScheduler.Lane.BACKGROUND, new Runnable() {
                     @Override
                     public void run() {
                         final long diskUsage = FileHelper.getDiskUsage(FileHelper.getRootLibridroidDirectory());
@@ -118,7 +119,6 @@ public class MyBooksActivity extends AbstractFlingableActitivty {
                         });
                     }
                 });
-                thread.start();
             }
         };
         booksList.setAdapter(mAdapter);
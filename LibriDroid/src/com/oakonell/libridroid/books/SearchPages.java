@@ -0,0 +1,147 @@
+package com.oakonell.libridroid.books;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.MergeCursor;
+import android.net.Uri;
+
+import com.oakonell.libridroid.Libridroid;
+
+/**
+ * Search results read a page at a time as the list is scrolled, so a broad
+ * search only reads (and holds cursor windows for) the rows seen so far. Each
+ * page continues from the sort key and id of the previous page's last row.
+ */
+final class SearchPages {
+    private final ContentResolver resolver;
+    private final int pageSize;
+
+    private final List<Cursor> pages = new ArrayList<Cursor>();
+    // the search without a librivox fetch, for the following pages
+    private Uri localUri;
+    private PagesCursor current;
+    private boolean hasMore;
+    private String lastSortKey;
+    private long lastId;
+
+    SearchPages(ContentResolver resolver, int pageSize) {
+        this.resolver = resolver;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param queryUri
+     *            the search, which may also ask librivox
+     * @return the uri of the search's first page, to be queried by the
+     *         caller (off the main thread) and handed to
+     *         {@link #start(Uri, Cursor)}
+     */
+    Uri firstPageUri(Uri queryUri) {
+        return pageUri(queryUri, pageSize);
+    }
+
+    /**
+     * @param localUri
+     *            the same search of the local results only
+     * @param firstPage
+     *            the rows read from {@link #firstPageUri(Uri)}, or null
+     * @return the first page of the search
+     */
+    Cursor start(Uri localUri, Cursor firstPage) {
+        this.localUri = localUri;
+        // the previous search's pages are closed with its cursor
+        pages.clear();
+        addPage(firstPage, pageSize);
+        return merge();
+    }
+
+    /**
+     * @return the rows so far and the next page, or null if there is no next
+     *         page
+     */
+    Cursor next() {
+        if (!hasMore) {
+            return null;
+        }
+        Uri uri = pageUri(localUri, pageSize).buildUpon()
+                .appendQueryParameter(Libridroid.Search.AFTER_SORT_KEY_PARAM_NAME, lastSortKey)
+                .appendQueryParameter(Libridroid.Search.AFTER_ID_PARAM_NAME, Long.toString(lastId))
+                .build();
+        // the pages carry on in the new cursor
+        current.handedOn = true;
+        addPage(uri, pageSize);
+        return merge();
+    }
+
+    /**
+     * Read the rows loaded so far again, as one page. Requerying each page
+     * from its old key instead would skip rows added before it.
+     */
+    Cursor reload() {
+        if (localUri == null) {
+            return null;
+        }
+        int count = Math.max(pageSize, getCount());
+        pages.clear();
+        addPage(pageUri(localUri, count), count);
+        return merge();
+    }
+
+    boolean hasMore() {
+        return hasMore;
+    }
+
+    int getCount() {
+        if (current == null) {
+            return 0;
+        }
+        return current.getCount();
+    }
+
+    private void addPage(Uri uri, int size) {
+        addPage(resolver.query(uri, null, null, null, null), size);
+    }
+
+    private void addPage(Cursor cursor, int size) {
+        if (cursor == null) {
+            hasMore = false;
+            return;
+        }
+        pages.add(cursor);
+        hasMore = cursor.getCount() >= size;
+        if (cursor.moveToLast()) {
+            lastSortKey = cursor.getString(cursor.getColumnIndex(Libridroid.Search.COLUMN_NAME_SORT_KEY));
+            lastId = cursor.getLong(cursor.getColumnIndex(Libridroid.Search._ID));
+        }
+    }
+
+    private Cursor merge() {
+        current = new PagesCursor(pages.toArray(new Cursor[pages.size()]));
+        return current;
+    }
+
+    private static Uri pageUri(Uri uri, int size) {
+        return uri.buildUpon().appendQueryParameter(Libridroid.Search.PAGE_SIZE_PARAM_NAME, Integer.toString(size))
+                .build();
+    }
+
+    private static final class PagesCursor extends MergeCursor {
+        // once the next page is read the pages belong to the next cursor, and
+        // are not closed with this one
+        private boolean handedOn;
+
+        PagesCursor(Cursor[] pages) {
+            super(pages);
+        }
+
+        @Override
+        public void close() {
+            if (!handedOn) {
+                super.close();
+            }
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.oakonell.libridroid.books;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.URI;
@@ -14,9 +15,7 @@ import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -43,6 +42,7 @@ import com.oakonell.libridroid.R;
 import com.oakonell.libridroid.data.LibrivoxRSSParser;
 import com.oakonell.libridroid.data.LibrivoxRSSParser.BookParsedCallback;
 import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.SharedHttpClient;
 import com.oakonell.utils.share.ActivityLaunchAdapter;
 import com.oakonell.utils.xml.XMLUtils;
 
@@ -111,14 +111,14 @@ public class SharedBookActivity extends Activity {
         // if not in library, grab it from librivox, and then navigate to it
         // (if it exists)
         String url = "http://catalog.librivox.org/search_xml.php?extended=1&id=" + librivoxId;
-        HttpClient client = new DefaultHttpClient();
         HttpGet request = new HttpGet();
         InputStreamReader inputReader;
+        HttpEntity entity;
         try {
             request.setURI(new URI(url));
-            HttpResponse response = client.execute(request);
+            HttpResponse response = SharedHttpClient.get().execute(request);
 
-            HttpEntity entity = response.getEntity();
+            entity = response.getEntity();
 
             InputStream content = entity.getContent();
             inputReader = new InputStreamReader(content, "UTF-8");
@@ -141,6 +141,8 @@ public class SharedBookActivity extends Activity {
         } catch (Exception e) {
             updateError("Exception while inserting a book for librivoxId = " + librivoxId);
             return;
+        } finally {
+            SharedHttpClient.release(entity);
         }
 
         if (inserted != 1) {
@@ -181,10 +183,9 @@ public class SharedBookActivity extends Activity {
     private String getTitleFrom(String rssUrl) {
         InputStream rssContent;
         try {
-            HttpClient client = new DefaultHttpClient();
             HttpGet rssRequest = new HttpGet();
             rssRequest.setURI(new URI(rssUrl));
-            HttpResponse rssResponse = client.execute(rssRequest);
+            HttpResponse rssResponse = SharedHttpClient.get().execute(rssRequest);
             rssContent = rssResponse.getEntity().getContent();
 
         } catch (Exception e) {
@@ -198,11 +199,13 @@ public class SharedBookActivity extends Activity {
                     .newInstance();
             DocumentBuilder builder = factory.newDocumentBuilder();
             dom = builder.parse(rssContent);
-            rssContent.close();
         } catch (Exception e) {
             updateError("Error creating/parsing xml document from url "
                     + rssUrl);
             return null;
+        } finally {
+            // closing the content returns the connection to the pool
+            closeQuietly(rssContent);
         }
         // String xmlString = XMLUtils.xmlDocumentToString(dom);
         // LogHelper.info("", xmlString);
@@ -226,14 +229,16 @@ public class SharedBookActivity extends Activity {
     private String getBookFeedRssUrl(Intent intent) {
         String html;
         try {
-            HttpClient client = new DefaultHttpClient();
             HttpGet request = new HttpGet();
             request.setURI(new URI(intent.getDataString()));
-            HttpResponse response = client.execute(request);
+            HttpResponse response = SharedHttpClient.get().execute(request);
 
             InputStream content = response.getEntity().getContent();
-            html = new Scanner(content).useDelimiter("\\A").next();
-            content.close();
+            try {
+                html = new Scanner(content).useDelimiter("\\A").next();
+            } finally {
+                closeQuietly(content);
+            }
         } catch (Exception e) {
             updateError("Error connecting to  " + intent.getDataString());
             return null;
@@ -247,6 +252,14 @@ public class SharedBookActivity extends Activity {
         return null;
     }
 
+    private static void closeQuietly(InputStream content) {
+        try {
+            content.close();
+        } catch (IOException e) {
+            LogHelper.debug("SharedBookActivity", "Error closing response", e);
+        }
+    }
+
     private void redirectToOtherActivity(final Intent intent) {
         final Intent newIntent = new Intent(Intent.ACTION_VIEW);
         newIntent.setData(intent.getData());
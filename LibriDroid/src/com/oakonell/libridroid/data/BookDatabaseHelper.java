@@ -1,17 +1,29 @@
 package com.oakonell.libridroid.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 
 import com.oakonell.libridroid.Libridroid;
+import com.oakonell.utils.Duration;
+import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.db.SchemaMigrations;
+import com.oakonell.utils.db.WriteAheadLogging;
 
 public class BookDatabaseHelper extends SQLiteOpenHelper {
     public static final String DATABASE_NAME = "books.db";
-    private static final int DATABASE_VERSION = 37;
+    private static final int DATABASE_VERSION = 42;
 
     private static final String SEARCH_TABLE_NAME = Libridroid.Search.SEARCH_TABLE_NAME;
+    // added v41
+    static final String SEARCH_LIBRIVOX_ID_TITLE_INDEX_NAME = "search_librivox_id_title_idx";
+    static final String SECTION_BOOK_SECTION_INDEX_NAME = "book_sections_book_id_section_number_idx";
+    // added v38
+    private static final String SEARCH_FTS_TABLE_NAME = Libridroid.Search.SEARCH_FTS_TABLE_NAME;
 
     private static final class SearchTable {
         private static final String TITLE = Libridroid.Search.COLUMN_NAME_TITLE;
@@ -28,6 +40,8 @@ public class BookDatabaseHelper extends SQLiteOpenHelper {
         private static final String CATEGORY = Libridroid.Search.COLUMN_NAME_CATEGORY;
         private static final String LIBRIVOX_URL = Libridroid.Search.COLUMN_NAME_LIBRIVOX_URL;
         private static final String LAST_USED = Libridroid.Search.COLUMN_NAME_LAST_USED;
+        // added v39
+        private static final String MIRRORED = Libridroid.Search.COLUMN_NAME_MIRRORED;
     }
 
     private static final String BOOK_TABLE_NAME = Libridroid.Books.BOOK_TABLE_NAME;
@@ -52,6 +66,10 @@ public class BookDatabaseHelper extends SQLiteOpenHelper {
 
         private static final String IS_DOWNLOADED = Libridroid.Books.COLUMN_NAME_IS_DOWNLOADED;
         private static final String TIMESTAMP = "timestamp";
+        // added v42
+        private static final String TOTAL_DURATION_MS = Libridroid.Books.COLUMN_NAME_TOTAL_DURATION_MS;
+        private static final String TOTAL_SIZE_BYTES = Libridroid.Books.COLUMN_NAME_TOTAL_SIZE_BYTES;
+        private static final String SECTION_COUNT = Libridroid.Books.COLUMN_NAME_SECTION_COUNT;
     }
 
     private static final String BOOK_SECTION_TABLE_NAME = Libridroid.BookSections.BOOK_SECTION_TABLE_NAME;
@@ -64,6 +82,9 @@ public class BookDatabaseHelper extends SQLiteOpenHelper {
         private static final String SECTION_URL = Libridroid.BookSections.COLUMN_NAME_URL;
         private static final String SIZE = Libridroid.BookSections.COLUMN_NAME_SIZE;
         private static final String DURATION = Libridroid.BookSections.COLUMN_NAME_DURATION;
+        // added v42
+        private static final String SIZE_BYTES = Libridroid.BookSections.COLUMN_NAME_SIZE_BYTES;
+        private static final String DURATION_MS = Libridroid.BookSections.COLUMN_NAME_DURATION_MS;
     }
 
     public BookDatabaseHelper(Context context, String name, SQLiteDatabase.CursorFactory factory) {
@@ -75,7 +96,7 @@ public class BookDatabaseHelper extends SQLiteOpenHelper {
         createTables(db);
     }
 
-    private void createTables(SQLiteDatabase sqLiteDatabase) {
+    private static void createTables(SQLiteDatabase sqLiteDatabase) {
         createSearchTable(sqLiteDatabase);
 
         String createTableString = "CREATE TABLE " + BOOK_TABLE_NAME +
@@ -100,7 +121,11 @@ public class BookDatabaseHelper extends SQLiteOpenHelper {
                 BookTable.LAST_LISTENED_ON + " TEXT," +
 
                 BookTable.IS_DOWNLOADED + " INTEGER," +
-                BookTable.TIMESTAMP + " TEXT" +
+                BookTable.TIMESTAMP + " TEXT, " +
+
+                BookTable.TOTAL_DURATION_MS + " INTEGER DEFAULT 0, " +
+                BookTable.TOTAL_SIZE_BYTES + " INTEGER DEFAULT 0, " +
+                BookTable.SECTION_COUNT + " INTEGER DEFAULT 0" +
                 ");";
         sqLiteDatabase.execSQL(createTableString);
 
@@ -113,12 +138,107 @@ public class BookDatabaseHelper extends SQLiteOpenHelper {
                 BookSectionTable.SECTION_TITLE + " TEXT, " +
                 BookSectionTable.SECTION_AUTHOR + " TEXT, " +
                 BookSectionTable.SIZE + " TEXT, " +
-                BookSectionTable.DURATION + " TEXT" +
+                BookSectionTable.DURATION + " TEXT, " +
+                BookSectionTable.SIZE_BYTES + " INTEGER, " +
+                BookSectionTable.DURATION_MS + " INTEGER" +
                 ");";
         sqLiteDatabase.execSQL(createTableString);
+        createSectionIndex(sqLiteDatabase);
+        createBookTotalsTriggers(sqLiteDatabase);
+    }
+
+    /**
+     * Keep each book's total duration, size and section count current as its
+     * sections are written, so reading them is a single row rather than a
+     * pass over the sections.
+     */
+    private static void createBookTotalsTriggers(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + BOOK_SECTION_TABLE_NAME + "_totals_insert AFTER INSERT ON " +
+                BOOK_SECTION_TABLE_NAME + " BEGIN " + updateBookTotals("new." + BookSectionTable.OWNING_BOOK_ID) +
+                "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + BOOK_SECTION_TABLE_NAME + "_totals_update AFTER UPDATE OF " +
+                BookSectionTable.OWNING_BOOK_ID + ", " + BookSectionTable.SIZE_BYTES + ", " +
+                BookSectionTable.DURATION_MS + " ON " + BOOK_SECTION_TABLE_NAME + " BEGIN " +
+                updateBookTotals("old." + BookSectionTable.OWNING_BOOK_ID) +
+                updateBookTotals("new." + BookSectionTable.OWNING_BOOK_ID) + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + BOOK_SECTION_TABLE_NAME + "_totals_delete AFTER DELETE ON " +
+                BOOK_SECTION_TABLE_NAME + " BEGIN " + updateBookTotals("old." + BookSectionTable.OWNING_BOOK_ID) +
+                "END;");
+        // sections may be read before the book is added to the library
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + BOOK_TABLE_NAME + "_totals_insert AFTER INSERT ON " +
+                BOOK_TABLE_NAME + " BEGIN " + updateBookTotals("new." + BaseColumns._ID) + "END;");
+    }
+
+    private static String updateBookTotals(String bookId) {
+        String sections = " FROM " + BOOK_SECTION_TABLE_NAME + " WHERE " + BookSectionTable.OWNING_BOOK_ID + " = " +
+                bookId + ")";
+        return "UPDATE " + BOOK_TABLE_NAME + " SET " +
+                BookTable.TOTAL_DURATION_MS + " = (SELECT COALESCE(SUM(" + BookSectionTable.DURATION_MS + "), 0)" +
+                sections + ", " +
+                BookTable.TOTAL_SIZE_BYTES + " = (SELECT COALESCE(SUM(" + BookSectionTable.SIZE_BYTES + "), 0)" +
+                sections + ", " +
+                BookTable.SECTION_COUNT + " = (SELECT COUNT(*)" + sections +
+                " WHERE " + BaseColumns._ID + " = " + bookId + "; ";
+    }
+
+    /**
+     * Put the section's size and duration as numbers, parsed from the feed's
+     * text, unless already given.
+     */
+    static void putTypedSectionValues(ContentValues values) {
+        if (!values.containsKey(BookSectionTable.SIZE_BYTES) && values.containsKey(BookSectionTable.SIZE)) {
+            values.put(BookSectionTable.SIZE_BYTES, parseSizeBytes(values.getAsString(BookSectionTable.SIZE)));
+        }
+        if (!values.containsKey(BookSectionTable.DURATION_MS) && values.containsKey(BookSectionTable.DURATION)) {
+            values.put(BookSectionTable.DURATION_MS,
+                    parseDurationMs(values.getAsString(BookSectionTable.DURATION)));
+        }
+    }
+
+    private static Long parseSizeBytes(String size) {
+        if (TextUtils.isEmpty(size)) {
+            return null;
+        }
+        try {
+            return Long.parseLong(size.trim());
+        } catch (NumberFormatException e) {
+            LogHelper.warn("BookDatabaseHelper", "Invalid section size '" + size + "'");
+            return null;
+        }
+    }
+
+    private static Long parseDurationMs(String duration) {
+        if (TextUtils.isEmpty(duration)) {
+            return null;
+        }
+        try {
+            return Long.valueOf(Duration.from(duration.trim()).getTotalMilliseconds());
+        } catch (IllegalArgumentException e) {
+            LogHelper.warn("BookDatabaseHelper", "Invalid section duration '" + duration + "'");
+            return null;
+        }
     }
 
-    private void createSearchTable(SQLiteDatabase sqLiteDatabase) {
+    /**
+     * Sections are always looked up by book (and section number), and a book
+     * has at most one of each section.
+     */
+    private static void createSectionIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE UNIQUE INDEX " + SECTION_BOOK_SECTION_INDEX_NAME + " ON " +
+                BOOK_SECTION_TABLE_NAME + " (" + BookSectionTable.OWNING_BOOK_ID + ", " +
+                BookSectionTable.SECTION_NUMBER + ");");
+    }
+
+    /**
+     * Search rows are matched to new results by librivox id and title, and to
+     * books by librivox id (the books' librivox id is already unique).
+     */
+    private static void createSearchIndex(SQLiteDatabase sqLiteDatabase) {
+        sqLiteDatabase.execSQL("CREATE INDEX " + SEARCH_LIBRIVOX_ID_TITLE_INDEX_NAME + " ON " +
+                SEARCH_TABLE_NAME + " (" + SearchTable.LIBRIVOX_ID + ", " + SearchTable.TITLE + ");");
+    }
+
+    private static void createSearchTable(SQLiteDatabase sqLiteDatabase) {
         String createTableString = "CREATE TABLE " + SEARCH_TABLE_NAME +
                 " (" +
                 BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -137,26 +257,192 @@ public class BookDatabaseHelper extends SQLiteOpenHelper {
                 SearchTable.LIBRIVOX_ID + " TEXT , " +
                 SearchTable.NUM_SECTIONS + " INTEGER , " +
 
-                SearchTable.LAST_USED + " INTEGER " +
+                SearchTable.LAST_USED + " INTEGER, " +
+                SearchTable.MIRRORED + " INTEGER DEFAULT 0" +
 
                 ");";
         sqLiteDatabase.execSQL(createTableString);
+
+        createSearchFullTextIndex(sqLiteDatabase);
+        createSearchIndex(sqLiteDatabase);
+        // added v40
+        SearchResultCache.createTable(sqLiteDatabase);
+    }
+
+    /**
+     * The full text index over the searchable text columns, keyed by the
+     * search row's id and kept in step with it by triggers.
+     */
+    private static void createSearchFullTextIndex(SQLiteDatabase sqLiteDatabase) {
+        String indexedColumns = SearchTable.AUTHOR + ", " +
+                SearchTable.TITLE + ", " +
+                SearchTable.GENRE + ", " +
+                SearchTable.CATEGORY;
+        String newValues = "new." + BaseColumns._ID + ", " +
+                "new." + SearchTable.AUTHOR + ", " +
+                "new." + SearchTable.TITLE + ", " +
+                "new." + SearchTable.GENRE + ", " +
+                "new." + SearchTable.CATEGORY;
+
+        sqLiteDatabase.execSQL("CREATE VIRTUAL TABLE " + SEARCH_FTS_TABLE_NAME +
+                " USING fts3(" + indexedColumns + ");");
+
+        String insertIndex = "INSERT INTO " + SEARCH_FTS_TABLE_NAME +
+                " (docid, " + indexedColumns + ") VALUES (" + newValues + "); ";
+        String deleteIndex = "DELETE FROM " + SEARCH_FTS_TABLE_NAME +
+                " WHERE docid = old." + BaseColumns._ID + "; ";
+
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + SEARCH_FTS_TABLE_NAME + "_insert AFTER INSERT ON " +
+                SEARCH_TABLE_NAME + " BEGIN " + insertIndex + "END;");
+        // last_used is touched on every search, only re-index the text
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + SEARCH_FTS_TABLE_NAME + "_update AFTER UPDATE OF " +
+                indexedColumns + " ON " + SEARCH_TABLE_NAME + " BEGIN " + deleteIndex + insertIndex + "END;");
+        sqLiteDatabase.execSQL("CREATE TRIGGER " + SEARCH_FTS_TABLE_NAME + "_delete AFTER DELETE ON " +
+                SEARCH_TABLE_NAME + " BEGIN " + deleteIndex + "END;");
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        WriteAheadLogging.enable(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + SEARCH_TABLE_NAME + ";");
-        switch (oldVersion) {
-            case 35:
-            case 36:
-                createSearchTable(db);
-                break;
-            case 37:
-                throw new RuntimeException("DB upgrade not yet catered to");
-            default:
-                db.execSQL("DROP TABLE IF EXISTS " + BOOK_TABLE_NAME + ";");
-                db.execSQL("DROP TABLE IF EXISTS " + BOOK_SECTION_TABLE_NAME + ";");
-                createTables(db);
+        if (MIGRATIONS.canMigrate(oldVersion)) {
+            MIGRATIONS.migrate(db, oldVersion, newVersion);
+            return;
         }
+        // too old to migrate, start again
+        dropSearchTables(db);
+        db.execSQL("DROP TABLE IF EXISTS " + BOOK_TABLE_NAME + ";");
+        db.execSQL("DROP TABLE IF EXISTS " + BOOK_SECTION_TABLE_NAME + ";");
+        createTables(db);
+    }
+
+    /**
+     * The in place upgrades, keeping the library (books, sections and
+     * listening positions). Each step must leave the schema exactly as
+     * createTables would at that version.
+     */
+    static final SchemaMigrations MIGRATIONS = new SchemaMigrations(DATABASE_NAME, 35)
+            .add(37, new SchemaMigrations.Step() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    // the search table is only a cache of librivox results,
+                    // rebuild it rather than convert the older layouts
+                    dropSearchTables(db);
+                    createVersion37SearchTable(db);
+                }
+            })
+            .add(38, new SchemaMigrations.Step() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createSearchFullTextIndex(db);
+                    db.execSQL("INSERT INTO " + SEARCH_FTS_TABLE_NAME + " (docid, " +
+                            SearchTable.AUTHOR + ", " + SearchTable.TITLE + ", " +
+                            SearchTable.GENRE + ", " + SearchTable.CATEGORY + ") SELECT " +
+                            BaseColumns._ID + ", " + SearchTable.AUTHOR + ", " + SearchTable.TITLE + ", " +
+                            SearchTable.GENRE + ", " + SearchTable.CATEGORY + " FROM " + SEARCH_TABLE_NAME + ";");
+                }
+            })
+            .add(39, new SchemaMigrations.Step() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + SEARCH_TABLE_NAME + " ADD COLUMN " +
+                            SearchTable.MIRRORED + " INTEGER DEFAULT 0;");
+                }
+            })
+            .add(40, new SchemaMigrations.Step() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    SearchResultCache.createTable(db);
+                }
+            })
+            .add(41, new SchemaMigrations.Step() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createSearchIndex(db);
+                    addSectionIndex(db);
+                }
+            })
+            .add(42, new SchemaMigrations.Step() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + BOOK_SECTION_TABLE_NAME + " ADD COLUMN " +
+                            BookSectionTable.SIZE_BYTES + " INTEGER;");
+                    db.execSQL("ALTER TABLE " + BOOK_SECTION_TABLE_NAME + " ADD COLUMN " +
+                            BookSectionTable.DURATION_MS + " INTEGER;");
+                    backfillTypedSectionValues(db);
+
+                    db.execSQL("ALTER TABLE " + BOOK_TABLE_NAME + " ADD COLUMN " +
+                            BookTable.TOTAL_DURATION_MS + " INTEGER DEFAULT 0;");
+                    db.execSQL("ALTER TABLE " + BOOK_TABLE_NAME + " ADD COLUMN " +
+                            BookTable.TOTAL_SIZE_BYTES + " INTEGER DEFAULT 0;");
+                    db.execSQL("ALTER TABLE " + BOOK_TABLE_NAME + " ADD COLUMN " +
+                            BookTable.SECTION_COUNT + " INTEGER DEFAULT 0;");
+                    createBookTotalsTriggers(db);
+                    db.execSQL(updateBookTotals(BOOK_TABLE_NAME + "." + BaseColumns._ID));
+                }
+            });
+
+    private static void backfillTypedSectionValues(SQLiteDatabase db) {
+        Cursor cursor = db.query(BOOK_SECTION_TABLE_NAME, new String[] { BaseColumns._ID, BookSectionTable.SIZE,
+                BookSectionTable.DURATION }, null, null, null, null, null);
+        try {
+            ContentValues values = new ContentValues();
+            while (cursor.moveToNext()) {
+                values.clear();
+                values.put(BookSectionTable.SIZE, cursor.getString(1));
+                values.put(BookSectionTable.DURATION, cursor.getString(2));
+                putTypedSectionValues(values);
+                values.remove(BookSectionTable.SIZE);
+                values.remove(BookSectionTable.DURATION);
+                db.update(BOOK_SECTION_TABLE_NAME, values, BaseColumns._ID + " = ?",
+                        new String[] { cursor.getString(0) });
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void createVersion37SearchTable(SQLiteDatabase sqLiteDatabase) {
+        String createTableString = "CREATE TABLE " + SEARCH_TABLE_NAME +
+                " (" +
+                BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                SearchTable.TITLE + " TEXT, " +
+                SearchTable.COLLECTION_TITLE + " TEXT, " +
+                SearchTable.AUTHOR + " TEXT, " +
+                SearchTable.DESCRIPTION + " TEXT, " +
+                SearchTable.RSS_URL + " TEXT, " +
+
+                SearchTable.WIKI_URL + " TEXT, " +
+                SearchTable.AUTHOR_WIKI_URL + " TEXT, " +
+                SearchTable.GENRE + " TEXT, " +
+                SearchTable.CATEGORY + " TEXT, " +
+                SearchTable.LIBRIVOX_URL + " TEXT, " +
+
+                SearchTable.LIBRIVOX_ID + " TEXT , " +
+                SearchTable.NUM_SECTIONS + " INTEGER , " +
+
+                SearchTable.LAST_USED + " INTEGER" +
+
+                ");";
+        sqLiteDatabase.execSQL(createTableString);
+    }
+
+    private static void dropSearchTables(SQLiteDatabase db) {
+        db.execSQL("DROP TABLE IF EXISTS " + SEARCH_TABLE_NAME + ";");
+        db.execSQL("DROP TABLE IF EXISTS " + SEARCH_FTS_TABLE_NAME + ";");
+        db.execSQL("DROP TABLE IF EXISTS " + SearchResultCache.SEARCH_CACHE_TABLE_NAME + ";");
+    }
+
+    private static void addSectionIndex(SQLiteDatabase db) {
+        // drop any duplicate sections (keeping the first read) so the unique
+        // index can be created
+        db.execSQL("DELETE FROM " + BOOK_SECTION_TABLE_NAME + " WHERE " + BaseColumns._ID +
+                " NOT IN (SELECT MIN(" + BaseColumns._ID + ") FROM " + BOOK_SECTION_TABLE_NAME +
+                " GROUP BY " + BookSectionTable.OWNING_BOOK_ID + ", " + BookSectionTable.SECTION_NUMBER + ");");
+        createSectionIndex(db);
     }
 }
@@ -0,0 +1,62 @@
+package com.oakonell.libridroid.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.net.Uri;
+
+/**
+ * Collects parsed rows and hands them to the provider's bulkInsert in fixed
+ * size chunks, so that a large feed is committed in a few transactions (each
+ * with a single change notification) rather than one insert per row.
+ */
+class BulkInsertBuffer {
+    static final int DEFAULT_BATCH_SIZE = 50;
+
+    private final LibraryContentProvider provider;
+    private final Uri uri;
+    private final int batchSize;
+    private final List<ContentValues> pending;
+    private int inserted;
+
+    BulkInsertBuffer(LibraryContentProvider provider, Uri uri) {
+        this(provider, uri, DEFAULT_BATCH_SIZE);
+    }
+
+    BulkInsertBuffer(LibraryContentProvider provider, Uri uri, int batchSize) {
+        this.provider = provider;
+        this.uri = uri;
+        this.batchSize = batchSize;
+        pending = new ArrayList<ContentValues>(batchSize);
+    }
+
+    public void add(ContentValues values) {
+        pending.add(values);
+        if (pending.size() >= batchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Write any buffered rows.
+     *
+     * @return the total number of new rows created so far
+     */
+    public int flush() {
+        if (!pending.isEmpty()) {
+            /*
+             * Directly invoke bulkInsert on the provider, without using content
+             * resolver. We would not want the content provider to sync this
+             * data back to itself.
+             */
+            inserted += provider.bulkInsert(uri, pending.toArray(new ContentValues[pending.size()]));
+            pending.clear();
+        }
+        return inserted;
+    }
+
+    public int getInserted() {
+        return inserted;
+    }
+}
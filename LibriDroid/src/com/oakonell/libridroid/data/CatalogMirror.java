@@ -0,0 +1,147 @@
+package com.oakonell.libridroid.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.oakonell.libridroid.Libridroid;
+import com.oakonell.libridroid.R;
+import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.TaskScheduler;
+
+/**
+ * An optional local copy of the librivox catalog, kept in the search table.
+ * The catalog has no way to ask for only the books changed since a date, so
+ * each sync imports the whole catalog (existing rows are refreshed), and
+ * syncs are made weekly. Once imported, searches are answered from the local
+ * full text index, and the network is only used to keep the copy fresh-
+ * unless the mirror finds few matches, or is out of date (its syncs failing),
+ * when the search is read from the network as well.
+ *
+ * A failed sync is retried with a growing back off, and turning the mirror
+ * off removes its rows.
+ */
+public final class CatalogMirror {
+    private static final String PREFS_NAME = "catalog_mirror";
+    private static final String LAST_SYNC_KEY = "last_sync";
+    private static final String FAILURES_KEY = "failures";
+    private static final String NEXT_ATTEMPT_KEY = "next_attempt";
+
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+    // the catalog grows by a few books a day, and each sync reads all of it
+    private static final long SYNC_INTERVAL_MS = 7 * DAY_MS;
+    private static final long FIRST_RETRY_MS = 15 * 60 * 1000;
+    private static final long MAX_RETRY_MS = DAY_MS;
+    // older than this, the mirror may be missing too many books to answer
+    // searches alone
+    private static final long MAX_AGE_MS = 2 * SYNC_INTERVAL_MS;
+    /**
+     * fewer local matches than this may be books the mirror is missing, so
+     * the search is read from the network as well
+     */
+    static final int ENOUGH_LOCAL_MATCHES = 5;
+
+    private CatalogMirror() {
+        // prevent instantiation
+    }
+
+    public static boolean isEnabled(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        return preferences.getBoolean(context.getString(R.string.pref_catalog_mirror_key), false);
+    }
+
+    /**
+     * Start a background sync if the mirror is enabled and has not been synced
+     * recently. If the mirror has been turned off, its rows are removed
+     * instead.
+     *
+     * @return true if searches can be answered locally- the mirror has been
+     *         imported, recently, and its last sync did not fail
+     */
+    public static boolean syncIfStale(LibraryContentProvider provider) {
+        Context context = provider.getContext();
+        if (!isEnabled(context)) {
+            if (getLastSync(context) > 0) {
+                purge(provider);
+            }
+            return false;
+        }
+        long lastSync = getLastSync(context);
+        long now = System.currentTimeMillis();
+        if (now - lastSync > SYNC_INTERVAL_MS && now >= getNextAttempt(context)) {
+            LogHelper.info("CatalogMirror", "Starting catalog import");
+            new CatalogMirrorAsyncQueryHelper(provider).sync();
+        }
+        return canAnswerSearches(context, now);
+    }
+
+    static boolean canAnswerSearches(Context context, long now) {
+        long lastSync = getLastSync(context);
+        return lastSync > 0 && now - lastSync <= MAX_AGE_MS
+                && getPreferences(context).getInt(FAILURES_KEY, 0) == 0;
+    }
+
+    static long getLastSync(Context context) {
+        return getPreferences(context).getLong(LAST_SYNC_KEY, 0);
+    }
+
+    /**
+     * @return the earliest time to try again after a failed sync, or 0
+     */
+    static long getNextAttempt(Context context) {
+        return getPreferences(context).getLong(NEXT_ATTEMPT_KEY, 0);
+    }
+
+    static void reset(Context context) {
+        getPreferences(context).edit().clear().commit();
+    }
+
+    /**
+     * Record a successful sync. The time the sync was requested is stored,
+     * rather than when it finished, so the next sync is not put off by a slow
+     * read.
+     */
+    static void recordSync(Context context, long syncRequestedMillis) {
+        getPreferences(context).edit().putLong(LAST_SYNC_KEY, syncRequestedMillis).remove(FAILURES_KEY)
+                .remove(NEXT_ATTEMPT_KEY).commit();
+    }
+
+    /**
+     * Record a failed sync, and put off the next attempt- twice as long after
+     * each failure in a row, up to a day.
+     */
+    static void recordFailure(Context context) {
+        SharedPreferences preferences = getPreferences(context);
+        int failures = preferences.getInt(FAILURES_KEY, 0) + 1;
+        long delay = Math.min(FIRST_RETRY_MS << Math.min(failures - 1, 16), MAX_RETRY_MS);
+        LogHelper.info("CatalogMirror", "Catalog sync failed " + failures + " times in a row, retrying in "
+                + delay / 1000 + " s");
+        preferences.edit().putInt(FAILURES_KEY, failures)
+                .putLong(NEXT_ATTEMPT_KEY, System.currentTimeMillis() + delay).commit();
+    }
+
+    /**
+     * Forget the mirror and remove its rows, in the background- they are
+     * otherwise never expired.
+     */
+    private static void purge(final LibraryContentProvider provider) {
+        TaskScheduler.execute(TaskScheduler.Lane.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                // (a second purge, asked for before this one ran, finds
+                // nothing left to do)
+                reset(provider.getContext());
+                int deleted = provider.delete(Libridroid.Search.CONTENT_URI,
+                        Libridroid.Search.COLUMN_NAME_MIRRORED + " = 1", null);
+                // the cached searches may have listed the deleted rows, read
+                // them afresh
+                provider.getSearchCache().expireStoredBefore(Long.MAX_VALUE);
+                LogHelper.info("CatalogMirror", "Removed " + deleted + " catalog mirror rows");
+            }
+        });
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,123 @@
+package com.oakonell.libridroid.data;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.oakonell.libridroid.Libridroid;
+import com.oakonell.libridroid.R;
+import com.oakonell.libridroid.data.LibrivoxRSSParser.BookParsedCallback;
+import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.TaskScheduler;
+import com.oakonell.utils.query.AbstractAsyncQueryHelper;
+
+/**
+ * Reads the whole librivox catalog into the search table as mirrored rows,
+ * and records how the sync went with {@link CatalogMirror}.
+ */
+public class CatalogMirrorAsyncQueryHelper extends AbstractAsyncQueryHelper {
+    /**
+     * uri listing the whole librivox catalog- a search with no keywords (the
+     * catalog has no documented listing, an empty answer is taken as a failed
+     * sync)
+     */
+    private static final String CATALOG_URI =
+            "http://catalog.librivox.org/search_xml.php?extended=1&simple=";
+
+    // the full catalog is large, use bigger transactions than a search does-
+    // but each holds up the list's queries (without write-ahead logging), so
+    // not too big
+    private static final int MIRROR_BATCH_SIZE = 100;
+
+    private final LibraryContentProvider provider;
+    private final long syncRequested = System.currentTimeMillis();
+    private int parsed;
+
+    public CatalogMirrorAsyncQueryHelper(LibraryContentProvider provider) {
+        super(provider.getContext(), null, provider.getContext().getString(R.string.progress_parsing),
+                provider.getContext().getString(R.string.progress_reading));
+        this.provider = provider;
+    }
+
+    public void sync() {
+        // (a second sync asked for while one runs joins it)
+        asyncQueryRequest("catalog");
+    }
+
+    @Override
+    protected TaskScheduler.Lane getLane() {
+        // a long read nobody is waiting on, don't hold up searches
+        return TaskScheduler.Lane.BACKGROUND;
+    }
+
+    @Override
+    protected String getQueryUri(String queryText) {
+        return CATALOG_URI;
+    }
+
+    @Override
+    protected int parseResponseEntity(HttpEntity entity, Uri uri) throws IOException {
+        InputStream content = entity.getContent();
+        InputStreamReader inputReader = new InputStreamReader(content, "UTF-8");
+
+        Uri mirrorUri = Libridroid.Search.CONTENT_URI.buildUpon()
+                .appendQueryParameter(Libridroid.Search.MIRROR_PARAM_NAME, "true").build();
+        final BulkInsertBuffer buffer = new BulkInsertBuffer(provider, mirrorUri, MIRROR_BATCH_SIZE);
+        LibrivoxRSSParser parser = new LibrivoxRSSParser(inputReader,
+                new BookParsedCallback() {
+                    @Override
+                    public void finishedBook(ContentValues values) {
+                        buffer.add(values);
+                    }
+                });
+
+        int inserted;
+        // nobody is watching a sync book by book, requery the search list
+        // once it is done (only this thread's notifications are held, other
+        // writes are notified as usual)
+        provider.getChangeNotifier().beginBatch();
+        try {
+            parsed = parser.parse();
+            inserted = buffer.flush();
+            LogHelper.info("CatalogMirrorAsyncQueryHelper", "Catalog sync parsed " + parsed + " books, inserted "
+                    + inserted + " new books");
+        } catch (RuntimeException e) {
+            // (reported as a failed request, so the sync backs off)
+            IOException ioException = new IOException("Could not read the catalog: " + e.getMessage());
+            ioException.initCause(e);
+            throw ioException;
+        } finally {
+            content.close();
+            provider.getChangeNotifier().endBatch();
+        }
+        return inserted;
+    }
+
+    @Override
+    protected void responseFailed(HttpResponse response, Uri uri) {
+        CatalogMirror.recordFailure(provider.getContext());
+    }
+
+    @Override
+    protected void responseParsed(HttpResponse response, Uri uri) {
+        // (the parser stops quietly at a broken feed, but the whole catalog is
+        // never empty)
+        if (parsed == 0) {
+            CatalogMirror.recordFailure(provider.getContext());
+            return;
+        }
+        CatalogMirror.recordSync(provider.getContext(), syncRequested);
+    }
+
+    @Override
+    public void requestError(IOException e) {
+        super.requestError(e);
+        CatalogMirror.recordFailure(provider.getContext());
+    }
+}
@@ -0,0 +1,102 @@
+package com.oakonell.libridroid.data;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import android.database.DatabaseUtils;
+
+import com.oakonell.libridroid.Libridroid;
+
+/**
+ * Builds the clauses used to filter and rank the search table through its
+ * full text index.
+ */
+final class FullTextSearch {
+    private static final Pattern NON_WORD_PATTERN = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private FullTextSearch() {
+        // prevent instantiation
+    }
+
+    static List<String> tokenize(String input) {
+        List<String> tokens = new ArrayList<String>();
+        if (input == null) {
+            return tokens;
+        }
+        for (String each : NON_WORD_PATTERN.split(input.toLowerCase(Locale.US))) {
+            if (each.length() > 0) {
+                tokens.add(each);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return an fts3 MATCH expression requiring every word of the input as
+     *         a prefix (in any indexed column), or null if the input has no
+     *         words
+     */
+    static String matchExpression(String input) {
+        List<String> tokens = tokenize(input);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String each : tokens) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(each).append('*');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return a where clause restricting the search table to the rows matching
+     *         the expression in the full text index
+     */
+    static String whereClause(String matchExpression) {
+        return Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search._ID + " IN (SELECT docid FROM "
+                + Libridroid.Search.SEARCH_FTS_TABLE_NAME + " WHERE "
+                + Libridroid.Search.SEARCH_FTS_TABLE_NAME + " MATCH "
+                + DatabaseUtils.sqlEscapeString(matchExpression) + ")";
+    }
+
+    /**
+     * Rank matches- titles starting with the first word, then authors starting
+     * with it, then everything else- each group ordered by title. This is only
+     * evaluated over the rows already selected through the index.
+     */
+    static String rankOrder(String input) {
+        List<String> tokens = tokenize(input);
+        if (tokens.isEmpty()) {
+            return Libridroid.Search.DEFAULT_SORT_ORDER;
+        }
+        String title = Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_TITLE;
+        String prefix = DatabaseUtils.sqlEscapeString(tokens.get(0) + "%");
+        return "CASE WHEN " + title + " LIKE " + prefix + " THEN 0 WHEN "
+                + Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_AUTHOR + " LIKE "
+                + prefix + " THEN 1 ELSE 2 END, " + Libridroid.Search.DEFAULT_SORT_ORDER;
+    }
+
+    /**
+     * The same order as a single text key- the rank digit then the title- so
+     * a page of results can continue from the key of the previous page's last
+     * row.
+     */
+    static String sortKey(String input) {
+        String title = "IFNULL(" + Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_TITLE
+                + ", '')";
+        List<String> tokens = tokenize(input);
+        if (tokens.isEmpty()) {
+            return title;
+        }
+        String prefix = DatabaseUtils.sqlEscapeString(tokens.get(0) + "%");
+        return "(CASE WHEN " + Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_TITLE
+                + " LIKE " + prefix + " THEN '0' WHEN " + Libridroid.Search.SEARCH_TABLE_NAME + "."
+                + Libridroid.Search.COLUMN_NAME_AUTHOR + " LIKE " + prefix + " THEN '1' ELSE '2' END || ' ' || "
+                + title + ")";
+    }
+}
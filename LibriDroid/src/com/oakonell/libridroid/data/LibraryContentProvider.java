@@ -1,6 +1,6 @@
 package com.oakonell.libridroid.data;
 
-import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -8,22 +8,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.InputSource;
-
 import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
@@ -31,11 +21,12 @@ import android.net.Uri;
 import android.text.TextUtils;
 
 import com.oakonell.libridroid.Libridroid;
-import com.oakonell.libridroid.Libridroid.Books;
 import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.db.ChangeNotifier;
+import com.oakonell.utils.db.ReadConnection;
+import com.oakonell.utils.db.StatementCache;
 import com.oakonell.utils.query.BufferedAsyncQueryHelper;
 import com.oakonell.utils.query.Communications;
-import com.oakonell.utils.xml.XMLUtils;
 
 public class LibraryContentProvider extends ContentProvider {
 
@@ -64,7 +55,54 @@ public class LibraryContentProvider extends ContentProvider {
         URI_MATCHER.addURI(Libridroid.AUTHORITY, "books/#/sections/#", UriTypes.SECTION_ID);
     }
 
+    // merges the notifications of bursts of writes (eg, a search being read)
+    private static final long NOTIFY_WINDOW_MS = 250;
+
+    // the compiled writes- each a hot path (a search or catalog being read, a
+    // book's sections, the listening position); values of another shape are
+    // written the usual way
+    private static final String[] SEARCH_COLUMNS = { Libridroid.Search.COLUMN_NAME_TITLE,
+            Libridroid.Search.COLUMN_NAME_COLLECTION_TITLE, Libridroid.Search.COLUMN_NAME_AUTHOR,
+            Libridroid.Search.COLUMN_NAME_DESCRIPTION, Libridroid.Search.COLUMN_NAME_RSS_URL,
+            Libridroid.Search.COLUMN_NAME_WIKI_URL, Libridroid.Search.COLUMN_NAME_AUTHOR_WIKI_URL,
+            Libridroid.Search.COLUMN_NAME_GENRE, Libridroid.Search.COLUMN_NAME_CATEGORY,
+            Libridroid.Search.COLUMN_NAME_LIBRIVOX_URL, Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID,
+            Libridroid.Search.COLUMN_NAME_NUM_SECTIONS, Libridroid.Search.COLUMN_NAME_LAST_USED,
+            Libridroid.Search.COLUMN_NAME_MIRRORED };
+    private static final StatementCache.Shape SEARCH_INSERT = StatementCache.insertShape(
+            Libridroid.Search.SEARCH_TABLE_NAME, SEARCH_COLUMNS);
+    private static final StatementCache.Shape SEARCH_UPDATE = StatementCache.updateByIdShape(
+            Libridroid.Search.SEARCH_TABLE_NAME, SEARCH_COLUMNS);
+    private static final StatementCache.Shape SEARCH_TOUCH = StatementCache.updateByIdShape(
+            Libridroid.Search.SEARCH_TABLE_NAME, Libridroid.Search.COLUMN_NAME_LAST_USED);
+    private static final StatementCache.Shape SECTION_INSERT = StatementCache.insertShape(
+            Libridroid.BookSections.BOOK_SECTION_TABLE_NAME, Libridroid.BookSections.COLUMN_NAME_BOOK_ID,
+            Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER, Libridroid.BookSections.COLUMN_NAME_URL,
+            Libridroid.BookSections.COLUMN_NAME_SECTION_TITLE, Libridroid.BookSections.COLUMN_NAME_SECTION_AUTHOR,
+            Libridroid.BookSections.COLUMN_NAME_SIZE, Libridroid.BookSections.COLUMN_NAME_DURATION,
+            Libridroid.BookSections.COLUMN_NAME_SIZE_BYTES, Libridroid.BookSections.COLUMN_NAME_DURATION_MS);
+    private static final StatementCache.Shape[] BOOK_UPDATES = {
+            // Book.updatePosition
+            StatementCache.updateByIdShape(Libridroid.Books.BOOK_TABLE_NAME,
+                    Libridroid.Books.COLUMN_NAME_CURRENT_POSITION, Libridroid.Books.COLUMN_NAME_CURRENT_SECTION,
+                    Libridroid.Books.COLUMN_NAME_LAST_LISTENED_ON),
+            // BooksHelper.updateBookSection
+            StatementCache.updateByIdShape(Libridroid.Books.BOOK_TABLE_NAME,
+                    Libridroid.Books.COLUMN_NAME_CURRENT_SECTION, Libridroid.Books.COLUMN_NAME_CURRENT_POSITION),
+            // put in (or taken out of) the library
+            StatementCache.updateByIdShape(Libridroid.Books.BOOK_TABLE_NAME,
+                    Libridroid.Books.COLUMN_NAME_IS_DOWNLOADED) };
+
     private BookDatabaseHelper databaseHelper;
+    private ChangeNotifier changeNotifier;
+    private StatementCache statements;
+    private ReadConnection reads;
+    private SearchResultCache searchCache;
+    private LibrivoxUrlRepairQueue urlRepairs;
+    private LibrivoxAsyncQueryHelper currentSearch;
+    // the books whose sections were fetched (or are being fetched) since the
+    // app started
+    private final Set<String> sectionsFetches = new HashSet<String>();
     private BufferedAsyncQueryHelper unitTestOverrideBooksQueryHelper;
     private BufferedAsyncQueryHelper unitTestOverrideSectionsQueryHelper;
 
@@ -77,6 +115,50 @@ public class LibraryContentProvider extends ContentProvider {
     private void init() {
         databaseHelper = new BookDatabaseHelper(getContext(),
                 BookDatabaseHelper.DATABASE_NAME, null);
+        changeNotifier = new ChangeNotifier(getContext().getContentResolver(), NOTIFY_WINDOW_MS);
+        statements = new StatementCache(databaseHelper);
+        reads = new ReadConnection(databaseHelper);
+        searchCache = new SearchResultCache(databaseHelper);
+        urlRepairs = new LibrivoxUrlRepairQueue(changeNotifier, databaseHelper);
+    }
+
+    /**
+     * For bulk writers in this process, to deliver their notifications once
+     * they finish.
+     */
+    ChangeNotifier getChangeNotifier() {
+        return changeNotifier;
+    }
+
+    SearchResultCache getSearchCache() {
+        return searchCache;
+    }
+
+    private synchronized void startSearch(String queryText, String communicationId,
+            SearchResultCache.Entry cached) {
+        if (currentSearch != null && !queryText.equals(currentSearch.getQueryText())) {
+            // a newer search (eg, more typed text) supersedes the previous
+            // one, don't spend time reading its results
+            currentSearch.cancel();
+        }
+        currentSearch = new LibrivoxAsyncQueryHelper(this, communicationId, cached);
+        currentSearch.asyncQueryRequest(queryText);
+    }
+
+    /**
+     * @return the mirrored rows matching the search, counted up to
+     *         {@link CatalogMirror#ENOUGH_LOCAL_MATCHES}
+     */
+    private long countMirroredMatches(String queryText) {
+        String matchExpression = FullTextSearch.matchExpression(queryText);
+        if (matchExpression == null) {
+            return 0;
+        }
+        return DatabaseUtils.longForQuery(reads.getDatabase(),
+                "SELECT COUNT(*) FROM (SELECT 1 FROM " + Libridroid.Search.SEARCH_TABLE_NAME + " WHERE "
+                        + Libridroid.Search.COLUMN_NAME_MIRRORED + " = 1 AND "
+                        + FullTextSearch.whereClause(matchExpression) + " LIMIT "
+                        + CatalogMirror.ENOUGH_LOCAL_MATCHES + ")", null);
     }
 
     /**
@@ -102,8 +184,8 @@ public class LibraryContentProvider extends ContentProvider {
         switch (URI_MATCHER.match(uri)) {
             case UriTypes.SEARCH: {
                 /**
-                 * Always try to update results with the latest data from the
-                 * network.
+                 * Try to update results with the latest data from the network,
+                 * unless the same search was read (or revalidated) recently.
                  * 
                  * Spawning an asynchronous load task thread, guarantees that
                  * the load has no chance to block any content provider method,
@@ -130,15 +212,49 @@ public class LibraryContentProvider extends ContentProvider {
                     if (unitTestOverrideBooksQueryHelper != null) {
                         unitTestOverrideBooksQueryHelper.asyncQueryRequest(
                                 queryText, null);
+                    } else if (CatalogMirror.syncIfStale(this)
+                            && countMirroredMatches(queryText) >= CatalogMirror.ENOUGH_LOCAL_MATCHES) {
+                        // the local catalog mirror answers the search, the
+                        // network is only used to keep the mirror fresh
+                        if (communicationId != null) {
+                            Communications.delete(communicationId);
+                        }
                     } else {
-                        LibrivoxAsyncQueryHelper helper = new LibrivoxAsyncQueryHelper(
-                                this, communicationId);
-                        helper.asyncQueryRequest(queryText);
+                        SearchResultCache.Entry cached = searchCache.lookup(queryText);
+                        if (cached != null && cached.isFresh()) {
+                            // a repeat search, the rows are already here
+                            if (communicationId != null) {
+                                Communications.delete(communicationId);
+                            }
+                        } else {
+                            startSearch(queryText, communicationId, cached);
+                        }
                     }
                 }
 
+                // optionally narrow the local rows through the full text index
+                String theSortOrder = sortOrder;
+                String filter = uri.getQueryParameter(Libridroid.Search.FILTER_PARAM_NAME);
+                String matchExpression = FullTextSearch.matchExpression(filter);
+                if (matchExpression != null) {
+                    qb.appendWhere(FullTextSearch.whereClause(matchExpression));
+                    if (TextUtils.isEmpty(theSortOrder)) {
+                        theSortOrder = FullTextSearch.rankOrder(filter);
+                    }
+                }
+
+                String pageSize = uri.getQueryParameter(Libridroid.Search.PAGE_SIZE_PARAM_NAME);
+                if (pageSize != null) {
+                    if (!TextUtils.isEmpty(sortOrder)) {
+                        throw new IllegalArgumentException("A paged search is ordered by its sort key, not "
+                                + sortOrder);
+                    }
+                    return querySearchPage(uri, projection, selection, selectionArgs, pageSize,
+                            FullTextSearch.sortKey(filter), qb);
+                }
+
                 return querySearchTable(uri, projection, selection, selectionArgs,
-                        sortOrder, qb);
+                        theSortOrder, null, qb);
             }
 
             case UriTypes.SEARCH_ID: {
@@ -147,13 +263,13 @@ public class LibraryContentProvider extends ContentProvider {
                         + uri.getPathSegments().get(1));
 
                 return querySearchTable(uri, projection, selection, selectionArgs,
-                        sortOrder, qb);
+                        sortOrder, null, qb);
             }
 
             case UriTypes.BOOKS: {
                 /**
-                 * Always try to update results with the latest data from the
-                 * network.
+                 * Try to update results with the latest data from the network,
+                 * unless the same search was read (or revalidated) recently.
                  * 
                  * Spawning an asynchronous load task thread, guarantees that
                  * the load has no chance to block any content provider method,
@@ -202,7 +318,7 @@ public class LibraryContentProvider extends ContentProvider {
                         null);
                 c.setNotificationUri(getContext().getContentResolver(), uri);
 
-                readAndInsertSections(c, uri, bookId, db);
+                readAndInsertSections(uri, bookId, db);
 
                 return c;
             }
@@ -218,7 +334,7 @@ public class LibraryContentProvider extends ContentProvider {
                         + bookId);
                 qb.appendWhere(" and " + Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER
                         + "=" + sectionNumber);
-                SQLiteDatabase db = databaseHelper.getReadableDatabase();
+                SQLiteDatabase db = reads.getDatabase();
 
                 Cursor c = qb.query(
                         db,
@@ -239,22 +355,17 @@ public class LibraryContentProvider extends ContentProvider {
 
     }
 
-    private void readAndInsertSections(Cursor c, Uri uri, String bookId,
+    private void readAndInsertSections(Uri uri, String bookId,
             SQLiteDatabase db) {
         // get the sections if they haven't been retrieved already
         String communicationId = uri.getQueryParameter("communication_id");
-        if (c.getCount() > 0) {
-            if (communicationId != null) {
-                Communications.delete(communicationId);
-            }
-            return;
-        }
-
         Cursor query = db.query(Libridroid.Books.BOOK_TABLE_NAME,
                 new String[] { Libridroid.Books._ID,
                         Libridroid.Books.COLUMN_NAME_RSS_URL,
                         Libridroid.Books.COLUMN_NAME_TITLE,
-                        Libridroid.Books.COLUMN_NAME_LIBRIVOX_ID },
+                        Libridroid.Books.COLUMN_NAME_LIBRIVOX_ID,
+                        Libridroid.Books.COLUMN_NAME_NUM_SECTIONS,
+                        Libridroid.Books.COLUMN_NAME_SECTION_COUNT },
                 Libridroid.Books._ID + " = ? ",
                 new String[] { bookId }, null, null, null);
         try {
@@ -263,6 +374,17 @@ public class LibraryContentProvider extends ContentProvider {
                 throw new RuntimeException("No book with Id " + bookId);
             }
 
+            // a feed that failed (or the app stopped) partway leaves only the
+            // sections read before it, refetch the rest
+            int savedSections = query.getInt(5);
+            boolean incomplete = savedSections < query.getInt(4);
+            if (savedSections > 0 && !incomplete) {
+                if (communicationId != null) {
+                    Communications.delete(communicationId);
+                }
+                return;
+            }
+
             String rssUrl = query.getString(1);
             if (TextUtils.isEmpty(rssUrl)) {
                 String librivoxId = query.getString(3);
@@ -293,18 +415,89 @@ public class LibraryContentProvider extends ContentProvider {
 
                 unitTestOverrideSectionsQueryHelper.asyncQueryRequest(rssUrl,
                         inputs);
-            } else {
+            } else if (startSectionsFetch(bookId)) {
                 LibrivoxSectionsAsyncQueryHelper helper = new LibrivoxSectionsAsyncQueryHelper(
-                        this, bookId, communicationId);
+                        this, bookId, communicationId, savedSections > 0);
                 helper.asyncQueryRequest(rssUrl);
+            } else if (communicationId != null) {
+                // already being read (or read, but shorter than the book says)
+                Communications.delete(communicationId);
             }
         } finally {
             query.close();
         }
     }
 
+    /**
+     * @return false if the book's sections are being read, or were read
+     *         completely, since the app started
+     */
+    private synchronized boolean startSectionsFetch(String bookId) {
+        return sectionsFetches.add(bookId);
+    }
+
+    /**
+     * Let the book's sections be fetched again the next time they're queried.
+     */
+    synchronized void sectionsFetchFailed(String bookId) {
+        sectionsFetches.remove(bookId);
+    }
+
+    /**
+     * Read one page of search results, after the sort key and id of the
+     * previous page's last row (if any). Paging by the key rather than an
+     * offset keeps each page as cheap as the first, however far the list is
+     * scrolled.
+     */
+    private Cursor querySearchPage(Uri uri, String[] projection,
+            String selection, String[] selectionArgs, String pageSize, String sortKey,
+            SQLiteQueryBuilder qb) {
+        int size;
+        try {
+            size = Integer.parseInt(pageSize);
+        } catch (NumberFormatException e) {
+            size = 0;
+        }
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid search page size " + pageSize);
+        }
+
+        List<String> theProjection = new ArrayList<String>();
+        if (projection == null) {
+            theProjection.addAll(getSearchDefaultProjection());
+        } else {
+            theProjection.addAll(Arrays.asList(projection));
+        }
+        theProjection.add(sortKey + " AS " + Libridroid.Search.COLUMN_NAME_SORT_KEY);
+
+        String theSelection = selection;
+        String[] theSelectionArgs = selectionArgs;
+        String afterKey = uri.getQueryParameter(Libridroid.Search.AFTER_SORT_KEY_PARAM_NAME);
+        String afterId = uri.getQueryParameter(Libridroid.Search.AFTER_ID_PARAM_NAME);
+        if (afterKey != null && afterId != null) {
+            String id = Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search._ID;
+            String after = "(" + sortKey + " > ? OR (" + sortKey + " = ? AND " + id + " > ?))";
+            List<String> args = new ArrayList<String>();
+            args.add(afterKey);
+            args.add(afterKey);
+            args.add(afterId);
+            if (!TextUtils.isEmpty(selection)) {
+                after = after + " AND (" + selection + ")";
+                if (selectionArgs != null) {
+                    args.addAll(Arrays.asList(selectionArgs));
+                }
+            }
+            theSelection = after;
+            theSelectionArgs = args.toArray(new String[args.size()]);
+        }
+
+        return querySearchTable(uri, theProjection.toArray(new String[theProjection.size()]), theSelection,
+                theSelectionArgs, sortKey + ", " + Libridroid.Search.SEARCH_TABLE_NAME + "."
+                        + Libridroid.Search._ID, pageSize, qb);
+    }
+
     private Cursor querySearchTable(Uri uri, String[] projection,
-            String selection, String[] selectionArgs, String sortOrder,
+            String selection, String[] selectionArgs, String sortOrder, String limit,
             SQLiteQueryBuilder qb) {
         String orderBy;
         // If no sort order is specified, uses the default
@@ -320,10 +513,9 @@ public class LibraryContentProvider extends ContentProvider {
             theProjection = columnsSet.toArray(new String[columnsSet.size()]);
         }
 
-        // TODO Opens the database object in "read" mode, since no writes need
-        // to be
-        // done. But read-only can't perform upgrade !?
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        // a connection of its own in write-ahead logging mode, otherwise the
+        // writer's
+        SQLiteDatabase db = reads.getDatabase();
 
         qb.setTables(Libridroid.Search.SEARCH_TABLE_NAME + " left join " + Libridroid.Books.BOOK_TABLE_NAME
                 + " on " + Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID
@@ -345,7 +537,8 @@ public class LibraryContentProvider extends ContentProvider {
                 selectionArgs, // The values for the where clause
                 null, // don't group the rows
                 null, // don't filter by row groups
-                orderBy // The sort order
+                orderBy, // The sort order
+                limit // all the rows, unless paged
                 );
 
         // Tells the Cursor what URI to watch, so it knows when its source data
@@ -387,7 +580,8 @@ public class LibraryContentProvider extends ContentProvider {
                 Libridroid.Search.COLUMN_NAME_DESCRIPTION, Libridroid.Search.COLUMN_NAME_GENRE,
                 Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID, Libridroid.Search.COLUMN_NAME_NUM_SECTIONS,
                 Libridroid.Search.COLUMN_NAME_RSS_URL, Libridroid.Search.COLUMN_NAME_TITLE,
-                Libridroid.Search.COLUMN_NAME_WIKI_URL, Libridroid.Search.COLUMN_NAME_LAST_USED };
+                Libridroid.Search.COLUMN_NAME_WIKI_URL, Libridroid.Search.COLUMN_NAME_LAST_USED,
+                Libridroid.Search.COLUMN_NAME_MIRRORED };
         return Arrays.asList(columns);
     }
 
@@ -403,10 +597,9 @@ public class LibraryContentProvider extends ContentProvider {
             orderBy = sortOrder;
         }
 
-        // TODO Opens the database object in "read" mode, since no writes need
-        // to be
-        // done. But read-only can't perform upgrade !?
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        // a connection of its own in write-ahead logging mode, otherwise the
+        // writer's
+        SQLiteDatabase db = reads.getDatabase();
 
         /*
          * Performs the query. If no problems occur trying to read the database,
@@ -424,17 +617,9 @@ public class LibraryContentProvider extends ContentProvider {
                 orderBy // The sort order
                 );
 
-        // v1.1 missed populating the librivox url
-        // here we can patch it up..
-        if (c.getCount() == 1) {
-            c.moveToFirst();
-            int urlIndex = c.getColumnIndex(Books.COLUMN_NAME_LIBRIVOX_URL);
-            if (urlIndex > 0 && TextUtils.isEmpty(c.getString(urlIndex))) {
-                // TODO patch up librivox url
-                // shortcut for now
-                fixLibrivoxUrl(uri, c);
-            }
-        }
+        // v1.1 missed populating the librivox url, patch it up in the
+        // background
+        urlRepairs.requestRepair();
 
         // Tells the Cursor what URI to watch, so it knows when its source data
         // changes
@@ -442,68 +627,6 @@ public class LibraryContentProvider extends ContentProvider {
         return c;
     }
 
-    private void fixLibrivoxUrl(Uri uri, Cursor c) {
-        int rssUrlIndex = c.getColumnIndex(Books.COLUMN_NAME_RSS_URL);
-        String rssUrl = c.getString(rssUrlIndex);
-        LogHelper.info("LibraryContentProvider", "No Librivox URL, updating");
-
-        InputSource in;
-        try {
-            HttpClient client = new DefaultHttpClient();
-            HttpGet request = new HttpGet();
-            request.setURI(new URI(rssUrl));
-            HttpResponse response = client.execute(request);
-
-            in = new InputSource(response.getEntity().getContent());
-        } catch (Exception e) {
-            LogHelper.warn("LibraryCOntentProvider", "Not able to update the librivox url");
-            return;
-        }
-
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        Document dom;
-        try {
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            dom = builder.parse(in);
-        } catch (Exception e) {
-            LogHelper.error("LibraryContentProvider", "UNable to update the librivox url", e);
-            return;
-        }
-        Element root = dom.getDocumentElement();
-
-        /*
-         * <rss xmlns:itunes="http://www.itunes.com/dtds/podcast-1.0.dtd"
-         * xmlns:media="http://search.yahoo.com/mrss/" xmlns:creativeCommons=
-         * "http://blogs.law.harvard.edu/tech/creativeCommonsRssModule"
-         * version="2.0"> <channel> <title><![CDATA[Time Machine, The Version 4
-         * by Wells, H. G.]]></title>
-         * <link><![CDATA[http://librivox.org/the-time
-         * -machine-by-h-g-wells-2/]]></link>
-         */
-
-        // String debugXML = XMLUtils.xmlDocumentToString(dom);
-
-        List<Element> channels = XMLUtils.getChildElementsByName(root, "channel");
-        if (channels.size() != 1) {
-            throw new RuntimeException("Unexpected channel elements in Rss URL " + rssUrl);
-        }
-        Element channel = channels.get(0);
-        List<Element> links = XMLUtils.getChildElementsByName(channel, "link");
-        if (links.size() != 1) {
-            throw new RuntimeException("Unexpected link elements in Rss URL " + rssUrl);
-        }
-        Element link = links.get(0);
-        String librivoxUrl = XMLUtils.getTextContent(link);
-
-        ContentValues updatedValues = new ContentValues();
-        updatedValues.put(Libridroid.Books.COLUMN_NAME_LIBRIVOX_URL, librivoxUrl);
-
-        int idIndex = c.getColumnIndex(Books._ID);
-        String id = c.getString(idIndex);
-
-        update(uri, updatedValues, Books._ID + " = " + id, null);
-    }
-
     /**
      * This is called when a client calls
      * {@link android.content.ContentResolver#getType(Uri)}. Returns the MIME
@@ -584,34 +707,163 @@ public class LibraryContentProvider extends ContentProvider {
         if (rowId > 0) {
             Uri bookUri = ContentUris.withAppendedId(
                     Libridroid.Search.CONTENT_ID_URI_BASE, rowId);
-            getContext().getContentResolver().notifyChange(bookUri, null);
+            changeNotifier.notifyChange(bookUri);
             return bookUri;
         }
 
         throw new SQLException("Failed to insert row into " + uri);
     }
 
-    private Uri insertSection(Uri uri, ContentValues values) {
+    /**
+     * This is called when a client calls
+     * {@link android.content.ContentResolver#bulkInsert(Uri, ContentValues[])}
+     * . Search rows are upserted (keyed by librivox id and title) inside a
+     * single transaction, and listeners are notified once at the end rather
+     * than once per row. Sections are likewise inserted in one transaction.
+     * Other URIs fall back to row-by-row inserts.
+     *
+     * @return The number of new rows created.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] valuesArray) {
+        switch (URI_MATCHER.match(uri)) {
+            case UriTypes.SEARCH:
+                return bulkUpsertSearch(valuesArray,
+                        Boolean.parseBoolean(uri.getQueryParameter(Libridroid.Search.MIRROR_PARAM_NAME)));
+            case UriTypes.SECTIONS:
+                return bulkInsertSections(uri, valuesArray);
+            default:
+                // row by row, but notified once
+                changeNotifier.beginBatch();
+                try {
+                    return super.bulkInsert(uri, valuesArray);
+                } finally {
+                    changeNotifier.endBatch();
+                }
+        }
+    }
+
+    private int bulkInsertSections(Uri uri, ContentValues[] valuesArray) {
+        String bookId = uri.getPathSegments().get(BOOK_ID_PATH_SEGMENT_NUM);
+        boolean replace = Boolean.parseBoolean(uri.getQueryParameter(Libridroid.BookSections.REPLACE_PARAM_NAME));
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+
+        int inserted = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues each : valuesArray) {
+                ContentValues values = new ContentValues(each);
+                BookDatabaseHelper.putTypedSectionValues(values);
+                if (replace) {
+                    // the section number is unique within the book
+                    db.delete(Libridroid.BookSections.BOOK_SECTION_TABLE_NAME,
+                            Libridroid.BookSections.COLUMN_NAME_BOOK_ID + " = ? AND "
+                                    + Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER + " = ?",
+                            new String[] { bookId,
+                                    values.getAsString(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER) });
+                }
+                insertSectionRow(db, values);
+                inserted++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        changeNotifier.notifyChange(Libridroid.BookSections.contentUri(bookId));
+        return inserted;
+    }
+
+    private int bulkUpsertSearch(ContentValues[] valuesArray, boolean mirror) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        long now = System.currentTimeMillis();
+        ContentValues touchedValues = new ContentValues();
+        touchedValues.put(Libridroid.Search.COLUMN_NAME_LAST_USED, now);
+
+        int inserted = 0;
+        int touched = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues each : valuesArray) {
+                String librivoxId = each.getAsString(Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID);
+                String title = each.getAsString(Libridroid.Search.COLUMN_NAME_TITLE);
+                Long existingId = existingSearchIdFor(librivoxId, title);
+                if (existingId != null) {
+                    // allow cleanup of old searches to preserve space
+                    // mark recently found entries with date
+                    ContentValues updateValues = touchedValues;
+                    if (mirror) {
+                        // a catalog sync carries the book's current details
+                        updateValues = new ContentValues(each);
+                        updateValues.put(Libridroid.Search.COLUMN_NAME_LAST_USED, now);
+                        updateValues.put(Libridroid.Search.COLUMN_NAME_MIRRORED, 1);
+                    }
+                    StatementCache.Shape shape = StatementCache.fitting(updateValues, SEARCH_TOUCH, SEARCH_UPDATE);
+                    if (shape != null) {
+                        touched += statements.updateById(shape, updateValues, existingId);
+                    } else {
+                        touched += db.update(Libridroid.Search.SEARCH_TABLE_NAME, updateValues,
+                                Libridroid.Search._ID + " = ?", new String[] { Long.toString(existingId) });
+                    }
+                    continue;
+                }
+                ContentValues values = new ContentValues(each);
+                values.put(Libridroid.Search.COLUMN_NAME_LAST_USED, now);
+                // (given either way, a column left out of the insert is null)
+                values.put(Libridroid.Search.COLUMN_NAME_MIRRORED, mirror ? 1 : 0);
+                if (SEARCH_INSERT.fits(values)) {
+                    statements.insert(SEARCH_INSERT, values);
+                } else {
+                    db.insertOrThrow(Libridroid.Search.SEARCH_TABLE_NAME, null, values);
+                }
+                inserted++;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        LogHelper.debug("LibraryContentProvider", "Bulk search upsert inserted " + inserted + ", touched "
+                + touched + " rows");
+
+        changeNotifier.notifyChange(Libridroid.Search.CONTENT_URI);
+        return inserted;
+    }
+
+    private static final StatementCache.Shape EXISTING_SEARCH_ID = StatementCache.queryShape("SELECT "
+            + Libridroid.Search._ID + " FROM " + Libridroid.Search.SEARCH_TABLE_NAME + " WHERE "
+            + Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID + " = ? AND " + Libridroid.Search.COLUMN_NAME_TITLE
+            + " = ?");
+
+    private Long existingSearchIdFor(String librivoxId, String title) {
+        return statements.simpleQueryForLong(EXISTING_SEARCH_ID, librivoxId, title);
+    }
+
+    /**
+     * @return the new row's id
+     */
+    private long insertSectionRow(SQLiteDatabase db, ContentValues values) {
+        if (SECTION_INSERT.fits(values)) {
+            return statements.insert(SECTION_INSERT, values);
+        }
+        return db.insertOrThrow(Libridroid.BookSections.BOOK_SECTION_TABLE_NAME, null, values);
+    }
+
+    private Uri insertSection(Uri uri, ContentValues initialValues) {
         String bookId = uri.getPathSegments().get(1);
+        ContentValues values = new ContentValues(initialValues);
+        BookDatabaseHelper.putTypedSectionValues(values);
         Integer sectionNumber = values
                 .getAsInteger(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER);
 
-        // Opens the database object in "write" mode.
-        SQLiteDatabase db = databaseHelper.getWritableDatabase();
-
         // Performs the insert and returns the ID of the new note.
-        long rowId = db.insertOrThrow(
-                Libridroid.BookSections.BOOK_SECTION_TABLE_NAME,
-                null,
-                values
-                );
+        long rowId = insertSectionRow(databaseHelper.getWritableDatabase(), values);
 
         // If the insert succeeded, the row ID exists.
         if (rowId > 0) {
             Uri noteUri = Libridroid.BookSections.contentUri(bookId,
                     sectionNumber);
 
-            getContext().getContentResolver().notifyChange(noteUri, null);
+            changeNotifier.notifyChange(noteUri);
             return noteUri;
         }
 
@@ -641,9 +893,12 @@ public class LibraryContentProvider extends ContentProvider {
                 );
 
         if (rowId > 0) {
+            if (TextUtils.isEmpty(values.getAsString(Libridroid.Books.COLUMN_NAME_LIBRIVOX_URL))) {
+                urlRepairs.bookAdded();
+            }
             Uri bookUri = ContentUris.withAppendedId(
                     Libridroid.Books.CONTENT_ID_URI_BASE, rowId);
-            getContext().getContentResolver().notifyChange(bookUri, null);
+            changeNotifier.notifyChange(bookUri);
             return bookUri;
         }
 
@@ -726,9 +981,7 @@ public class LibraryContentProvider extends ContentProvider {
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
-        // TODO should add this?
-        db.close();
+        changeNotifier.notifyChange(uri);
 
         return count;
     }
@@ -784,6 +1037,14 @@ public class LibraryContentProvider extends ContentProvider {
 
             case UriTypes.BOOK_ID: {
                 String bookId = uri.getPathSegments().get(1);
+                StatementCache.Shape shape = where == null ? StatementCache.fitting(values, BOOK_UPDATES)
+                        : null;
+                if (shape != null) {
+                    // eg, the listening position, saved on every pause and
+                    // seek
+                    count = statements.updateById(shape, values, Long.parseLong(bookId));
+                    break;
+                }
 
                 finalWhere =
                         Libridroid.Books._ID + // The ID column name
@@ -824,9 +1085,11 @@ public class LibraryContentProvider extends ContentProvider {
                     finalWhere = "(" + finalWhere + ") AND (" + where + ")";
                 }
 
+                ContentValues sectionValues = new ContentValues(values);
+                BookDatabaseHelper.putTypedSectionValues(sectionValues);
                 count = db.update(
                         Libridroid.BookSections.BOOK_SECTION_TABLE_NAME,
-                        values, // A map of column names and new values to use.
+                        sectionValues, // A map of column names and new values to use.
                         finalWhere, // The where clause column names.
                         whereArgs // The where clause column values to select
                                   // on.
@@ -839,7 +1102,7 @@ public class LibraryContentProvider extends ContentProvider {
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        changeNotifier.notifyChange(uri);
 
         return count;
     }
@@ -865,6 +1128,14 @@ public class LibraryContentProvider extends ContentProvider {
         return oldAsyncQueryHelper;
     }
 
+    // Useful for testing, without repairs reading librivox feeds behind the
+    // test's back
+    LibrivoxUrlRepairQueue setUrlRepairQueue(LibrivoxUrlRepairQueue queue) {
+        LibrivoxUrlRepairQueue oldQueue = urlRepairs;
+        urlRepairs = queue;
+        return oldQueue;
+    }
+
     // Useful for testing, without actually going to the librivox site
     BufferedAsyncQueryHelper setSectionsAsyncQueryHelper(
             BufferedAsyncQueryHelper asyncQueryHelper) {
@@ -4,10 +4,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
 
 import android.content.ContentValues;
-import android.database.Cursor;
 import android.net.Uri;
 
 import com.oakonell.libridroid.Libridroid;
@@ -19,17 +21,29 @@ import com.oakonell.utils.query.AbstractAsyncQueryHelper;
 
 public class LibrivoxAsyncQueryHelper extends AbstractAsyncQueryHelper {
     private LibraryContentProvider provider;
+    private final SearchResultCache.Entry cached;
 
     /** uri for querying librivox books, expects appending keywords. */
     private static final String QUERY_URI =
             "http://catalog.librivox.org/search_xml.php?extended=1&simple=";
+    private static final String QUERY_PARAM = "simple";
 
     public LibrivoxAsyncQueryHelper(LibraryContentProvider provider,
             String communicationId) {
+        this(provider, communicationId, null);
+    }
+
+    /**
+     * @param cached
+     *            the stale cache entry for the query to revalidate, or null
+     */
+    LibrivoxAsyncQueryHelper(LibraryContentProvider provider,
+            String communicationId, SearchResultCache.Entry cached) {
         super(provider.getContext(), communicationId, provider.getContext().getString(R.string.progress_parsing),
                 provider.getContext()
                         .getString(R.string.progress_reading));
         this.provider = provider;
+        this.cached = cached;
     }
 
     @Override
@@ -37,56 +51,66 @@ public class LibrivoxAsyncQueryHelper extends AbstractAsyncQueryHelper {
         return QUERY_URI + ServiceReadToDBBufferer.encode(queryText);
     }
 
+    @Override
+    protected void prepareRequest(HttpGet request) {
+        if (cached == null) {
+            return;
+        }
+        if (cached.getEtag() != null) {
+            request.addHeader("If-None-Match", cached.getEtag());
+        }
+        if (cached.getLastModified() != null) {
+            request.addHeader("If-Modified-Since", cached.getLastModified());
+        }
+    }
+
+    @Override
+    protected void responseNotModified(HttpResponse response, Uri uri) {
+        LogHelper.debug("LibrivoxAsyncQueryHelper", "Search results unchanged for " + uri);
+        provider.getSearchCache().validated(uri.getQueryParameter(QUERY_PARAM));
+    }
+
+    @Override
+    protected void responseParsed(HttpResponse response, Uri uri) {
+        provider.getSearchCache().stored(uri.getQueryParameter(QUERY_PARAM),
+                headerValue(response, "ETag"), headerValue(response, "Last-Modified"));
+    }
+
+    private static String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        if (header == null) {
+            return null;
+        }
+        return header.getValue();
+    }
+
     @Override
     protected int parseResponseEntity(HttpEntity entity, Uri uri) throws IOException {
         InputStream content = entity.getContent();
         InputStreamReader inputReader = new InputStreamReader(content, "UTF-8");
 
-        final StringBuilder searchIdsToUpdate = new StringBuilder();
+        // upsert the parsed books in chunks, each chunk is a single
+        // transaction with a single change notification
+        final BulkInsertBuffer buffer = new BulkInsertBuffer(provider, Libridroid.Search.CONTENT_URI);
         LibrivoxRSSParser parser = new LibrivoxRSSParser(inputReader,
                 new BookParsedCallback() {
-
                     @Override
                     public void finishedBook(ContentValues values) {
-                        /*
-                         * Directly invoke insert on the provider, without using
-                         * content resolver. We would not want the content
-                         * provider to sync this data back to itself.
-                         */
-                        String librivoxId = values
-                                .getAsString(Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID);
-                        String title = values
-                                .getAsString(Libridroid.Search.COLUMN_NAME_TITLE);
-                        Long id = existingIdFor(librivoxId, title);
-                        if (id != null) {
-                            // allow cleanup of old searches to preserve space
-                            // mark recently found entries with date
-
-                            if (searchIdsToUpdate.length() != 0) {
-                                searchIdsToUpdate.append(",");
-                            }
-                            searchIdsToUpdate.append("'");
-                            searchIdsToUpdate.append(id.toString());
-                            searchIdsToUpdate.append("'");
-                            return;
+                        // a superseded search's rows are stale, don't insert
+                        // any more of them
+                        if (!isCancelled()) {
+                            buffer.add(values);
                         }
-                        values.put(Libridroid.Search.COLUMN_NAME_LAST_USED, System.currentTimeMillis());
-                        LogHelper.debug("LibrivoxAsyncQueryHelper", "Inserting a row");
-                        provider.insert(Libridroid.Search.CONTENT_URI, values);
                     }
-
                 });
 
-        int inserted = parser.parse();
-
-        // perform updates to last_used for all the results
-        LogHelper.debug("LibrivoxAsyncQueryHelper", "Updating search rows");
-        ContentValues updatedValues = new ContentValues();
-        updatedValues.put(Libridroid.Search.COLUMN_NAME_LAST_USED, System.currentTimeMillis());
-        int update = provider.update(Libridroid.Search.CONTENT_URI,
-                updatedValues, Libridroid.Search._ID + " in (" + searchIdsToUpdate.toString() + ")",
-                new String[] {});
-        LogHelper.debug("LibrivoxAsyncQueryHelper", "Updated " + update + " search rows");
+        int parsed = parser.parse();
+        if (isCancelled()) {
+            return buffer.getInserted();
+        }
+        int inserted = buffer.flush();
+        LogHelper.debug("LibrivoxAsyncQueryHelper", "Parsed " + parsed + " books, inserted " + inserted
+                + " new search rows");
 
         // only flush old state now that new state has arrived
         deleteOld();
@@ -94,38 +118,18 @@ public class LibrivoxAsyncQueryHelper extends AbstractAsyncQueryHelper {
         return inserted;
     }
 
-    private Long existingIdFor(String librivoxId, String title) {
-        Cursor cursor = null;
-        Long id = null;
-        try {
-            cursor = provider.query(
-                    Libridroid.Search.CONTENT_URI, null,
-                    Libridroid.Search.SEARCH_TABLE_NAME + "." +
-                            Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID
-                            + " = ? AND " + Libridroid.Search.SEARCH_TABLE_NAME + "."
-                            + Libridroid.Search.COLUMN_NAME_TITLE
-                            + " = ?",
-                    new String[] { librivoxId, title }, null);
-            if (cursor.moveToFirst()) {
-                id = cursor.getLong(cursor
-                        .getColumnIndex(Libridroid.Search._ID));
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        return id;
-    }
-
     private void deleteOld() {
-        // delete search entries older than a week
+        // delete search entries older than a week, the catalog mirror's rows
+        // are kept
         // TODO make this time frame configurable?
         long oldDateMillis = System.currentTimeMillis() - 7 * 24 * 60 * 60 * 1000;
         int numDeleted = provider.delete(Libridroid.Search.CONTENT_URI,
-                Libridroid.Search.COLUMN_NAME_LAST_USED + " <  ? ", new String[] { Long.toString(oldDateMillis) });
+                Libridroid.Search.COLUMN_NAME_LAST_USED + " <  ? AND "
+                        + Libridroid.Search.COLUMN_NAME_MIRRORED + " = 0",
+                new String[] { Long.toString(oldDateMillis) });
         if (numDeleted > 0) {
             LogHelper.debug("LibrivoxAsyncQueryHelper", "Deleted " + numDeleted + " old search records.");
         }
+        provider.getSearchCache().expireStoredBefore(oldDateMillis);
     }
 }
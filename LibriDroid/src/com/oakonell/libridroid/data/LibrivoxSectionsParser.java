@@ -0,0 +1,132 @@
+package com.oakonell.libridroid.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import android.content.ContentValues;
+
+import com.oakonell.libridroid.Libridroid;
+
+/**
+ * Pull parser for a book's librivox RSS feed, emitting one section at a time
+ * so the feed never needs to be held in memory as a DOM.
+ */
+public class LibrivoxSectionsParser {
+    public interface SectionParsedCallback {
+        void finishedSection(ContentValues values);
+    }
+
+    private static final Pattern SECTION_TITLE_AUTHOR_PATTERN = Pattern.compile("(\\d+) \"([^\"]*)\" (by)? (.*)");
+    private static final int SECTION_AUTHOR_GROUP = 4;
+    private static final int SECTION_TITLE_GROUP = 2;
+
+    private static final String ITEM_NODE_NAME = "item";
+    private static final String TITLE_NODE_NAME = "title";
+    private static final String ENCLOSURE_NODE_NAME = "enclosure";
+    private static final String DURATION_NODE_NAME = "itunes:duration";
+
+    private final Reader inputReader;
+    private final String bookId;
+    private final SectionParsedCallback callback;
+
+    public LibrivoxSectionsParser(Reader inputReader, String bookId,
+            SectionParsedCallback callback) {
+        this.inputReader = inputReader;
+        this.bookId = bookId;
+        this.callback = callback;
+    }
+
+    /**
+     * Parse the feed, invoking the callback as each item element ends.
+     *
+     * @return the number of sections parsed
+     */
+    public int parse() throws IOException {
+        int sectionNumber = 0;
+        try {
+            XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+            factory.setNamespaceAware(false);
+            XmlPullParser xpp = factory.newPullParser();
+            xpp.setInput(inputReader);
+
+            ContentValues sectionValues = null;
+            boolean sawEnclosure = false;
+            StringBuilder text = new StringBuilder();
+
+            int eventType = xpp.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                if (eventType == XmlPullParser.START_TAG) {
+                    String startName = xpp.getName();
+                    text.setLength(0);
+                    if (ITEM_NODE_NAME.equals(startName)) {
+                        sectionValues = new ContentValues();
+                        sawEnclosure = false;
+                    } else if (sectionValues != null && ENCLOSURE_NODE_NAME.equals(startName)) {
+                        /*
+                         * <enclosure url=
+                         * "http://www.archive.org/download/emma_solo_librivox/emma_01_01_austen_64kb.mp3"
+                         * length="10377635" type="audio/mpeg" />
+                         */
+                        if (sawEnclosure) {
+                            throw new RuntimeException("Unexpected multiple enclosure elements in section "
+                                    + (sectionNumber + 1));
+                        }
+                        sawEnclosure = true;
+                        sectionValues.put(Libridroid.BookSections.COLUMN_NAME_SIZE,
+                                xpp.getAttributeValue(null, "length"));
+                        sectionValues.put(Libridroid.BookSections.COLUMN_NAME_URL,
+                                xpp.getAttributeValue(null, "url"));
+                    }
+                } else if (eventType == XmlPullParser.TEXT) {
+                    text.append(xpp.getText());
+                } else if (eventType == XmlPullParser.END_TAG && sectionValues != null) {
+                    String endName = xpp.getName();
+                    if (TITLE_NODE_NAME.equals(endName)) {
+                        putTitleAndAuthor(sectionValues, text.toString());
+                    } else if (DURATION_NODE_NAME.equals(endName)) {
+                        // <itunes:duration>21:37</itunes:duration>
+                        sectionValues.put(Libridroid.BookSections.COLUMN_NAME_DURATION, text.toString().trim());
+                    } else if (ITEM_NODE_NAME.equals(endName)) {
+                        if (!sawEnclosure) {
+                            throw new RuntimeException("Missing enclosure element in section "
+                                    + (sectionNumber + 1));
+                        }
+                        sectionNumber++;
+                        sectionValues.put(Libridroid.BookSections.COLUMN_NAME_BOOK_ID, bookId);
+                        sectionValues.put(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER, sectionNumber);
+                        callback.finishedSection(sectionValues);
+                        sectionValues = null;
+                    }
+                    text.setLength(0);
+                }
+                eventType = xpp.next();
+            }
+        } catch (XmlPullParserException e) {
+            IOException ioException = new IOException("Could not parse librivox section feed: " + e.getMessage());
+            ioException.initCause(e);
+            throw ioException;
+        }
+        return sectionNumber;
+    }
+
+    private void putTitleAndAuthor(ContentValues values, String rawTitle) {
+        String xmlTitle = rawTitle.trim();
+        String title = xmlTitle;
+        String author = "";
+        if (xmlTitle.contains("\"")) {
+            Matcher matcher = SECTION_TITLE_AUTHOR_PATTERN.matcher(xmlTitle);
+            if (matcher.matches()) {
+                title = matcher.group(SECTION_TITLE_GROUP);
+                author = matcher.group(SECTION_AUTHOR_GROUP);
+            }
+        }
+        values.put(Libridroid.BookSections.COLUMN_NAME_SECTION_TITLE, title);
+        values.put(Libridroid.BookSections.COLUMN_NAME_SECTION_AUTHOR, author);
+    }
+}
@@ -0,0 +1,280 @@
+package com.oakonell.libridroid.data;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.jcip.annotations.GuardedBy;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import com.oakonell.libridroid.Libridroid;
+import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.SharedHttpClient;
+import com.oakonell.utils.TaskScheduler;
+import com.oakonell.utils.db.ChangeNotifier;
+
+/**
+ * Fills in the librivox url of books saved without one (v1.1 missed
+ * populating it) from the link in the book's RSS feed.
+ *
+ * The queue is the books table itself- every book with an empty librivox url
+ * is pending- so it survives restarts without any bookkeeping. Queries only
+ * ask for a repair, which is cheap when there is nothing to do; the repair
+ * runs on the background lane, a batch of books per transaction, and
+ * notifies the books uri once when it is done.
+ *
+ * A book whose feed has no link (or that has no feed) can never be repaired,
+ * and one whose feed can't be read is only tried a few times- either is then
+ * left alone until the app restarts.
+ */
+class LibrivoxUrlRepairQueue {
+    private static final int BATCH_SIZE = 10;
+    // books whose feed could not be read are tried again after this long
+    private static final long RETRY_INTERVAL_MS = 10 * 60 * 1000;
+    private static final int MAX_ATTEMPTS = 3;
+
+    /** read from a feed without a link, the book can't be repaired */
+    static final String NO_LIBRIVOX_URL = "";
+
+    private static final String NEEDS_REPAIR = "(" + Libridroid.Books.COLUMN_NAME_LIBRIVOX_URL + " IS NULL OR "
+            + Libridroid.Books.COLUMN_NAME_LIBRIVOX_URL + " = '')";
+
+    private final ChangeNotifier changeNotifier;
+    private final SQLiteOpenHelper databaseHelper;
+
+    @GuardedBy("this")
+    private boolean running;
+    // 0 to check the table on the next request
+    @GuardedBy("this")
+    private long nextRun;
+    // the failed attempts to repair each book, MAX_ATTEMPTS once given up
+    @GuardedBy("this")
+    private final Map<Long, Integer> attempts = new HashMap<Long, Integer>();
+
+    LibrivoxUrlRepairQueue(ChangeNotifier changeNotifier, SQLiteOpenHelper databaseHelper) {
+        this.changeNotifier = changeNotifier;
+        this.databaseHelper = databaseHelper;
+    }
+
+    /**
+     * Start a repair in the background, unless one is running or the table
+     * was recently found to need none.
+     */
+    void requestRepair() {
+        synchronized (this) {
+            if (running || System.currentTimeMillis() < nextRun) {
+                return;
+            }
+            running = true;
+        }
+        TaskScheduler.execute(TaskScheduler.Lane.BACKGROUND, new Runnable() {
+            @Override
+            public void run() {
+                // a run that fails part way is tried again later, like one
+                // that left books to retry
+                boolean retry = true;
+                try {
+                    retry = repairAll() > 0;
+                } finally {
+                    synchronized (LibrivoxUrlRepairQueue.this) {
+                        running = false;
+                        // a book added meanwhile may already have asked for
+                        // another check
+                        if (nextRun != 0) {
+                            nextRun = retry ? System.currentTimeMillis() + RETRY_INTERVAL_MS : Long.MAX_VALUE;
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * A book was saved without a librivox url, check the table on the next
+     * request.
+     */
+    synchronized void bookAdded() {
+        nextRun = 0;
+    }
+
+    /**
+     * Repair every pending book, in batches.
+     *
+     * @return the number of books that could not be repaired, but will be
+     *         tried again
+     */
+    int repairAll() {
+        synchronized (this) {
+            // cleared before reading, so a book added while reading is seen
+            // by the next run
+            nextRun = System.currentTimeMillis();
+        }
+        int repaired = 0;
+        int failed = 0;
+        long lastId = 0;
+        Map<Long, String> batch = nextBatch(lastId);
+        while (!batch.isEmpty()) {
+            Map<Long, String> librivoxUrls = new LinkedHashMap<Long, String>();
+            for (Entry<Long, String> each : batch.entrySet()) {
+                lastId = each.getKey();
+                if (isGivenUp(lastId)) {
+                    continue;
+                }
+                String librivoxUrl = readLibrivoxUrl(each.getValue());
+                if (librivoxUrl == null) {
+                    if (!failedAttempt(lastId)) {
+                        failed++;
+                    }
+                } else if (librivoxUrl.length() == 0) {
+                    LogHelper.info("LibrivoxUrlRepairQueue", "Book " + lastId + " has no librivox url in its feed "
+                            + each.getValue() + ", not repairing it");
+                    giveUp(lastId);
+                } else {
+                    librivoxUrls.put(lastId, librivoxUrl);
+                }
+            }
+            repaired += save(librivoxUrls);
+            batch = nextBatch(lastId);
+        }
+
+        LogHelper.info("LibrivoxUrlRepairQueue", "Repaired " + repaired + " librivox urls, " + failed + " failed");
+        if (repaired > 0) {
+            changeNotifier.notifyChange(Libridroid.Books.CONTENT_URI);
+        }
+        return failed;
+    }
+
+    private synchronized boolean isGivenUp(long bookId) {
+        Integer failures = attempts.get(bookId);
+        return failures != null && failures >= MAX_ATTEMPTS;
+    }
+
+    private synchronized void giveUp(long bookId) {
+        attempts.put(bookId, MAX_ATTEMPTS);
+    }
+
+    /**
+     * @return true if the book has now failed too often, and is given up
+     */
+    private synchronized boolean failedAttempt(long bookId) {
+        Integer failures = attempts.get(bookId);
+        int count = failures == null ? 1 : failures + 1;
+        attempts.put(bookId, count);
+        return count >= MAX_ATTEMPTS;
+    }
+
+    /**
+     * @return the ids and rss urls of the next pending books after the given
+     *         id
+     */
+    private Map<Long, String> nextBatch(long afterId) {
+        Map<Long, String> batch = new LinkedHashMap<Long, String>();
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+        Cursor cursor = db.query(Libridroid.Books.BOOK_TABLE_NAME,
+                new String[] { BaseColumns._ID, Libridroid.Books.COLUMN_NAME_RSS_URL },
+                NEEDS_REPAIR + " AND " + BaseColumns._ID + " > ?", new String[] { Long.toString(afterId) },
+                null, null, BaseColumns._ID, Integer.toString(BATCH_SIZE));
+        try {
+            while (cursor.moveToNext()) {
+                batch.put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return batch;
+    }
+
+    private int save(Map<Long, String> librivoxUrls) {
+        if (librivoxUrls.isEmpty()) {
+            return 0;
+        }
+        int updated = 0;
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (Entry<Long, String> each : librivoxUrls.entrySet()) {
+                values.put(Libridroid.Books.COLUMN_NAME_LIBRIVOX_URL, each.getValue());
+                updated += db.update(Libridroid.Books.BOOK_TABLE_NAME, values,
+                        BaseColumns._ID + " = ? AND " + NEEDS_REPAIR, new String[] { each.getKey().toString() });
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return updated;
+    }
+
+    /**
+     * @return the librivox url linked from the feed's channel,
+     *         {@link #NO_LIBRIVOX_URL} if there is no feed or it has no link,
+     *         or null if the feed could not be read (and may be later)
+     */
+    String readLibrivoxUrl(String rssUrl) {
+        if (TextUtils.isEmpty(rssUrl)) {
+            return NO_LIBRIVOX_URL;
+        }
+        HttpEntity entity = null;
+        try {
+            HttpResponse response = SharedHttpClient.get().execute(new HttpGet(rssUrl));
+            entity = response.getEntity();
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || entity == null) {
+                LogHelper.warn("LibrivoxUrlRepairQueue", "Not able to read the rss feed " + rssUrl + ": "
+                        + response.getStatusLine());
+                return null;
+            }
+            String link = parseChannelLink(new InputStreamReader(entity.getContent(), "UTF-8"));
+            return link == null ? NO_LIBRIVOX_URL : link;
+        } catch (Exception e) {
+            LogHelper.warn("LibrivoxUrlRepairQueue", "Not able to update the librivox url from " + rssUrl, e);
+            return null;
+        } finally {
+            SharedHttpClient.release(entity);
+        }
+    }
+
+    /**
+     * Read only as far as the channel's link, rather than the whole feed.
+     *
+     * <pre>
+     * &lt;rss ...&gt; &lt;channel&gt; &lt;title&gt;&lt;![CDATA[Time Machine, The Version 4 by Wells, H. G.]]&gt;&lt;/title&gt;
+     * &lt;link&gt;&lt;![CDATA[http://librivox.org/the-time-machine-by-h-g-wells-2/]]&gt;&lt;/link&gt;
+     * </pre>
+     */
+    static String parseChannelLink(InputStreamReader reader) throws IOException {
+        try {
+            XmlPullParser xpp = XmlPullParserFactory.newInstance().newPullParser();
+            xpp.setInput(reader);
+            int eventType = xpp.getEventType();
+            while (eventType != XmlPullParser.END_DOCUMENT) {
+                // rss > channel > link
+                if (eventType == XmlPullParser.START_TAG && xpp.getDepth() == 3 && "link".equals(xpp.getName())) {
+                    return xpp.nextText().trim();
+                }
+                eventType = xpp.next();
+            }
+            return null;
+        } catch (XmlPullParserException e) {
+            IOException ioException = new IOException("Could not parse librivox rss feed: " + e.getMessage());
+            ioException.initCause(e);
+            throw ioException;
+        }
+    }
+}
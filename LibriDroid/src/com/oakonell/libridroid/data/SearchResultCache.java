@@ -0,0 +1,140 @@
+package com.oakonell.libridroid.data;
+
+import java.util.List;
+import java.util.Locale;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.provider.BaseColumns;
+
+/**
+ * Remembers which librivox searches have already been read into the search
+ * table, keyed by the normalized query text, along with the HTTP validators
+ * returned with them. A search fetched within the time to live is answered
+ * from the search table alone, an older one is revalidated with a
+ * conditional request.
+ */
+final class SearchResultCache {
+    static final String SEARCH_CACHE_TABLE_NAME = "search_cache";
+
+    static final String COLUMN_NAME_QUERY = "query";
+    static final String COLUMN_NAME_ETAG = "etag";
+    static final String COLUMN_NAME_LAST_MODIFIED = "last_modified";
+    /** when the rows were last read (and their last_used touched) */
+    static final String COLUMN_NAME_STORED = "stored";
+    /** when the rows were last confirmed current, by a read or a 304 */
+    static final String COLUMN_NAME_VALIDATED = "validated";
+
+    static final long TIME_TO_LIVE_MS = 60 * 60 * 1000;
+
+    static final class Entry {
+        private final String etag;
+        private final String lastModified;
+        private final long validated;
+
+        private Entry(String etag, String lastModified, long validated) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.validated = validated;
+        }
+
+        String getEtag() {
+            return etag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() - validated < TIME_TO_LIVE_MS;
+        }
+    }
+
+    private final SQLiteOpenHelper databaseHelper;
+
+    SearchResultCache(SQLiteOpenHelper databaseHelper) {
+        this.databaseHelper = databaseHelper;
+    }
+
+    /**
+     * Case, punctuation and spacing don't change the librivox results, so
+     * don't let them split the cache either.
+     */
+    static String normalize(String queryText) {
+        List<String> tokens = FullTextSearch.tokenize(queryText);
+        if (tokens.isEmpty()) {
+            return queryText.trim().toLowerCase(Locale.US);
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String each : tokens) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(each);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the cache entry for the query, or null if it was never read (or
+     *         has been expired)
+     */
+    Entry lookup(String queryText) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        Cursor cursor = db.query(SEARCH_CACHE_TABLE_NAME,
+                new String[] { COLUMN_NAME_ETAG, COLUMN_NAME_LAST_MODIFIED, COLUMN_NAME_VALIDATED },
+                COLUMN_NAME_QUERY + " = ?", new String[] { normalize(queryText) }, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return new Entry(cursor.getString(0), cursor.getString(1), cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    void stored(String queryText, String etag, String lastModified) {
+        long now = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_NAME_QUERY, normalize(queryText));
+        values.put(COLUMN_NAME_ETAG, etag);
+        values.put(COLUMN_NAME_LAST_MODIFIED, lastModified);
+        values.put(COLUMN_NAME_STORED, now);
+        values.put(COLUMN_NAME_VALIDATED, now);
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        db.replace(SEARCH_CACHE_TABLE_NAME, null, values);
+    }
+
+    void validated(String queryText) {
+        ContentValues values = new ContentValues();
+        values.put(COLUMN_NAME_VALIDATED, System.currentTimeMillis());
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        db.update(SEARCH_CACHE_TABLE_NAME, values, COLUMN_NAME_QUERY + " = ?",
+                new String[] { normalize(queryText) });
+    }
+
+    /**
+     * Forget searches whose rows may have been deleted from the search table
+     * as old, so that they are read in full again rather than revalidated.
+     */
+    int expireStoredBefore(long oldDateMillis) {
+        SQLiteDatabase db = databaseHelper.getWritableDatabase();
+        return db.delete(SEARCH_CACHE_TABLE_NAME, COLUMN_NAME_STORED + " < ?",
+                new String[] { Long.toString(oldDateMillis) });
+    }
+
+    static void createTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SEARCH_CACHE_TABLE_NAME + " (" +
+                BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_NAME_QUERY + " TEXT UNIQUE, " +
+                COLUMN_NAME_ETAG + " TEXT, " +
+                COLUMN_NAME_LAST_MODIFIED + " TEXT, " +
+                COLUMN_NAME_STORED + " INTEGER, " +
+                COLUMN_NAME_VALIDATED + " INTEGER" +
+                ");");
+    }
+}
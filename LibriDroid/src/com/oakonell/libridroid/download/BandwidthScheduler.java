@@ -0,0 +1,162 @@
+package com.oakonell.libridroid.download;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import net.jcip.annotations.GuardedBy;
+
+/**
+ * Shares the bandwidth between the running downloads with token buckets. The
+ * section wanted for playing is kept ahead of its playback: while it downloads
+ * slower than it plays (with a margin) the background downloads are slowed,
+ * leaving it more of the connection, and they speed up again once it keeps
+ * ahead. An optional cap limits all the downloads together.
+ *
+ * The downloads carry on over their connections throughout- only how fast
+ * they are read changes.
+ */
+final class BandwidthScheduler {
+    // 128kbps, the higher of the librivox mp3 bit rates
+    static final long DEFAULT_PLAYBACK_BYTES_PER_SECOND = 128 * 1024 / 8;
+    private static final double PLAYBACK_MARGIN = 1.5;
+    private static final long MIN_BACKGROUND_BYTES_PER_SECOND = 4 * 1024;
+    private static final long WINDOW_NANOS = 2 * 1000 * 1000 * 1000L;
+
+    private final long cap;
+    @GuardedBy("this")
+    private final TokenBucket priorityBucket;
+    @GuardedBy("this")
+    private final TokenBucket backgroundBucket;
+    @GuardedBy("this")
+    private final Set<Long> active = new HashSet<Long>();
+    @GuardedBy("this")
+    private long priorityId = -1;
+    @GuardedBy("this")
+    private long requiredRate;
+    @GuardedBy("this")
+    private long windowStart;
+    @GuardedBy("this")
+    private long priorityBytes;
+    @GuardedBy("this")
+    private long backgroundBytes;
+    @GuardedBy("this")
+    private boolean closed;
+
+    /**
+     * @param cap
+     *            the bytes per second all the downloads may use together, or
+     *            0 for no limit
+     */
+    BandwidthScheduler(long cap) {
+        this.cap = cap;
+        long now = System.nanoTime();
+        priorityBucket = new TokenBucket(cap, now);
+        backgroundBucket = new TokenBucket(cap, now);
+        windowStart = now;
+    }
+
+    /**
+     * @param downloadId
+     *            the download wanted for playing, or -1 if none is
+     * @param playbackBytesPerSecond
+     *            how fast it plays
+     */
+    synchronized void setPriority(long downloadId, long playbackBytesPerSecond) {
+        if (downloadId == priorityId) {
+            return;
+        }
+        priorityId = downloadId;
+        requiredRate = (long) (playbackBytesPerSecond * PLAYBACK_MARGIN);
+        long now = System.nanoTime();
+        startWindow(now);
+        backgroundBucket.setRate(cap, now);
+    }
+
+    synchronized void started(long downloadId) {
+        active.add(downloadId);
+    }
+
+    synchronized void finished(long downloadId) {
+        active.remove(downloadId);
+        if (downloadId == priorityId) {
+            backgroundBucket.setRate(cap, System.nanoTime());
+        }
+    }
+
+    ChannelTransfer.Throttle throttleFor(final long downloadId) {
+        return new ChannelTransfer.Throttle() {
+            @Override
+            public void read(int bytes) {
+                acquire(downloadId, bytes);
+            }
+        };
+    }
+
+    /**
+     * Stop holding back reads, as the downloads are stopping.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized void acquire(long downloadId, int bytes) {
+        long now = System.nanoTime();
+        boolean priority = downloadId == priorityId;
+        if (priority) {
+            priorityBytes += bytes;
+        } else {
+            backgroundBytes += bytes;
+        }
+        if (now - windowStart >= WINDOW_NANOS) {
+            adjust(now);
+        }
+
+        long waitNanos = (priority ? priorityBucket : backgroundBucket).take(bytes, now);
+        long until = now + waitNanos;
+        while (waitNanos > 0 && !closed) {
+            try {
+                wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            waitNanos = until - System.nanoTime();
+        }
+    }
+
+    /**
+     * Set the background downloads' rate from how the section wanted for
+     * playing kept up over the last window.
+     */
+    private void adjust(long now) {
+        double seconds = (now - windowStart) / 1e9;
+        long priorityRate = (long) (priorityBytes / seconds);
+        long backgroundRate = (long) (backgroundBytes / seconds);
+        startWindow(now);
+        if (!active.contains(priorityId)) {
+            backgroundBucket.setRate(cap, now);
+            return;
+        }
+
+        long limit = backgroundBucket.getRate();
+        if (priorityRate < requiredRate) {
+            limit = Math.max(MIN_BACKGROUND_BYTES_PER_SECOND, backgroundRate / 2);
+        } else if (limit > 0) {
+            // lift the limit altogether once the background downloads no
+            // longer reach it
+            limit = limit > 2 * backgroundRate ? 0 : limit + limit / 4;
+        }
+        if (cap > 0) {
+            long share = Math.max(MIN_BACKGROUND_BYTES_PER_SECOND, cap - Math.max(requiredRate, priorityRate));
+            limit = limit > 0 ? Math.min(limit, share) : share;
+        }
+        backgroundBucket.setRate(limit, now);
+    }
+
+    private void startWindow(long now) {
+        windowStart = now;
+        priorityBytes = 0;
+        backgroundBytes = 0;
+    }
+}
@@ -0,0 +1,126 @@
+package com.oakonell.libridroid.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Copies a download's stream into its file through a direct buffer. The
+ * buffer is written to the file once it fills past a watermark, or once it
+ * has held bytes for a while- so a slow download still reaches the file (and
+ * a section being played) promptly- rather than after every read.
+ *
+ * Not thread safe; each download uses its own.
+ */
+final class ChannelTransfer {
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final long MAX_HOLD_MS = DownloadService.DOWNLOAD_UPDATES_MS;
+
+    interface Listener {
+        /**
+         * Called after each write to the file.
+         *
+         * @param position
+         *            the file offset written up to
+         * @return false to stop the transfer
+         */
+        boolean written(long position);
+    }
+
+    /**
+     * Paces the reads, eg to share the bandwidth between downloads.
+     */
+    interface Throttle {
+        /**
+         * Called after each read, and may wait before the next.
+         */
+        void read(int bytes);
+    }
+
+    static final Throttle UNTHROTTLED = new Throttle() {
+        @Override
+        public void read(int bytes) {
+            // read as fast as the connection allows
+        }
+    };
+
+    private final ByteBuffer buffer;
+    private final int watermark;
+    private final Throttle throttle;
+
+    ChannelTransfer() {
+        this(UNTHROTTLED);
+    }
+
+    ChannelTransfer(Throttle throttle) {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE * 3 / 4, throttle);
+    }
+
+    /**
+     * @param watermark
+     *            the bytes buffered before they are written to the file
+     */
+    ChannelTransfer(int bufferSize, int watermark, Throttle throttle) {
+        if (watermark <= 0 || watermark > bufferSize) {
+            throw new IllegalArgumentException("Watermark " + watermark + " must be within the buffer size "
+                    + bufferSize);
+        }
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.watermark = watermark;
+        this.throttle = throttle;
+    }
+
+    /**
+     * Copy the stream to the file at the given offset, until the stream ends,
+     * the end offset is reached, or the listener stops it.
+     *
+     * @param end
+     *            the file offset to stop at, or -1 to copy the whole stream
+     * @return the file offset written up to
+     */
+    long transfer(InputStream in, FileChannel out, long start, long end, Listener listener) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        long position = start;
+        long lastWrite = System.currentTimeMillis();
+        boolean ended = false;
+        buffer.clear();
+        while (!ended) {
+            long left = end < 0 ? Long.MAX_VALUE : end - position - buffer.position();
+            if (left <= 0) {
+                ended = true;
+            } else {
+                buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + left));
+                int numBytesRead = source.read(buffer);
+                buffer.limit(buffer.capacity());
+                if (numBytesRead < 0) {
+                    ended = true;
+                } else {
+                    throttle.read(numBytesRead);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (ended || buffer.position() >= watermark || now - lastWrite >= MAX_HOLD_MS) {
+                position = write(out, position);
+                lastWrite = now;
+                if (!listener.written(position)) {
+                    break;
+                }
+            }
+        }
+        return position;
+    }
+
+    private long write(FileChannel out, long position) throws IOException {
+        long next = position;
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            next += out.write(buffer, next);
+        }
+        buffer.clear();
+        return next;
+    }
+}
@@ -59,6 +59,34 @@ public final class Download {
         public static final String COLUMN_NAME_DOWNLOADED_BYTES = "downloaded_bytes";
         public static final String COLUMN_NAME_TOTAL_BYTES = "total_bytes";
         public static final String COLUMN_NAME_URL = "url";
+        /**
+         * for a download fetched in segments, the bytes done in each segment
+         * (comma separated), else null
+         */
+        public static final String COLUMN_NAME_SEGMENTS = "segments";
+
+    }
+
+    /**
+     * The download queue joined with the library- each download's columns
+     * (as in {@link Downloads}) with its book's title and librivox id and its
+     * section's title, so the queue can be processed or shown without reading
+     * each book. Changes are notified under {@link Downloads#CONTENT_URI}.
+     */
+    public static final class Queue implements BaseColumns {
+        private Queue() {
+            // prevent instantiation
+        }
+
+        public static final Uri CONTENT_URI = Uri.parse(SCHEME + AUTHORITY + "/queue");
+
+        public static final String CONTENT_TYPE = "vnd.android.cursor.dir/vnd.oakonell.bookdownloadqueue";
 
+        /** null if the book is no longer in the library */
+        public static final String COLUMN_NAME_BOOK_TITLE = "book_title";
+        public static final String COLUMN_NAME_LIBRIVOX_ID = "librivox_id";
+        public static final String COLUMN_NAME_SECTION_TITLE = "section_title";
+        /** the section's file, within its book's directory */
+        public static final String COLUMN_NAME_FILE_NAME = "file_name";
     }
 }
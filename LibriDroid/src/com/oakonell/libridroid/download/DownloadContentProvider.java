@@ -1,12 +1,26 @@
 package com.oakonell.libridroid.download;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.GuardedBy;
+
+import com.oakonell.libridroid.Libridroid;
+import com.oakonell.libridroid.data.BookDatabaseHelper;
 import com.oakonell.libridroid.download.Download.Downloads;
+import com.oakonell.utils.db.ChangeNotifier;
+import com.oakonell.utils.db.StatementCache;
 
 import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
@@ -20,6 +34,7 @@ public class DownloadContentProvider extends ContentProvider {
     private static class UriTypes {
         private static final int DOWNLOADS = 1;
         private static final int DOWNLOAD_ID = 2;
+        private static final int QUEUE = 3;
     };
 
     static {
@@ -28,9 +43,57 @@ public class DownloadContentProvider extends ContentProvider {
                 UriTypes.DOWNLOADS);
         URI_MATCHER.addURI(Download.AUTHORITY, "downloads/#",
                 UriTypes.DOWNLOAD_ID);
+        URI_MATCHER.addURI(Download.AUTHORITY, "queue",
+                UriTypes.QUEUE);
+    }
+
+    // the library database, as attached to the downloads connection
+    private static final String LIBRARY_SCHEMA = "library";
+    private static final String QUEUE_TABLES = Downloads.DOWNLOAD_TABLE_NAME
+            + " LEFT JOIN " + LIBRARY_SCHEMA + "." + Libridroid.Books.BOOK_TABLE_NAME + " AS queue_book ON queue_book."
+            + Libridroid.Books._ID + " = " + Downloads.DOWNLOAD_TABLE_NAME + "." + Downloads.COLUMN_NAME_BOOK_ID
+            + " LEFT JOIN " + LIBRARY_SCHEMA + "." + Libridroid.BookSections.BOOK_SECTION_TABLE_NAME
+            + " AS queue_section ON queue_section." + Libridroid.BookSections.COLUMN_NAME_BOOK_ID + " = "
+            + Downloads.DOWNLOAD_TABLE_NAME + "." + Downloads.COLUMN_NAME_BOOK_ID + " AND queue_section."
+            + Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER + " = " + Downloads.DOWNLOAD_TABLE_NAME + "."
+            + Downloads.COLUMN_NAME_SECTION_NUM;
+    private static final String QUEUE_SORT_ORDER = Downloads.DOWNLOAD_TABLE_NAME + "."
+            + Downloads.COLUMN_NAME_SEQUENCE + " ASC, " + Downloads.DOWNLOAD_TABLE_NAME + "." + Downloads._ID
+            + " ASC";
+    private static final Map<String, String> QUEUE_PROJECTION_MAP = new HashMap<String, String>();
+
+    static {
+        String[] downloadColumns = { Downloads._ID, Downloads.COLUMN_NAME_BOOK_ID,
+                Downloads.COLUMN_NAME_SECTION_NUM, Downloads.COLUMN_NAME_URL, Downloads.COLUMN_NAME_SEQUENCE,
+                Downloads.COLUMN_NAME_DOWNLOADED_BYTES, Downloads.COLUMN_NAME_TOTAL_BYTES,
+                Downloads.COLUMN_NAME_SEGMENTS };
+        for (String each : downloadColumns) {
+            QUEUE_PROJECTION_MAP.put(each, Downloads.DOWNLOAD_TABLE_NAME + "." + each + " AS " + each);
+        }
+        QUEUE_PROJECTION_MAP.put(Download.Queue.COLUMN_NAME_BOOK_TITLE, "queue_book."
+                + Libridroid.Books.COLUMN_NAME_TITLE + " AS " + Download.Queue.COLUMN_NAME_BOOK_TITLE);
+        QUEUE_PROJECTION_MAP.put(Download.Queue.COLUMN_NAME_LIBRIVOX_ID, "queue_book."
+                + Libridroid.Books.COLUMN_NAME_LIBRIVOX_ID + " AS " + Download.Queue.COLUMN_NAME_LIBRIVOX_ID);
+        QUEUE_PROJECTION_MAP.put(Download.Queue.COLUMN_NAME_SECTION_TITLE, "queue_section."
+                + Libridroid.BookSections.COLUMN_NAME_SECTION_TITLE + " AS "
+                + Download.Queue.COLUMN_NAME_SECTION_TITLE);
     }
 
+    // progress is saved every few seconds per download, the queue view
+    // needn't requery for each
+    private static final long NOTIFY_WINDOW_MS = 1000;
+    // a download's progress, whole or in segments
+    private static final StatementCache.Shape[] PROGRESS_UPDATES = {
+            StatementCache.updateByIdShape(Downloads.DOWNLOAD_TABLE_NAME, Downloads.COLUMN_NAME_DOWNLOADED_BYTES,
+                    Downloads.COLUMN_NAME_TOTAL_BYTES),
+            StatementCache.updateByIdShape(Downloads.DOWNLOAD_TABLE_NAME, Downloads.COLUMN_NAME_DOWNLOADED_BYTES,
+                    Downloads.COLUMN_NAME_TOTAL_BYTES, Downloads.COLUMN_NAME_SEGMENTS) };
+
     private DownloadDatabaseHelper databaseHelper;
+    private ChangeNotifier changeNotifier;
+    private StatementCache statements;
+    @GuardedBy("this")
+    private SQLiteDatabase libraryAttachedTo;
 
     @Override
     public boolean onCreate() {
@@ -40,6 +103,8 @@ public class DownloadContentProvider extends ContentProvider {
 
     private void init() {
         databaseHelper = new DownloadDatabaseHelper(getContext(), DownloadDatabaseHelper.DATABASE_NAME, null);
+        changeNotifier = new ChangeNotifier(getContext().getContentResolver(), NOTIFY_WINDOW_MS);
+        statements = new StatementCache(databaseHelper);
     }
 
     /**
@@ -82,12 +147,89 @@ public class DownloadContentProvider extends ContentProvider {
                         sortOrder, qb);
             }
 
+            case UriTypes.QUEUE:
+                return queryQueue(projection, selection, selectionArgs, sortOrder);
+
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
     }
 
+    /**
+     * The queue with its books' and sections' names and its files' names, in
+     * one query. Selection and sort columns shared with the library (eg,
+     * book_id) must be qualified with the downloads table name. The file name
+     * is the last column, so is read by name.
+     */
+    private Cursor queryQueue(String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+        if (!attachLibrary(db)) {
+            // without a library nothing can have been queued
+            String[] columns = projection;
+            if (columns == null) {
+                columns = QUEUE_PROJECTION_MAP.keySet().toArray(new String[QUEUE_PROJECTION_MAP.size() + 1]);
+                columns[columns.length - 1] = Download.Queue.COLUMN_NAME_FILE_NAME;
+            }
+            return new MatrixCursor(columns);
+        }
+
+        SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        qb.setTables(QUEUE_TABLES);
+        qb.setProjectionMap(QUEUE_PROJECTION_MAP);
+        Cursor c = qb.query(db, queriedColumns(projection), selection, selectionArgs, null, null,
+                TextUtils.isEmpty(sortOrder) ? QUEUE_SORT_ORDER : sortOrder);
+
+        // every change to the queue is notified under the downloads uri
+        c.setNotificationUri(getContext().getContentResolver(), Downloads.CONTENT_URI);
+        if (projection == null || Arrays.asList(projection).contains(Download.Queue.COLUMN_NAME_FILE_NAME)) {
+            return new QueueCursor(c);
+        }
+        return c;
+    }
+
+    /**
+     * @return the projection's columns to query, with those the file name is
+     *         made from in place of it
+     */
+    private static String[] queriedColumns(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+        List<String> columns = new ArrayList<String>(Arrays.asList(projection));
+        if (!columns.remove(Download.Queue.COLUMN_NAME_FILE_NAME)) {
+            return projection;
+        }
+        for (String each : new String[] { Downloads.COLUMN_NAME_URL, Downloads.COLUMN_NAME_SECTION_NUM }) {
+            if (!columns.contains(each)) {
+                columns.add(each);
+            }
+        }
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    /**
+     * Attach the library database to the downloads connection, once per
+     * connection. (This is why the downloads database does not use write
+     * ahead logging- Android can't keep an attached database across a pool
+     * of connections.)
+     * 
+     * @return false if there is no library database yet
+     */
+    private synchronized boolean attachLibrary(SQLiteDatabase db) {
+        if (db == libraryAttachedTo) {
+            return true;
+        }
+        File library = getContext().getDatabasePath(BookDatabaseHelper.DATABASE_NAME);
+        if (!library.exists()) {
+            return false;
+        }
+        db.execSQL("ATTACH DATABASE ? AS " + LIBRARY_SCHEMA, new Object[] { library.getAbsolutePath() });
+        libraryAttachedTo = db;
+        return true;
+    }
+
     private Cursor queryDownloadsTable(Uri uri, String[] projection,
             String selection, String[] selectionArgs, String sortOrder,
             SQLiteQueryBuilder qb) {
@@ -146,6 +288,8 @@ public class DownloadContentProvider extends ContentProvider {
                 return Download.Downloads.CONTENT_TYPE;
             case UriTypes.DOWNLOAD_ID:
                 return Download.Downloads.CONTENT_ITEM_TYPE;
+            case UriTypes.QUEUE:
+                return Download.Queue.CONTENT_TYPE;
 
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -193,7 +337,7 @@ public class DownloadContentProvider extends ContentProvider {
         if (rowId > 0) {
             Uri newUri = ContentUris.withAppendedId(
                     Download.Downloads.CONTENT_ID_URI_BASE, rowId);
-            getContext().getContentResolver().notifyChange(newUri, null);
+            changeNotifier.notifyChange(newUri);
             return newUri;
         }
 
@@ -271,7 +415,7 @@ public class DownloadContentProvider extends ContentProvider {
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        changeNotifier.notifyChange(uri);
 
         return count;
     }
@@ -325,6 +469,13 @@ public class DownloadContentProvider extends ContentProvider {
 
             case UriTypes.DOWNLOAD_ID:
                 String noteId = uri.getPathSegments().get(1);
+                StatementCache.Shape shape = where == null ? StatementCache.fitting(values, PROGRESS_UPDATES)
+                        : null;
+                if (shape != null) {
+                    // the download's progress, saved every few seconds
+                    count = statements.updateById(shape, values, Long.parseLong(noteId));
+                    break;
+                }
 
                 finalWhere =
                         Download.Downloads._ID + // The ID column name
@@ -354,7 +505,7 @@ public class DownloadContentProvider extends ContentProvider {
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        getContext().getContentResolver().notifyChange(uri, null);
+        changeNotifier.notifyChange(uri);
 
         return count;
     }
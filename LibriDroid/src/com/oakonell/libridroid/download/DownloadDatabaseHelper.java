@@ -5,9 +5,11 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.provider.BaseColumns;
 
+import com.oakonell.utils.db.SchemaMigrations;
+
 public class DownloadDatabaseHelper extends SQLiteOpenHelper {
     public static final String DATABASE_NAME = "downloads.db";
-    private static final int DATABASE_VERSION = 7;
+    private static final int DATABASE_VERSION = 8;
 
     private static final String DOWNLOAD_QUEUE_TABLE_NAME = Download.Downloads.DOWNLOAD_TABLE_NAME;
 
@@ -18,6 +20,8 @@ public class DownloadDatabaseHelper extends SQLiteOpenHelper {
         private static final String TOTAL_BYTES = Download.Downloads.COLUMN_NAME_TOTAL_BYTES;
         private static final String DOWNLOADED_BYTES = Download.Downloads.COLUMN_NAME_DOWNLOADED_BYTES;
         private static final String SEQUENCE = Download.Downloads.COLUMN_NAME_SEQUENCE;
+        // added v8
+        private static final String SEGMENTS = Download.Downloads.COLUMN_NAME_SEGMENTS;
     }
 
     public DownloadDatabaseHelper(Context context, String name,
@@ -30,7 +34,7 @@ public class DownloadDatabaseHelper extends SQLiteOpenHelper {
         createTables(db);
     }
 
-    private void createTables(SQLiteDatabase sqLiteDatabase) {
+    private static void createTables(SQLiteDatabase sqLiteDatabase) {
         String createTableString = "CREATE TABLE " + DOWNLOAD_QUEUE_TABLE_NAME +
                 " (" +
                 BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
@@ -39,7 +43,8 @@ public class DownloadDatabaseHelper extends SQLiteOpenHelper {
                 DownloadQueueTable.SECTION_NUM + " INTEGER, " +
                 DownloadQueueTable.DOWNLOADED_BYTES + " INTEGER, " +
                 DownloadQueueTable.TOTAL_BYTES + " INTEGER, " +
-                DownloadQueueTable.SEQUENCE + " INTEGER" +
+                DownloadQueueTable.SEQUENCE + " INTEGER, " +
+                DownloadQueueTable.SEGMENTS + " TEXT" +
                 ");";
         sqLiteDatabase.execSQL(createTableString);
 
@@ -47,27 +52,28 @@ public class DownloadDatabaseHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (MIGRATIONS.canMigrate(oldVersion)) {
+            MIGRATIONS.migrate(db, oldVersion, newVersion);
+            return;
+        }
+        // too old to migrate, start again
         db.execSQL("DROP TABLE IF EXISTS " +
                 DOWNLOAD_QUEUE_TABLE_NAME + ";");
 
         createTables(db);
-
-        /*
-         * switch (oldVersion) { case 1: case 2: upgrade1(db); // fall through
-         * in sequential order }
-         */
     }
 
-    // private void upgrade1(SQLiteDatabase db) {
-    // String[] columns = new String[] { WIKI_URL, AUTHOR_WIKI_URL, GENRE,
-    // CATEGORY, LIBRIVOX_URL };
-    // for (String each : columns) {
-    // String createvideoTable = "ALTER TABLE " + BOOK_TABLE_NAME +
-    // " add " +
-    // each + " TEXT" +
-    // ";";
-    // db.execSQL(createvideoTable);
-    // }
-    // }
+    /**
+     * The in place upgrades, keeping the queued downloads. Each step must
+     * leave the schema exactly as createTables would at that version.
+     */
+    static final SchemaMigrations MIGRATIONS = new SchemaMigrations(DATABASE_NAME, 7)
+            .add(8, new SchemaMigrations.Step() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + DOWNLOAD_QUEUE_TABLE_NAME + " ADD COLUMN " +
+                            DownloadQueueTable.SEGMENTS + " TEXT;");
+                }
+            });
 
 }
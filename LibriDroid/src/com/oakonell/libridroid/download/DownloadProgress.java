@@ -0,0 +1,230 @@
+package com.oakonell.libridroid.download;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import net.jcip.annotations.GuardedBy;
+
+/**
+ * The progress of the running downloads, published in process as they go-
+ * the download view, the notification and the player follow it here rather
+ * than from the database (or the file). The download records are only
+ * brought up to date every few seconds, and as downloads start and stop.
+ */
+public final class DownloadProgress {
+    private static final long PUBLISH_MS = DownloadService.DOWNLOAD_UPDATES_MS;
+    // weight of the latest sample in the smoothed rate
+    private static final double RATE_SMOOTHING = 0.3;
+
+    public enum State {
+        STARTED, DOWNLOADING, FINISHED, STOPPED
+    }
+
+    public interface Listener {
+        /**
+         * Called on the downloading thread- keep it short.
+         */
+        void progressed(Event event);
+    }
+
+    public static final class Event {
+        private final long downloadId;
+        private final String bookId;
+        private final long sectionNumber;
+        private final String description;
+        private final long downloaded;
+        private final long totalBytes;
+        private final long bytesPerSecond;
+        private final boolean inOrder;
+        private final State state;
+
+        Event(long downloadId, String bookId, long sectionNumber, String description, long downloaded,
+                long totalBytes, long bytesPerSecond, boolean inOrder, State state) {
+            this.downloadId = downloadId;
+            this.bookId = bookId;
+            this.sectionNumber = sectionNumber;
+            this.description = description;
+            this.downloaded = downloaded;
+            this.totalBytes = totalBytes;
+            this.bytesPerSecond = bytesPerSecond;
+            this.inOrder = inOrder;
+            this.state = state;
+        }
+
+        public long getDownloadId() {
+            return downloadId;
+        }
+
+        public String getBookId() {
+            return bookId;
+        }
+
+        public long getSectionNumber() {
+            return sectionNumber;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        public long getDownloaded() {
+            return downloaded;
+        }
+
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * @return the recent download rate, or 0 if not yet known
+         */
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        /**
+         * @return the seconds left to download, or -1 if not yet known
+         */
+        public long getSecondsLeft() {
+            if (bytesPerSecond <= 0 || totalBytes <= 0) {
+                return -1;
+            }
+            return Math.max(0, totalBytes - downloaded) / bytesPerSecond;
+        }
+
+        /**
+         * @return the bytes at the start of the section's file that can be
+         *         played- none of a section downloaded in segments until it
+         *         is finished
+         */
+        public long getPlayableBytes() {
+            if (inOrder) {
+                return downloaded;
+            }
+            return state == State.FINISHED ? totalBytes : 0;
+        }
+
+        public State getState() {
+            return state;
+        }
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    @GuardedBy("this")
+    private final Map<Long, Event> latest = new LinkedHashMap<Long, Event>();
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the latest progress of each running download, the earliest
+     *         started first
+     */
+    public synchronized List<Event> getRunning() {
+        return new ArrayList<Event>(latest.values());
+    }
+
+    /**
+     * @return the latest progress of the download, or null if it is not
+     *         running
+     */
+    public synchronized Event getLatest(long downloadId) {
+        return latest.get(downloadId);
+    }
+
+    /**
+     * @return the latest progress of the section's download, or null if it is
+     *         not running
+     */
+    public synchronized Event getLatest(String bookId, long sectionNumber) {
+        for (Event each : latest.values()) {
+            if (each.getSectionNumber() == sectionNumber && each.getBookId().equals(bookId)) {
+                return each;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Start publishing a download's progress.
+     *
+     * @param inOrder
+     *            whether the file is written from its start, so can be played
+     *            as it downloads
+     */
+    Tracker track(QueuedDownload download, long downloaded, long totalBytes, boolean inOrder) {
+        Tracker tracker = new Tracker(download, downloaded, inOrder);
+        tracker.publish(downloaded, totalBytes, State.STARTED);
+        return tracker;
+    }
+
+    private void publish(Event event) {
+        synchronized (this) {
+            if (event.getState() == State.FINISHED || event.getState() == State.STOPPED) {
+                latest.remove(event.getDownloadId());
+            } else {
+                latest.put(event.getDownloadId(), event);
+            }
+        }
+        for (Listener each : listeners) {
+            each.progressed(event);
+        }
+    }
+
+    /**
+     * Publishes one download's progress, smoothing its rate. Used from the
+     * download's own thread.
+     */
+    final class Tracker {
+        private final QueuedDownload download;
+        private final boolean inOrder;
+        private long totalBytes;
+        private long bytesPerSecond;
+        private long lastPublished;
+        private long sampleStart;
+        private long sampleDownloaded;
+
+        Tracker(QueuedDownload download, long downloaded, boolean inOrder) {
+            this.download = download;
+            this.inOrder = inOrder;
+            sampleStart = System.currentTimeMillis();
+            sampleDownloaded = downloaded;
+        }
+
+        void update(long downloaded, long total) {
+            long now = System.currentTimeMillis();
+            if (now - lastPublished < PUBLISH_MS) {
+                return;
+            }
+            long elapsed = now - sampleStart;
+            if (elapsed > 0) {
+                long sample = (downloaded - sampleDownloaded) * 1000 / elapsed;
+                bytesPerSecond = bytesPerSecond == 0 ? sample
+                        : (long) (RATE_SMOOTHING * sample + (1 - RATE_SMOOTHING) * bytesPerSecond);
+                sampleStart = now;
+                sampleDownloaded = downloaded;
+            }
+            publish(downloaded, total, State.DOWNLOADING);
+        }
+
+        void finished(long downloaded, boolean complete) {
+            publish(downloaded, totalBytes, complete ? State.FINISHED : State.STOPPED);
+        }
+
+        private void publish(long downloaded, long total, State state) {
+            totalBytes = total;
+            lastPublished = System.currentTimeMillis();
+            DownloadProgress.this.publish(new Event(download.getId(), download.getBookId(),
+                    download.getSectionNumber(), download.describe(), downloaded, total, bytesPerSecond, inOrder,
+                    state));
+        }
+    }
+}
@@ -1,12 +1,22 @@
 package com.oakonell.libridroid.download;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import net.jcip.annotations.GuardedBy;
 import android.app.Notification;
@@ -22,6 +32,7 @@ import android.net.wifi.WifiManager.WifiLock;
 import android.os.AsyncTask;
 import android.os.Binder;
 import android.os.IBinder;
+import android.text.format.DateUtils;
 
 import com.oakonell.libridroid.Libridroid.BookSections;
 import com.oakonell.libridroid.R;
@@ -34,24 +45,45 @@ import com.oakonell.utils.EarlierAndroidCompatibleService;
 import com.oakonell.utils.LogHelper;
 
 public class DownloadService extends EarlierAndroidCompatibleService {
-    private static final int WAIT_FOR_OLD_DOWNLOAD_FINISH_MS = 3000;
-    private static final int FILE_WRITE_BUFFER_SIZE = 1024 * 12;
-    private static final long DOWNLOAD_UPDATES_MS = 500;
+    // how long a stopping task waits for its downloads to stop
+    private static final int WAIT_FOR_DOWNLOADS_STOP_MS = 3000;
+    // a replacing task waits out the old task's wait for its downloads, and
+    // its cleanup after
+    private static final int WAIT_FOR_OLD_DOWNLOAD_FINISH_MS = WAIT_FOR_DOWNLOADS_STOP_MS + 5000;
+    static final long DOWNLOAD_UPDATES_MS = 500;
+    // progress is published as it goes, the download records need only be
+    // near enough to resume from
+    private static final long PROGRESS_CHECKPOINT_MS = 5000;
+    private static final long NOTIFICATION_UPDATES_MS = 1000;
     private static final int MIN_BYTES_BUFERED_FOR_PLAY = 8 * 1024;
+    // a polite limit on the background connections to one server (librivox
+    // sections are nearly all on archive.org)
+    private static final int MAX_CONNECTIONS_PER_HOST = 4;
+    // offered in place of a finished download, to have the queue read again
+    private static final QueuedDownload QUEUE_CHANGED = new QueuedDownload(-1, null, -1, null, 0, 0, null, null,
+            null, null);
 
     // For later android versions
     // @Override
     // public int onStartCommand(Intent intent, int flags, int startId) {
 
     private DownloadInterface downloadInterface;
+    private final DownloadProgress progressBus = new DownloadProgress();
+    // how fast the section wanted for playing plays
+    private volatile long playbackBytesPerSecond = BandwidthScheduler.DEFAULT_PLAYBACK_BYTES_PER_SECOND;
 
     public void setDownloadInterface(DownloadInterface downloadInterface) {
         this.downloadInterface = downloadInterface;
     }
 
+    public DownloadProgress getProgress() {
+        return progressBus;
+    }
+
     @Override
     public void onStart(Intent intent, int startId) {
-        startDownloading();
+        // (started for each queued download- the running downloads carry on)
+        queueChanged();
     }
 
     private synchronized void startDownloading() {
@@ -89,8 +121,12 @@ public class DownloadService extends EarlierAndroidCompatibleService {
 
     private final class DownloadTask extends AsyncTask<Void, Void, Void> {
         private final DownloadTask oldTask;
+        @GuardedBy("this")
         private Notification notification;
         private volatile boolean finished;
+        private final BlockingQueue<QueuedDownload> finishedDownloads = new LinkedBlockingQueue<QueuedDownload>();
+        @GuardedBy("finishedDownloads")
+        private boolean readingQueue = true;
 
         private DownloadTask(DownloadTask oldTask) {
             this.oldTask = oldTask;
@@ -102,8 +138,11 @@ public class DownloadService extends EarlierAndroidCompatibleService {
             if (downloadInterface != null) {
                 downloadInterface.resumed();
             }
-            startDownload(true);
-            finished = true;
+            try {
+                startDownload(true);
+            } finally {
+                finished = true;
+            }
             if (downloadInterface != null) {
                 downloadInterface.paused();
             }
@@ -114,6 +153,22 @@ public class DownloadService extends EarlierAndroidCompatibleService {
             return finished;
         }
 
+        /**
+         * Have the queue read again, eg to start a section wanted for playing
+         * alongside the running downloads.
+         *
+         * @return false if the task has stopped reading the queue
+         */
+        boolean queueChanged() {
+            synchronized (finishedDownloads) {
+                if (!readingQueue) {
+                    return false;
+                }
+                finishedDownloads.add(QUEUE_CHANGED);
+                return true;
+            }
+        }
+
         private void startDownload(final boolean allowEmptyQueue) {
             LogHelper.info("DownloadService", "StartDownload");
             Intent notificationIntent = new Intent(DownloadService.this, DownloadViewActivity.class);
@@ -126,15 +181,35 @@ public class DownloadService extends EarlierAndroidCompatibleService {
             CharSequence contentTitle = getText(R.string.download_service_title);
             CharSequence contentText = getText(R.string.download_view_progress);
 
-            notification = new Notification(icon, tickerText, when);
-            notification.setLatestEventInfo(getApplicationContext(), contentTitle,
+            Notification started = new Notification(icon, tickerText, when);
+            started.setLatestEventInfo(getApplicationContext(), contentTitle,
                     contentText,
                     contentIntent);
-            notification.flags |= Notification.FLAG_ONGOING_EVENT;
+            started.flags |= Notification.FLAG_ONGOING_EVENT;
+            synchronized (this) {
+                notification = started;
+            }
 
-            startForegroundCompat(Notifications.DOWNLOAD_ID, notification);
+            startForegroundCompat(Notifications.DOWNLOAD_ID, started);
 
-            downloadQueuedFiles(allowEmptyQueue);
+            DownloadProgress.Listener notifier = new DownloadProgress.Listener() {
+                private long lastUpdate;
+
+                @Override
+                public void progressed(DownloadProgress.Event event) {
+                    long now = System.currentTimeMillis();
+                    if (now - lastUpdate > NOTIFICATION_UPDATES_MS) {
+                        lastUpdate = now;
+                        updateNotification();
+                    }
+                }
+            };
+            progressBus.addListener(notifier);
+            try {
+                downloadQueuedFiles(allowEmptyQueue);
+            } finally {
+                progressBus.removeListener(notifier);
+            }
         }
 
         private void downloadQueuedFiles(boolean allowEmptyQueue) {
@@ -142,8 +217,20 @@ public class DownloadService extends EarlierAndroidCompatibleService {
                 return;
             }
             LogHelper.info("DownloadService", "downloadQueuedFiles");
-            Cursor downloadsCursor = getContentResolver().query(
-                    Download.Downloads.CONTENT_URI, null, null, null, null);
+            int concurrent = DownloadSettings.getConcurrentDownloads(DownloadService.this);
+            boolean segmented = DownloadSettings.isSegmentedDownloads(DownloadService.this);
+            DownloadSlots slots = new DownloadSlots(concurrent, MAX_CONNECTIONS_PER_HOST);
+            BandwidthScheduler bandwidth = new BandwidthScheduler(
+                    DownloadSettings.getBandwidthCap(DownloadService.this));
+            // the slots bound the threads- a section no longer wanted for
+            // playing carries on alongside the background slots. Not a
+            // TaskScheduler lane- a download holds its thread for minutes,
+            // and would hold up the lane's short tasks (and a bounded lane
+            // could turn a download away after its slot was taken); the pool
+            // lives only as long as the task, and is shut down with it
+            ExecutorService workers = Executors.newCachedThreadPool();
+            // not tried again until the service is next started
+            Set<Long> failed = Collections.synchronizedSet(new HashSet<Long>());
             WifiLock mWifiLock = null;
             try {
                 // Create the Wifi lock (this does not acquire the lock,
@@ -152,67 +239,54 @@ public class DownloadService extends EarlierAndroidCompatibleService {
                 mWifiLock = ((WifiManager) getSystemService(Context.WIFI_SERVICE))
                         .createWifiLock(WifiManager.WIFI_MODE_FULL, "downloadLock");
                 mWifiLock.acquire();
-                if (downloadsCursor.getCount() == 0) {
+                List<QueuedDownload> queue = readQueue(failed, slots, bandwidth);
+                if (queue.isEmpty()) {
                     LogHelper.info("DownloadService", "no downloadQueuedFiles?!");
                     if (!allowEmptyQueue) {
                         throw new RuntimeException("There are no queued files");
                     }
                 }
-                while (!isCancelled() && downloadsCursor.getCount() > 0) {
-                    if (!downloadsCursor.moveToFirst()) {
-                        LogHelper.warn("DownloadService",
-                                "There was no first record in cursor, despite size >0");
-                        break;
-                    }
-
-                    long downloadId = downloadsCursor.getLong(downloadsCursor
-                            .getColumnIndex(Download.Downloads._ID));
-                    String url = downloadsCursor.getString(downloadsCursor
-                            .getColumnIndex(Download.Downloads.COLUMN_NAME_URL));
-                    long bytes = downloadsCursor
-                            .getLong(downloadsCursor
-                                    .getColumnIndex(Download.Downloads.COLUMN_NAME_TOTAL_BYTES));
-                    long bookId = downloadsCursor
-                            .getLong(downloadsCursor
-                                    .getColumnIndex(Download.Downloads.COLUMN_NAME_BOOK_ID));
-                    long sectionNumber = downloadsCursor
-                            .getLong(downloadsCursor
-                                    .getColumnIndex(Download.Downloads.COLUMN_NAME_SECTION_NUM));
-                    downloadsCursor.deactivate();
-
-                    Book book = Book.read(getContentResolver(), bookId);
-
-                    try {
-                        if (notification != null) {
-                            notification.setLatestEventInfo(
-                                    getApplicationContext(),
-                                    getText(R.string.download_service_title),
-                                    book.getTitle()
-                                            + " " + sectionNumber,
-                                    notification.contentIntent);
-                            NotificationManager mNM = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-                            mNM.notify(Notifications.DOWNLOAD_ID, notification);
+                while (!isCancelled()) {
+                    for (Iterator<QueuedDownload> iter = queue.iterator(); iter.hasNext();) {
+                        QueuedDownload each = iter.next();
+                        int segments = segmentsFor(each, segmented);
+                        if (slots.tryStart(each, segments)) {
+                            iter.remove();
+                            workers.execute(new SectionDownload(each, segments, bandwidth, failed));
                         }
-                        downloadFile(downloadId, bookId, sectionNumber, url, bytes,
-                                book.getTitle(), book.getLibrivoxId());
-                        if (isCancelled()) {
-                            break;
+                    }
+                    if (slots.isIdle()) {
+                        // done, unless more was queued meanwhile
+                        synchronized (finishedDownloads) {
+                            queue = readQueue(failed, slots, bandwidth);
+                            if (queue.isEmpty()) {
+                                readingQueue = false;
+                                break;
+                            }
                         }
-                        getContentResolver().delete(
-                                Uri.withAppendedPath(
-                                        Download.Downloads.CONTENT_ID_URI_BASE,
-                                        Long.toString(downloadId)), null, null);
-                    } catch (Exception e) {
-                        // improve this error handling later
-                        throw new RuntimeException("Error downloding file", e);
+                        continue;
                     }
+                    updateNotification();
 
-                    if (!downloadsCursor.requery()) {
+                    try {
+                        QueuedDownload done = finishedDownloads.take();
+                        if (done == QUEUE_CHANGED) {
+                            queue = readQueue(failed, slots, bandwidth);
+                        } else {
+                            slots.finished(done);
+                        }
+                    } catch (InterruptedException e) {
+                        // cancelled
                         break;
                     }
                 }
 
             } finally {
+                synchronized (finishedDownloads) {
+                    readingQueue = false;
+                }
+                bandwidth.close();
+                stopWorkers(workers);
                 if (mWifiLock != null) {
                     mWifiLock.release();
                 }
@@ -228,72 +302,337 @@ public class DownloadService extends EarlierAndroidCompatibleService {
 
         }
 
-        private void downloadFile(long downloadId, long bookId,
-                long sectionNumber, String urlString,
-                long totalBytes, String title, String librivoxId)
+        /**
+         * Read the queue, and give the section wanted for playing (which may
+         * already be downloading) its slot and share of the bandwidth.
+         *
+         * @return the queued downloads not yet started, in order, except those
+         *         that failed (a download of a book no longer in the library
+         *         is deleted)
+         */
+        private List<QueuedDownload> readQueue(Set<Long> failed, DownloadSlots slots, BandwidthScheduler bandwidth) {
+            List<QueuedDownload> queue = new ArrayList<QueuedDownload>();
+            long priorityId = -1;
+            // the queue carries each book's title and librivox id, so no book
+            // need be read
+            Cursor downloadsCursor = getContentResolver().query(
+                    Download.Queue.CONTENT_URI, null, null, null, null);
+            try {
+                while (downloadsCursor.moveToNext()) {
+                    QueuedDownload each = QueuedDownload.fromCursor(downloadsCursor);
+                    if (each.getLibrivoxId() == null) {
+                        // its book was removed from the library- there is
+                        // nowhere to put the file
+                        LogHelper.info("DownloadService", "Dropping download " + each.getId()
+                                + " of a removed book " + each.getBookId());
+                        getContentResolver().delete(each.getUri(), null, null);
+                        continue;
+                    }
+                    if (each.isPriority()) {
+                        priorityId = each.getId();
+                    }
+                    if (!failed.contains(each.getId()) && !slots.isActive(each.getId())) {
+                        queue.add(each);
+                    }
+                }
+            } finally {
+                downloadsCursor.close();
+            }
+            slots.priorityChanged(priorityId);
+            bandwidth.setPriority(priorityId, playbackBytesPerSecond);
+            return queue;
+        }
+
+        /**
+         * @return how many segments to fetch the section in at once- a
+         *         section started in segments carries on in them, but a
+         *         section wanted for playing is fetched from its start, so it
+         *         can play while it downloads
+         */
+        private int segmentsFor(QueuedDownload download, boolean segmented) {
+            long[] progress = SegmentedDownload.parseProgress(download.getSegments());
+            if (progress != null) {
+                return progress.length;
+            }
+            if (!segmented || download.isPriority()
+                    || download.getTotalBytes() < SegmentedDownload.MIN_SEGMENTED_BYTES) {
+                return 1;
+            }
+            // nor is a partly downloaded file split up
+            File file = download.getFile(false);
+            if (file.length() > 0) {
+                return 1;
+            }
+            return SegmentedDownload.SEGMENTS;
+        }
+
+        /**
+         * Show the progress of the earliest started download, and how many
+         * others are running.
+         */
+        private synchronized void updateNotification() {
+            List<DownloadProgress.Event> running = progressBus.getRunning();
+            if (notification == null || running.isEmpty()) {
+                return;
+            }
+            DownloadProgress.Event first = running.get(0);
+            String text = first.getDescription();
+            if (first.getTotalBytes() > 0) {
+                text = text + " " + (first.getDownloaded() * 100 / first.getTotalBytes()) + "%";
+            }
+            long secondsLeft = first.getSecondsLeft();
+            if (secondsLeft >= 0) {
+                text = text + " " + getString(R.string.download_time_left, DateUtils.formatElapsedTime(secondsLeft));
+            }
+            if (running.size() > 1) {
+                text = text + " (+" + (running.size() - 1) + ")";
+            }
+            notification.setLatestEventInfo(
+                    getApplicationContext(),
+                    getText(R.string.download_service_title),
+                    text,
+                    notification.contentIntent);
+            NotificationManager mNM = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+            mNM.notify(Notifications.DOWNLOAD_ID, notification);
+        }
+
+        /**
+         * Wait (a while) for the downloads to stop- once cancelled they stop
+         * at their next read. A task replacing this one waits for it to
+         * finish, and must not start on files still being written.
+         */
+        private void stopWorkers(ExecutorService workers) {
+            workers.shutdown();
+            // cancelling interrupts this thread
+            boolean interrupted = Thread.interrupted();
+            try {
+                if (!workers.awaitTermination(WAIT_FOR_DOWNLOADS_STOP_MS, TimeUnit.MILLISECONDS)) {
+                    LogHelper.warn("DownloadService", "Downloads did not stop in time");
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Downloads one section, removing it from the queue when complete,
+         * and reports back when it is done either way.
+         */
+        private final class SectionDownload implements Runnable {
+            private final QueuedDownload download;
+            private final int segments;
+            private final BandwidthScheduler bandwidth;
+            private final Set<Long> failed;
+
+            SectionDownload(QueuedDownload download, int segments, BandwidthScheduler bandwidth,
+                    Set<Long> failed) {
+                this.download = download;
+                this.segments = segments;
+                this.bandwidth = bandwidth;
+                this.failed = failed;
+            }
+
+            @Override
+            public void run() {
+                boolean complete = false;
+                bandwidth.started(download.getId());
+                try {
+                    ChannelTransfer.Throttle throttle = bandwidth.throttleFor(download.getId());
+                    if (segments > 1) {
+                        complete = downloadSegmented(download, throttle);
+                    } else {
+                        complete = downloadFile(download, throttle);
+                    }
+                    if (complete) {
+                        getContentResolver().delete(download.getUri(), null, null);
+                    }
+                } catch (Exception e) {
+                    LogHelper.error("DownloadService", "Error downloading " + download.describe(), e);
+                } finally {
+                    bandwidth.finished(download.getId());
+                    if (!complete && !isCancelled()) {
+                        failed.add(download.getId());
+                    }
+                    finishedDownloads.add(download);
+                }
+            }
+        }
+
+        /**
+         * Fetch the section in segments, falling back to one piece if the
+         * server won't serve it in ranges.
+         *
+         * @return true if the whole file was downloaded, false if it could not
+         *         be started or was cancelled
+         */
+        private boolean downloadSegmented(QueuedDownload download, ChannelTransfer.Throttle throttle)
                 throws IOException {
+            File file = download.getFile(true);
+            SegmentedDownload segmented = new SegmentedDownload(download.getUrl(), file, download.getTotalBytes(),
+                    download.getSegments(), throttle);
+            SegmentsProgress progress = new SegmentsProgress(download);
+            boolean complete = false;
+            try {
+                complete = segmented.run(progress);
+                return complete;
+            } catch (SegmentedDownload.NotSegmentableException e) {
+                LogHelper.warn("DownloadService", e.getMessage() + "- downloading it in one piece");
+                File partFile = SegmentedDownload.partFileFor(file);
+                if (partFile.exists() && !partFile.delete()) {
+                    LogHelper.warn("DownloadService", "Could not delete " + partFile.getAbsolutePath());
+                }
+                updateProgress(download.getId(), 0, download.getTotalBytes(), null);
+                progress.finished(false);
+                return downloadFile(download, throttle);
+            } finally {
+                progress.finished(complete);
+            }
+        }
 
-            long timeOfLastUpdate = System.currentTimeMillis();
-            URL url = new URL(urlString);
+        /**
+         * Publishes a segmented download's progress, and saves it every so
+         * often.
+         */
+        private final class SegmentsProgress implements SegmentedDownload.Progress {
+            private final QueuedDownload download;
+            private DownloadProgress.Tracker tracker;
+            private long downloaded;
+            private long timeOfLastCheckpoint;
+
+            SegmentsProgress(QueuedDownload download) {
+                this.download = download;
+            }
 
-            File file = FileHelper.getFile(getContentResolver(), bookId, sectionNumber, true, title,
-                    librivoxId);
+            @Override
+            public boolean isCancelled() {
+                return DownloadTask.this.isCancelled();
+            }
+
+            @Override
+            public void update(long bytes, String segments) {
+                // published on every update, saved only every so often
+                downloaded = bytes;
+                if (tracker == null || System.currentTimeMillis() - timeOfLastCheckpoint > PROGRESS_CHECKPOINT_MS) {
+                    checkpoint(bytes, segments);
+                }
+                tracker.update(downloaded, download.getTotalBytes());
+            }
+
+            @Override
+            public void checkpoint(long bytes, String segments) {
+                downloaded = bytes;
+                if (tracker == null) {
+                    tracker = progressBus.track(download, downloaded, download.getTotalBytes(), false);
+                }
+                updateProgress(download.getId(), downloaded, download.getTotalBytes(), segments);
+                timeOfLastCheckpoint = System.currentTimeMillis();
+            }
+
+            void finished(boolean complete) {
+                if (tracker != null) {
+                    tracker.finished(downloaded, complete);
+                    tracker = null;
+                }
+            }
+        }
+
+        /**
+         * @return true if the whole file was downloaded, false if it could not
+         *         be started or was cancelled
+         */
+        private boolean downloadFile(QueuedDownload download, ChannelTransfer.Throttle throttle)
+                throws IOException {
+            long downloadId = download.getId();
+            URL url = new URL(download.getUrl());
+
+            File file = download.getFile(true);
             LogHelper.info("DownloadService", "Download file " + file.getAbsolutePath());
 
             URLConnectionPartialDownloadInfo urlConnectionInfo;
             try {
                 urlConnectionInfo = getURLConnectionFOrPartialDownload(
-                        url, file, totalBytes, downloadId);
+                        url, file, download.getTotalBytes(), downloadId);
             } catch (Exception e) {
                 // TODO replace this with better error handling
                 LogHelper.error("DownloadService",
                         "Error getting URL connection for file " + file.getAbsolutePath(), e);
-                return;
+                return false;
             }
             HttpURLConnection urlConnection = urlConnectionInfo.urlConnection;
             try {
-                totalBytes = urlConnectionInfo.totalBytes;
-                long downloaded = urlConnectionInfo.downloaded;
-
-                BufferedInputStream in = new
-                        BufferedInputStream(urlConnection.getInputStream(),
-                                FILE_WRITE_BUFFER_SIZE);
-                FileOutputStream fos = new FileOutputStream(file, (downloaded != 0));
-                BufferedOutputStream bout = new BufferedOutputStream(fos,
-                        FILE_WRITE_BUFFER_SIZE);
+                InputStream in = urlConnection.getInputStream();
                 try {
-                    byte[] data = new byte[FILE_WRITE_BUFFER_SIZE];
-                    int numBytesRead = 0;
-                    while ((numBytesRead = in.read(data, 0, FILE_WRITE_BUFFER_SIZE)) >= 0) {
-                        bout.write(data, 0, numBytesRead);
-                        bout.flush();
-                        downloaded += numBytesRead;
-                        long currentTime = System.currentTimeMillis();
-                        if (currentTime - timeOfLastUpdate > DOWNLOAD_UPDATES_MS) {
-                            updateProgress(downloadId, downloaded, totalBytes);
-                            timeOfLastUpdate = currentTime;
-                            LogHelper.info("DownloadService", "Downloaded " + downloaded + "/" + totalBytes
-                                    + " of " + file.getAbsolutePath());
-                        }
-                        Thread.yield();
-                        if (isCancelled()) {
-                            break;
+                    RandomAccessFile out = new RandomAccessFile(file, "rw");
+                    try {
+                        // only published once the response and the file are
+                        // open, so a refused request (or a file that can't be
+                        // written) leaves no running download behind
+                        DownloadProgress.Tracker tracker = progressBus.track(download,
+                                urlConnectionInfo.downloaded, urlConnectionInfo.totalBytes, true);
+                        FileProgress progress = new FileProgress(downloadId, urlConnectionInfo.totalBytes, file,
+                                urlConnectionInfo.downloaded, tracker);
+                        boolean complete = false;
+                        try {
+                            // a restarted download replaces what was there
+                            out.setLength(progress.downloaded);
+                            new ChannelTransfer(throttle).transfer(in, out.getChannel(), progress.downloaded, -1,
+                                    progress);
+                            complete = !isCancelled();
+                            return complete;
+                        } finally {
+                            updateProgress(downloadId, progress.downloaded, progress.totalBytes);
+                            tracker.finished(progress.downloaded, complete);
                         }
+                    } finally {
+                        out.close();
                     }
                 } finally {
-                    updateProgress(downloadId, downloaded, totalBytes);
-                    if (bout != null) {
-                        bout.close();
-                    }
-                    if (in != null) {
-                        in.close();
-                    }
+                    in.close();
                 }
             } finally {
                 urlConnection.disconnect();
                 LogHelper.info("DownloadService", "Download file");
             }
         }
+
+        /**
+         * Publishes a download's progress as it is written, and saves it
+         * every so often.
+         */
+        private final class FileProgress implements ChannelTransfer.Listener {
+            private final long downloadId;
+            private final long totalBytes;
+            private final File file;
+            private final DownloadProgress.Tracker tracker;
+            private long downloaded;
+            private long timeOfLastUpdate = System.currentTimeMillis();
+
+            FileProgress(long downloadId, long totalBytes, File file, long downloaded,
+                    DownloadProgress.Tracker tracker) {
+                this.downloadId = downloadId;
+                this.totalBytes = totalBytes;
+                this.file = file;
+                this.downloaded = downloaded;
+                this.tracker = tracker;
+            }
+
+            @Override
+            public boolean written(long position) {
+                downloaded = position;
+                tracker.update(downloaded, totalBytes);
+                long currentTime = System.currentTimeMillis();
+                if (currentTime - timeOfLastUpdate > PROGRESS_CHECKPOINT_MS) {
+                    updateProgress(downloadId, downloaded, totalBytes);
+                    timeOfLastUpdate = currentTime;
+                    LogHelper.info("DownloadService", "Downloaded " + downloaded + "/" + totalBytes
+                            + " of " + file.getAbsolutePath());
+                }
+                return !isCancelled();
+            }
+        }
     }
 
     private static class URLConnectionPartialDownloadInfo {
@@ -417,6 +756,18 @@ public class DownloadService extends EarlierAndroidCompatibleService {
                         Long.toString(downloadId)), values, null, null);
     }
 
+    private void updateProgress(long downloadId, long downloadedSize,
+            long totalSize, String segments) {
+        ContentValues values = new ContentValues();
+        values.put(Download.Downloads.COLUMN_NAME_DOWNLOADED_BYTES,
+                downloadedSize);
+        values.put(Download.Downloads.COLUMN_NAME_TOTAL_BYTES, totalSize);
+        values.put(Download.Downloads.COLUMN_NAME_SEGMENTS, segments);
+        getContentResolver().update(
+                Uri.withAppendedPath(Download.Downloads.CONTENT_ID_URI_BASE,
+                        Long.toString(downloadId)), values, null, null);
+    }
+
     public class LocalBinder extends Binder {
         public DownloadService getService() {
             return DownloadService.this;
@@ -445,8 +796,19 @@ public class DownloadService extends EarlierAndroidCompatibleService {
         return downloadTask != null && !downloadTask.isCancelled();
     }
 
+    /**
+     * Have the running downloads pick up the changed queue without
+     * restarting, or start downloading if they have stopped.
+     */
+    private synchronized void queueChanged() {
+        if (downloadTask != null && !downloadTask.isCancelled() && downloadTask.queueChanged()) {
+            return;
+        }
+        startDownloading();
+    }
+
     public void startPriorityDownload(final BookSection currentSection) {
-        libriPause();
+        playbackBytesPerSecond = playbackRateOf(currentSection);
         AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
@@ -502,7 +864,7 @@ public class DownloadService extends EarlierAndroidCompatibleService {
 
             @Override
             protected void onPostExecute(Void result) {
-                startDownloading();
+                queueChanged();
             }
 
         };
@@ -510,8 +872,21 @@ public class DownloadService extends EarlierAndroidCompatibleService {
 
     }
 
+    private static long playbackRateOf(BookSection section) {
+        int seconds;
+        try {
+            seconds = section.getDuration().getTotalSeconds();
+        } catch (IllegalArgumentException e) {
+            seconds = 0;
+        }
+        long size = section.getSize();
+        if (seconds <= 0 || size <= 0) {
+            return BandwidthScheduler.DEFAULT_PLAYBACK_BYTES_PER_SECOND;
+        }
+        return size / seconds;
+    }
+
     public void stopPriorityDownload(final BookSection currentSection) {
-        libriPause();
         AsyncTask<Void, Void, Void> task = new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
@@ -530,16 +905,35 @@ public class DownloadService extends EarlierAndroidCompatibleService {
 
             @Override
             protected void onPostExecute(Void result) {
-                // TODO only restart download if was originally downloading
+                // TODO only start downloading if was originally downloading
                 // before any "priority" downloads
-                startDownloading();
+                queueChanged();
             }
 
         };
         task.execute((Void) null);
     }
 
+    /**
+     * @return the bytes at the start of the section's file that can be
+     *         played, as published by its running download, or -1 if it is not
+     *         downloading
+     */
+    public long getPlayableBytes(BookSection section) {
+        DownloadProgress.Event event = progressBus.getLatest(section.getBookId(), section.getSectionNumber());
+        if (event == null) {
+            return -1;
+        }
+        return event.getPlayableBytes();
+    }
+
     public boolean canStartPlayingPriorityDownload(BookSection currentSection, float positionFraction) {
+        long wanted = (long) (MIN_BYTES_BUFERED_FOR_PLAY + positionFraction * currentSection.getSize());
+        long playable = getPlayableBytes(currentSection);
+        if (playable >= 0) {
+            return playable > wanted;
+        }
+        // not downloading, so as much as is in the file
         Book book = currentSection.getBook(getContentResolver());
         File file = FileHelper.getFile(getContentResolver(), Long.parseLong(currentSection.getBookId()),
                 currentSection.getSectionNumber(), false,
@@ -550,7 +944,7 @@ public class DownloadService extends EarlierAndroidCompatibleService {
         } else {
             LogHelper.info("DownloadService", "file " + file.getAbsolutePath() + " doesn't exist");
         }
-        return file.exists() && fileLength > MIN_BYTES_BUFERED_FOR_PLAY + positionFraction * currentSection.getSize();
+        return file.exists() && fileLength > wanted;
     }
 
     public interface DownloadInterface {
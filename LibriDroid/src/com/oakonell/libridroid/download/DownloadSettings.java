@@ -0,0 +1,62 @@
+package com.oakonell.libridroid.download;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.oakonell.libridroid.R;
+
+/**
+ * The user's download preferences.
+ */
+final class DownloadSettings {
+    static final int DEFAULT_CONCURRENT_DOWNLOADS = 2;
+    private static final int MAX_CONCURRENT_DOWNLOADS = 4;
+    private static final int BYTES_IN_KB = 1024;
+
+    private DownloadSettings() {
+        // prevent instantiation
+    }
+
+    /**
+     * @return how many sections may download at once in the background (a
+     *         section wanted for playing may download alongside them)
+     */
+    static int getConcurrentDownloads(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String value = preferences.getString(context.getString(R.string.pref_concurrent_downloads_key),
+                Integer.toString(DEFAULT_CONCURRENT_DOWNLOADS));
+        int concurrent;
+        try {
+            concurrent = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            concurrent = DEFAULT_CONCURRENT_DOWNLOADS;
+        }
+        return Math.max(1, Math.min(MAX_CONCURRENT_DOWNLOADS, concurrent));
+    }
+
+    /**
+     * @return the bytes per second all the downloads may use together, or 0
+     *         for no limit
+     */
+    static long getBandwidthCap(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String value = preferences.getString(context.getString(R.string.pref_download_bandwidth_cap_key), "0");
+        long kilobytes;
+        try {
+            kilobytes = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            kilobytes = 0;
+        }
+        return Math.max(0, kilobytes) * BYTES_IN_KB;
+    }
+
+    /**
+     * @return whether large sections are fetched over several connections at
+     *         once
+     */
+    static boolean isSegmentedDownloads(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        return preferences.getBoolean(context.getString(R.string.pref_segmented_downloads_key), false);
+    }
+}
@@ -0,0 +1,121 @@
+package com.oakonell.libridroid.download;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which queued sections may download at once. Background sections
+ * share a configured number of slots, and a cap on the connections to any one
+ * host (a section downloaded in segments uses a connection per segment); a
+ * section wanted for playing has a slot of its own, outside both limits, so it
+ * never waits behind background downloads.
+ *
+ * Only used from the thread scheduling the downloads.
+ */
+final class DownloadSlots {
+    private final int maxConcurrent;
+    private final int maxPerHost;
+
+    private final Map<Long, QueuedDownload> active = new LinkedHashMap<Long, QueuedDownload>();
+    private final Map<Long, Integer> activeConnections = new HashMap<Long, Integer>();
+    private final Map<String, Integer> backgroundPerHost = new HashMap<String, Integer>();
+    private int background;
+    private QueuedDownload priority;
+
+    DownloadSlots(int maxConcurrent, int maxPerHost) {
+        this.maxConcurrent = maxConcurrent;
+        this.maxPerHost = maxPerHost;
+    }
+
+    /**
+     * @param connections
+     *            how many connections the download opens to its host
+     * @return true if the download was given a slot, and should be started
+     */
+    boolean tryStart(QueuedDownload download, int connections) {
+        if (active.containsKey(download.getId())) {
+            return false;
+        }
+        if (download.isPriority()) {
+            if (priority != null) {
+                return false;
+            }
+            priority = download;
+            activeConnections.put(download.getId(), connections);
+        } else {
+            String host = download.getHost();
+            int hostCount = connectionsTo(host);
+            // a download wanting more connections than the cap still starts
+            // on an otherwise idle host
+            if (background >= maxConcurrent || (hostCount > 0 && hostCount + connections > maxPerHost)) {
+                return false;
+            }
+            background++;
+            backgroundPerHost.put(host, hostCount + connections);
+            activeConnections.put(download.getId(), connections);
+        }
+        active.put(download.getId(), download);
+        return true;
+    }
+
+    void finished(QueuedDownload download) {
+        if (active.remove(download.getId()) == null) {
+            return;
+        }
+        int connections = activeConnections.remove(download.getId());
+        if (priority != null && priority.getId() == download.getId()) {
+            priority = null;
+            return;
+        }
+        background--;
+        String host = download.getHost();
+        int hostCount = connectionsTo(host) - connections;
+        if (hostCount > 0) {
+            backgroundPerHost.put(host, hostCount);
+        } else {
+            backgroundPerHost.remove(host);
+        }
+    }
+
+    /**
+     * A section no longer wanted for playing carries on as a background
+     * download (even over the limits), freeing the slot for the section that
+     * now is.
+     *
+     * @param priorityId
+     *            the download now wanted for playing, or -1 if none is
+     */
+    void priorityChanged(long priorityId) {
+        if (priority == null || priority.getId() == priorityId) {
+            return;
+        }
+        QueuedDownload demoted = priority;
+        priority = null;
+        background++;
+        String host = demoted.getHost();
+        backgroundPerHost.put(host, connectionsTo(host) + activeConnections.get(demoted.getId()));
+    }
+
+    boolean isActive(long downloadId) {
+        return active.containsKey(downloadId);
+    }
+
+    boolean isIdle() {
+        return active.isEmpty();
+    }
+
+    /**
+     * @return the active downloads, the earliest started first
+     */
+    List<QueuedDownload> getActive() {
+        return new ArrayList<QueuedDownload>(active.values());
+    }
+
+    private int connectionsTo(String host) {
+        Integer count = backgroundPerHost.get(host);
+        return count == null ? 0 : count;
+    }
+}
@@ -9,6 +9,7 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.text.format.DateUtils;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Menu;
@@ -26,7 +27,6 @@ import android.widget.Toast;
 import com.oakonell.libridroid.R;
 import com.oakonell.libridroid.download.Download.Downloads;
 import com.oakonell.libridroid.download.DownloadService.DownloadInterface;
-import com.oakonell.libridroid.impl.Book;
 import com.oakonell.libridroid.impl.MenuHelper;
 import com.oakonell.utils.ByteSizeHelper;
 import com.oakonell.utils.LogHelper;
@@ -36,6 +36,27 @@ public class DownloadViewActivity extends Activity {
 
     private DownloadService mBoundService;
     private boolean mIsBound = false;
+    private ListView downloadList;
+
+    // shows the running downloads' progress as it is published, between the
+    // (less frequent) updates of the queue
+    private final DownloadProgress.Listener progressListener = new DownloadProgress.Listener() {
+        @Override
+        public void progressed(final DownloadProgress.Event event) {
+            if (event.getState() != DownloadProgress.State.DOWNLOADING) {
+                return;
+            }
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    View row = downloadList.findViewWithTag(event.getDownloadId());
+                    if (row != null) {
+                        showProgress(row, event.getDownloaded(), event.getTotalBytes(), event);
+                    }
+                }
+            });
+        }
+    };
 
     /** Called when the activity is first created. */
     @Override
@@ -75,35 +96,35 @@ public class DownloadViewActivity extends Activity {
             }
         });
 
-        final ListView searchList = (ListView) findViewById(R.id.download_list);
-        registerForContextMenu(searchList);
+        downloadList = (ListView) findViewById(R.id.download_list);
+        registerForContextMenu(downloadList);
 
         final Cursor downloadsCursor =
-                managedQuery(Download.Downloads.CONTENT_URI, null, null, null,
+                managedQuery(Download.Queue.CONTENT_URI, null, null, null,
                         null);
 
         mAdapter = new ResourceCursorAdapter(this, R.layout.download_list_item,
                 downloadsCursor) {
             @Override
             public void bindView(View view, Context context, Cursor cursor) {
-                int downloadedBytes = cursor
-                        .getInt(cursor
+                long downloadId = cursor.getLong(cursor.getColumnIndex(Download.Downloads._ID));
+                view.setTag(downloadId);
+                long downloadedBytes = cursor
+                        .getLong(cursor
                                 .getColumnIndex(Download.Downloads.COLUMN_NAME_DOWNLOADED_BYTES));
-                int totalBytes = cursor
-                        .getInt(cursor
+                long totalBytes = cursor
+                        .getLong(cursor
                                 .getColumnIndex(Download.Downloads.COLUMN_NAME_TOTAL_BYTES));
 
-                long bookId = cursor
-                        .getLong(cursor
-                                .getColumnIndex(Download.Downloads.COLUMN_NAME_BOOK_ID));
                 long sectionNumber = cursor
                         .getLong(cursor
                                 .getColumnIndex(Download.Downloads.COLUMN_NAME_SECTION_NUM));
 
-                Book book = Book.read(getContentResolver(), bookId);
+                String title = cursor.getString(cursor
+                        .getColumnIndex(Download.Queue.COLUMN_NAME_BOOK_TITLE));
                 TextView titleView = (TextView) view.findViewById(R.id.title);
-                if (book != null) {
-                    titleView.setText(book.getTitle());
+                if (title != null) {
+                    titleView.setText(title);
                 } else {
                     titleView.setText("???");
                 }
@@ -111,19 +132,48 @@ public class DownloadViewActivity extends Activity {
                 TextView sectionView = (TextView) view.findViewById(R.id.section);
                 sectionView.setText(Long.toString(sectionNumber));
 
-                ProgressBar progressView = (ProgressBar) view.findViewById(R.id.downloaded_progress);
-                progressView.setMax(totalBytes);
-                progressView.setProgress(downloadedBytes);
-
-                TextView downloadedView = (TextView) view.findViewById(R.id.downloaded_bytes);
-                downloadedView.setText(ByteSizeHelper.getDisplayable(downloadedBytes));
-
-                TextView totalView = (TextView) view.findViewById(R.id.total_bytes);
-                totalView.setText(ByteSizeHelper.getDisplayable(totalBytes));
+                // the saved progress lags a running download's
+                DownloadProgress.Event running = null;
+                if (mBoundService != null) {
+                    running = mBoundService.getProgress().getLatest(downloadId);
+                }
+                if (running != null) {
+                    downloadedBytes = running.getDownloaded();
+                    totalBytes = running.getTotalBytes();
+                }
+                showProgress(view, downloadedBytes, totalBytes, running);
             }
         };
 
-        searchList.setAdapter(mAdapter);
+        downloadList.setAdapter(mAdapter);
+    }
+
+    /**
+     * @param running
+     *            the download's latest published progress, or null if it is
+     *            not running
+     */
+    private void showProgress(View view, long downloadedBytes, long totalBytes, DownloadProgress.Event running) {
+        // a progress bar's range is an int
+        ProgressBar progressView = (ProgressBar) view.findViewById(R.id.downloaded_progress);
+        progressView.setMax((int) (totalBytes / 1024));
+        progressView.setProgress((int) (downloadedBytes / 1024));
+
+        TextView downloadedView = (TextView) view.findViewById(R.id.downloaded_bytes);
+        downloadedView.setText(ByteSizeHelper.getDisplayable(downloadedBytes));
+
+        TextView totalView = (TextView) view.findViewById(R.id.total_bytes);
+        totalView.setText(ByteSizeHelper.getDisplayable(totalBytes));
+
+        TextView rateView = (TextView) view.findViewById(R.id.download_rate);
+        long secondsLeft = running == null ? -1 : running.getSecondsLeft();
+        if (secondsLeft >= 0) {
+            rateView.setText(getString(R.string.download_rate,
+                    ByteSizeHelper.getDisplayable(running.getBytesPerSecond()),
+                    DateUtils.formatElapsedTime(secondsLeft)));
+        } else {
+            rateView.setText("");
+        }
     }
 
     private void updatePauseButton(final Button pauseButton, final boolean isRunning) {
@@ -165,6 +215,7 @@ public class DownloadViewActivity extends Activity {
             // service that we know is running in our own process, we can
             // cast its IBinder to a concrete class and directly access it.
             mBoundService = ((DownloadService.LocalBinder) service).getService();
+            mBoundService.getProgress().addListener(progressListener);
             final Button pauseButton = (Button) findViewById(R.id.pause);
             updatePauseButton(pauseButton, true);
             mBoundService.setDownloadInterface(new DownloadInterface() {
@@ -188,6 +239,7 @@ public class DownloadViewActivity extends Activity {
             // Because it is running in our same process, we should never
             // see this happen.
             mBoundService.setDownloadInterface(null);
+            mBoundService.getProgress().removeListener(progressListener);
             mBoundService = null;
             Button pauseButton = (Button) findViewById(R.id.pause);
             updatePauseButton(pauseButton, false);
@@ -206,6 +258,9 @@ public class DownloadViewActivity extends Activity {
     }
 
     void doUnbindService() {
+        if (mBoundService != null) {
+            mBoundService.getProgress().removeListener(progressListener);
+        }
         if (mIsBound) {
             // Detach our existing connection.
             unbindService(mConnection);
@@ -0,0 +1,82 @@
+package com.oakonell.libridroid.download;
+
+import com.oakonell.libridroid.impl.FileHelper;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+/**
+ * The queue, with each download's file name added as its last column- the
+ * name is made from the url (see {@link FileHelper#getFileName}), which
+ * sqlite can't do.
+ */
+final class QueueCursor extends CursorWrapper {
+    private final int fileNameIndex;
+    private final int urlIndex;
+    private final int sectionNumberIndex;
+
+    /**
+     * @param cursor
+     *            with the url and section number columns
+     */
+    QueueCursor(Cursor cursor) {
+        super(cursor);
+        fileNameIndex = cursor.getColumnCount();
+        urlIndex = cursor.getColumnIndexOrThrow(Download.Downloads.COLUMN_NAME_URL);
+        sectionNumberIndex = cursor.getColumnIndexOrThrow(Download.Downloads.COLUMN_NAME_SECTION_NUM);
+    }
+
+    @Override
+    public int getColumnCount() {
+        return fileNameIndex + 1;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        String[] names = new String[fileNameIndex + 1];
+        System.arraycopy(super.getColumnNames(), 0, names, 0, fileNameIndex);
+        names[fileNameIndex] = Download.Queue.COLUMN_NAME_FILE_NAME;
+        return names;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        if (columnIndex == fileNameIndex) {
+            return Download.Queue.COLUMN_NAME_FILE_NAME;
+        }
+        return super.getColumnName(columnIndex);
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        if (Download.Queue.COLUMN_NAME_FILE_NAME.equals(columnName)) {
+            return fileNameIndex;
+        }
+        return super.getColumnIndex(columnName);
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        if (Download.Queue.COLUMN_NAME_FILE_NAME.equals(columnName)) {
+            return fileNameIndex;
+        }
+        return super.getColumnIndexOrThrow(columnName);
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        if (columnIndex == fileNameIndex) {
+            String url = super.getString(urlIndex);
+            return url == null ? null : FileHelper.getFileName(url, super.getLong(sectionNumberIndex));
+        }
+        return super.getString(columnIndex);
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        if (columnIndex == fileNameIndex) {
+            return super.isNull(urlIndex);
+        }
+        return super.isNull(columnIndex);
+    }
+}
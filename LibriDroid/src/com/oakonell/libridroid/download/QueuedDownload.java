@@ -0,0 +1,127 @@
+package com.oakonell.libridroid.download;
+
+import java.io.File;
+
+import com.oakonell.libridroid.impl.FileHelper;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * A section download as read from the queue, with what is needed to fetch
+ * and name its file.
+ */
+final class QueuedDownload {
+    private final long id;
+    private final String bookId;
+    private final long sectionNumber;
+    private final String url;
+    private final long totalBytes;
+    private final long sequence;
+    private final String title;
+    private final String librivoxId;
+    private final String segments;
+    private final String fileName;
+
+    QueuedDownload(long id, String bookId, long sectionNumber, String url, long totalBytes, long sequence,
+            String title, String librivoxId, String segments, String fileName) {
+        this.id = id;
+        this.bookId = bookId;
+        this.sectionNumber = sectionNumber;
+        this.url = url;
+        this.totalBytes = totalBytes;
+        this.sequence = sequence;
+        this.title = title;
+        this.librivoxId = librivoxId;
+        this.segments = segments;
+        this.fileName = fileName;
+    }
+
+    /**
+     * @param cursor
+     *            positioned on a row of {@link Download.Queue}
+     */
+    static QueuedDownload fromCursor(Cursor cursor) {
+        return new QueuedDownload(
+                cursor.getLong(cursor.getColumnIndex(Download.Downloads._ID)),
+                cursor.getString(cursor.getColumnIndex(Download.Downloads.COLUMN_NAME_BOOK_ID)),
+                cursor.getLong(cursor.getColumnIndex(Download.Downloads.COLUMN_NAME_SECTION_NUM)),
+                cursor.getString(cursor.getColumnIndex(Download.Downloads.COLUMN_NAME_URL)),
+                cursor.getLong(cursor.getColumnIndex(Download.Downloads.COLUMN_NAME_TOTAL_BYTES)),
+                cursor.getLong(cursor.getColumnIndex(Download.Downloads.COLUMN_NAME_SEQUENCE)),
+                cursor.getString(cursor.getColumnIndex(Download.Queue.COLUMN_NAME_BOOK_TITLE)),
+                cursor.getString(cursor.getColumnIndex(Download.Queue.COLUMN_NAME_LIBRIVOX_ID)),
+                cursor.getString(cursor.getColumnIndex(Download.Downloads.COLUMN_NAME_SEGMENTS)),
+                cursor.getString(cursor.getColumnIndex(Download.Queue.COLUMN_NAME_FILE_NAME)));
+    }
+
+    long getId() {
+        return id;
+    }
+
+    Uri getUri() {
+        return Uri.withAppendedPath(Download.Downloads.CONTENT_ID_URI_BASE, Long.toString(id));
+    }
+
+    String getBookId() {
+        return bookId;
+    }
+
+    long getSectionNumber() {
+        return sectionNumber;
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    String getTitle() {
+        return title;
+    }
+
+    String getLibrivoxId() {
+        return librivoxId;
+    }
+
+    /**
+     * @return the bytes done in each segment, if the section is being
+     *         downloaded in segments, else null
+     */
+    String getSegments() {
+        return segments;
+    }
+
+    /**
+     * @param forWrite
+     *            whether to make the book's directory, if need be
+     * @return the file the section is downloaded to
+     */
+    File getFile(boolean forWrite) {
+        return FileHelper.getFileInBook(librivoxId, title, fileName, forWrite);
+    }
+
+    /**
+     * @return whether the section is wanted for playing now (queued with
+     *         sequence -1)
+     */
+    boolean isPriority() {
+        return sequence < 0;
+    }
+
+    /**
+     * @return the host the section is fetched from, which limits how many
+     *         connections are opened to it
+     */
+    String getHost() {
+        String host = url == null ? null : Uri.parse(url).getHost();
+        return host == null ? "" : host;
+    }
+
+    String describe() {
+        return title + " " + sectionNumber;
+    }
+}
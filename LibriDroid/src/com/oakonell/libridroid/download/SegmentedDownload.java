@@ -0,0 +1,352 @@
+package com.oakonell.libridroid.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.GuardedBy;
+
+import com.oakonell.utils.LogHelper;
+
+/**
+ * Fetches one large section over several connections at once. Each segment
+ * asks for its own byte range and writes it in place in a part file, which is
+ * renamed to the section's file once every segment is done- until then the
+ * section's file does not exist, so the part file's preallocated length is
+ * never taken for downloaded bytes.
+ *
+ * The bytes done in each segment are saved on the download record, so a
+ * segmented download resumes each segment where it stopped. A segment whose
+ * connection stalls times out, and fails the section (to be resumed when the
+ * downloads are next started).
+ */
+final class SegmentedDownload {
+    // kept below DownloadService's per host limit, so a segmented section can
+    // start beside the other downloads from its host
+    static final int SEGMENTS = 2;
+    // smaller sections gain too little from the extra connections
+    static final long MIN_SEGMENTED_BYTES = 4 * 1024 * 1024;
+    private static final String PART_SUFFIX = ".part";
+    static final int CONNECT_TIMEOUT_MS = 15000;
+    static final int READ_TIMEOUT_MS = 30000;
+    // once cancelled (or a segment failed), how long the other segments get
+    // to stop at their next read before their connections are closed under
+    // them- a read blocked on a stalled connection doesn't see the cancel
+    private static final long STOP_WAIT_MS = 2000;
+
+    interface Progress {
+        boolean isCancelled();
+
+        /**
+         * Called every so often as the segments download.
+         *
+         * @param segments
+         *            the bytes done in each segment
+         */
+        void update(long downloaded, String segments);
+
+        /**
+         * Called as the download starts and stops, to save the progress on
+         * the download record.
+         *
+         * @param segments
+         *            the bytes done in each segment
+         */
+        void checkpoint(long downloaded, String segments);
+    }
+
+    /**
+     * The server will not serve the section in ranges (or its size has
+     * changed), so it must be downloaded in one piece.
+     */
+    static final class NotSegmentableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NotSegmentableException(String message) {
+            super(message);
+        }
+    }
+
+    private final URL url;
+    private final File file;
+    private final File partFile;
+    private final long totalBytes;
+    private final ChannelTransfer.Throttle throttle;
+    @GuardedBy("done")
+    private final long[] done;
+    private volatile IOException failure;
+
+    /**
+     * @param segments
+     *            the bytes done in each segment, as saved on the download
+     *            record, or null to start afresh
+     */
+    SegmentedDownload(String url, File file, long totalBytes, String segments, ChannelTransfer.Throttle throttle)
+            throws IOException {
+        this.url = new URL(url);
+        this.file = file;
+        this.partFile = partFileFor(file);
+        this.totalBytes = totalBytes;
+        this.throttle = throttle;
+        long[] saved = parseProgress(segments);
+        if (saved == null || !partFile.exists()) {
+            saved = new long[SEGMENTS];
+        }
+        done = saved;
+    }
+
+    static File partFileFor(File file) {
+        return new File(file.getPath() + PART_SUFFIX);
+    }
+
+    /**
+     * @return the bytes done in each segment, or null if there are none (or
+     *         they can't be read)
+     */
+    static long[] parseProgress(String segments) {
+        if (segments == null || segments.length() == 0) {
+            return null;
+        }
+        String[] values = segments.split(",");
+        long[] result = new long[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                result[i] = Long.parseLong(values[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return result;
+    }
+
+    static String formatProgress(long[] done) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < done.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(done[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the offset of the segment's first byte in the file (or of the
+     *         end of the file, for the segment after the last)
+     */
+    static long segmentStart(int segment, int segments, long totalBytes) {
+        return totalBytes * segment / segments;
+    }
+
+    /**
+     * Fetch the segments not yet done, saving their progress as they go.
+     *
+     * @return true if the whole file was downloaded, false if cancelled
+     */
+    boolean run(Progress progress) throws IOException {
+        LogHelper.info("SegmentedDownload", "Download " + url + " in " + done.length + " segments to "
+                + partFile.getAbsolutePath());
+        RandomAccessFile out = new RandomAccessFile(partFile, "rw");
+        try {
+            if (out.length() != totalBytes) {
+                out.setLength(totalBytes);
+            }
+            FileChannel channel = out.getChannel();
+            progress.checkpoint(getDownloaded(), getProgress());
+
+            // a pool of its own, sized to the segments, shut down as soon as
+            // they are all submitted
+            ExecutorService fetches = Executors.newFixedThreadPool(done.length);
+            SegmentFetch[] segmentFetches = new SegmentFetch[done.length];
+            for (int i = 0; i < done.length; i++) {
+                segmentFetches[i] = new SegmentFetch(i, channel, progress);
+                fetches.execute(segmentFetches[i]);
+            }
+            fetches.shutdown();
+            boolean interrupted = false;
+            boolean stopped = false;
+            boolean aborted = false;
+            long stopping = 0;
+            while (!stopped) {
+                try {
+                    stopped = fetches.awaitTermination(DownloadService.DOWNLOAD_UPDATES_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // the fetches stop at their next read when cancelled
+                    interrupted = true;
+                }
+                progress.update(getDownloaded(), getProgress());
+                if (stopped || (failure == null && !progress.isCancelled())) {
+                    continue;
+                }
+                long now = System.currentTimeMillis();
+                if (stopping == 0) {
+                    stopping = now;
+                } else if (now - stopping > STOP_WAIT_MS) {
+                    if (aborted) {
+                        // (a fetch left behind fails at its next write, to
+                        // the closed file)
+                        LogHelper.warn("SegmentedDownload", "The segments of " + url + " did not stop");
+                        break;
+                    }
+                    for (SegmentFetch each : segmentFetches) {
+                        each.abort();
+                    }
+                    aborted = true;
+                    stopping = now;
+                }
+            }
+            progress.checkpoint(getDownloaded(), getProgress());
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            out.close();
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        if (progress.isCancelled() || getDownloaded() < totalBytes) {
+            return false;
+        }
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file.getAbsolutePath());
+        }
+        if (!partFile.renameTo(file)) {
+            throw new IOException("Could not rename " + partFile.getAbsolutePath() + " to "
+                    + file.getAbsolutePath());
+        }
+        return true;
+    }
+
+    private long getDownloaded() {
+        synchronized (done) {
+            long downloaded = 0;
+            for (long each : done) {
+                downloaded += each;
+            }
+            return downloaded;
+        }
+    }
+
+    private String getProgress() {
+        synchronized (done) {
+            return formatProgress(done);
+        }
+    }
+
+    private final class SegmentFetch implements Runnable {
+        private final int segment;
+        private final FileChannel channel;
+        private final Progress progress;
+        private volatile HttpURLConnection connection;
+        private volatile boolean aborted;
+
+        SegmentFetch(int segment, FileChannel channel, Progress progress) {
+            this.segment = segment;
+            this.channel = channel;
+            this.progress = progress;
+        }
+
+        /**
+         * Close the connection, to stop a read blocked on it.
+         */
+        void abort() {
+            aborted = true;
+            HttpURLConnection current = connection;
+            if (current != null) {
+                current.disconnect();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                fetch();
+            } catch (IOException e) {
+                if (aborted) {
+                    // stopped as asked
+                    return;
+                }
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = new IOException("Error fetching segment " + segment + " of " + url + ": " + e);
+            }
+        }
+
+        private void fetch() throws IOException {
+            final long start = segmentStart(segment, done.length, totalBytes);
+            long end = segmentStart(segment + 1, done.length, totalBytes);
+            long position;
+            synchronized (done) {
+                position = start + done[segment];
+            }
+            if (position >= end) {
+                return;
+            }
+
+            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+            connection = urlConnection;
+            try {
+                // a stalled connection fails the segment, rather than hold
+                // up the section (and its connections) for good
+                urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                urlConnection.setReadTimeout(READ_TIMEOUT_MS);
+                urlConnection.setRequestProperty("Range", "bytes=" + position + "-" + (end - 1));
+                if (urlConnection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new NotSegmentableException(url + " is not served in ranges");
+                }
+                checkTotal(urlConnection.getHeaderField("Content-Range"));
+
+                InputStream in = urlConnection.getInputStream();
+                try {
+                    position = new ChannelTransfer(throttle).transfer(in, channel, position, end,
+                            new ChannelTransfer.Listener() {
+                                @Override
+                                public boolean written(long written) {
+                                    synchronized (done) {
+                                        done[segment] = written - start;
+                                    }
+                                    return failure == null && !progress.isCancelled();
+                                }
+                            });
+                } finally {
+                    in.close();
+                }
+                if (position < end && failure == null && !progress.isCancelled()) {
+                    throw new IOException("Segment " + segment + " of " + url + " ended early");
+                }
+            } finally {
+                connection = null;
+                urlConnection.disconnect();
+            }
+        }
+
+        /**
+         * @param contentRange
+         *            eg, "bytes 0-1023/4096"
+         */
+        private void checkTotal(String contentRange) throws NotSegmentableException {
+            int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+            long total = -1;
+            if (slash >= 0) {
+                try {
+                    total = Long.parseLong(contentRange.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    // an unknown total can't be checked
+                }
+            }
+            if (total != totalBytes) {
+                throw new NotSegmentableException("The size of " + url + " (" + contentRange
+                        + ") does not match the section's download size (" + totalBytes + ")");
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.oakonell.libridroid.download;
+
+/**
+ * Limits a rate of bytes. Taking bytes uses up tokens, which refill at the
+ * rate up to a second's worth; taking more than there are goes into debt, and
+ * the taker waits for it to be repaid.
+ *
+ * Not thread safe; the {@link BandwidthScheduler} guards its buckets.
+ */
+final class TokenBucket {
+    private static final double NANOS_PER_SECOND = 1000 * 1000 * 1000.0;
+
+    // bytes per second, or 0 for no limit
+    private long rate;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * @param rate
+     *            bytes per second, or 0 for no limit
+     * @param now
+     *            as from {@link System#nanoTime()}
+     */
+    TokenBucket(long rate, long now) {
+        this.rate = rate;
+        tokens = rate;
+        lastRefill = now;
+    }
+
+    long getRate() {
+        return rate;
+    }
+
+    void setRate(long rate, long now) {
+        refill(now);
+        this.rate = rate;
+        tokens = Math.min(tokens, rate);
+    }
+
+    /**
+     * @return the nanoseconds to wait before going on, to keep to the rate
+     */
+    long take(long bytes, long now) {
+        if (rate <= 0) {
+            return 0;
+        }
+        refill(now);
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * NANOS_PER_SECOND / rate);
+    }
+
+    private void refill(long now) {
+        if (rate > 0) {
+            tokens = Math.min(rate, tokens + (now - lastRefill) * rate / NANOS_PER_SECOND);
+        }
+        lastRefill = now;
+    }
+}
@@ -4,9 +4,12 @@ import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import android.content.ContentResolver;
 import android.content.ContentValues;
@@ -21,8 +24,28 @@ import com.oakonell.utils.Duration;
 import com.oakonell.utils.LogHelper;
 
 public final class Book {
+    /**
+     * The columns needed to play or download a book, or show it in a list.
+     * The others (its description and urls) are read when first asked for.
+     */
+    public static final String[] HEADER_PROJECTION = { Books._ID, Books.COLUMN_NAME_TITLE,
+            Books.COLUMN_NAME_AUTHOR, Books.COLUMN_NAME_LIBRIVOX_ID, Books.COLUMN_NAME_NUM_SECTIONS,
+            Books.COLUMN_NAME_CURRENT_SECTION, Books.COLUMN_NAME_CURRENT_POSITION,
+            Books.COLUMN_NAME_LAST_LISTENED_ON, Books.COLUMN_NAME_IS_DOWNLOADED,
+            Books.COLUMN_NAME_TOTAL_DURATION_MS };
+
+    // read as numbers rather than strings
+    private static final Set<String> INTEGER_COLUMNS = new HashSet<String>(Arrays.asList(Books._ID,
+            Books.COLUMN_NAME_NUM_SECTIONS, Books.COLUMN_NAME_CURRENT_SECTION, Books.COLUMN_NAME_CURRENT_POSITION,
+            Books.COLUMN_NAME_IS_DOWNLOADED, Books.COLUMN_NAME_TOTAL_DURATION_MS,
+            Books.COLUMN_NAME_TOTAL_SIZE_BYTES, Books.COLUMN_NAME_SECTION_COUNT, BookSections.COLUMN_NAME_BOOK_ID,
+            BookSections.COLUMN_NAME_SECTION_NUMBER, BookSections.COLUMN_NAME_SIZE_BYTES,
+            BookSections.COLUMN_NAME_DURATION_MS));
+
     private ContentValues values;
     private List<BookSection> sections;
+    // set while only some of the columns have been read
+    private ContentResolver lazyResolver;
 
     @Deprecated
     private Book(ContentValues values) {
@@ -42,15 +65,15 @@ public final class Book {
     }
 
     public String getTitle() {
-        return values.getAsString(Books.COLUMN_NAME_TITLE);
+        return stringValue(Books.COLUMN_NAME_TITLE);
     }
 
     public String getAuthor() {
-        return values.getAsString(Books.COLUMN_NAME_AUTHOR);
+        return stringValue(Books.COLUMN_NAME_AUTHOR);
     }
 
     public Date getLastListened() {
-        String dateString = values.getAsString(Books.COLUMN_NAME_LAST_LISTENED_ON);
+        String dateString = stringValue(Books.COLUMN_NAME_LAST_LISTENED_ON);
         if (TextUtils.isEmpty(dateString)) {
             return null;
         }
@@ -64,44 +87,44 @@ public final class Book {
     }
 
     public String getLibrivoxId() {
-        return values.getAsString(Books.COLUMN_NAME_LIBRIVOX_ID);
+        return stringValue(Books.COLUMN_NAME_LIBRIVOX_ID);
     }
 
     public boolean isInLibrary() {
-        Integer asInt = values.getAsInteger(Books.COLUMN_NAME_IS_DOWNLOADED);
+        Integer asInt = integerValue(Books.COLUMN_NAME_IS_DOWNLOADED);
         return asInt != null && asInt > 0;
     }
 
     public int getNumberSections() {
-        return values.getAsInteger(Books.COLUMN_NAME_NUM_SECTIONS);
+        return integerValue(Books.COLUMN_NAME_NUM_SECTIONS);
     }
 
     public String getDecription() {
-        return values.getAsString(Books.COLUMN_NAME_DESCRIPTION);
+        return stringValue(Books.COLUMN_NAME_DESCRIPTION);
     }
 
     public String getCategory() {
-        return values.getAsString(Books.COLUMN_NAME_CATEGORY);
+        return stringValue(Books.COLUMN_NAME_CATEGORY);
     }
 
     public String getGenre() {
-        return values.getAsString(Books.COLUMN_NAME_GENRE);
+        return stringValue(Books.COLUMN_NAME_GENRE);
     }
 
     public String getLibrivoxUrl() {
-        return values.getAsString(Books.COLUMN_NAME_LIBRIVOX_URL);
+        return stringValue(Books.COLUMN_NAME_LIBRIVOX_URL);
     }
 
     public String getAuthorUrl() {
-        return values.getAsString(Books.COLUMN_NAME_AUTHOR_WIKI_URL);
+        return stringValue(Books.COLUMN_NAME_AUTHOR_WIKI_URL);
     }
 
     public String getWikiUrl() {
-        return values.getAsString(Books.COLUMN_NAME_WIKI_URL);
+        return stringValue(Books.COLUMN_NAME_WIKI_URL);
     }
 
     public int getCurrentSectionNumber() {
-        Integer val = values.getAsInteger(Books.COLUMN_NAME_CURRENT_SECTION);
+        Integer val = integerValue(Books.COLUMN_NAME_CURRENT_SECTION);
         if (val == null) {
             return 1;
         }
@@ -109,28 +132,60 @@ public final class Book {
     }
 
     public long getCurrentPosition() {
-        Long val = values.getAsLong(Books.COLUMN_NAME_CURRENT_POSITION);
+        Long val = longValue(Books.COLUMN_NAME_CURRENT_POSITION);
         if (val == null) {
             return 0;
         }
         return val;
     }
 
+    private String stringValue(String column) {
+        return valuesWith(column).getAsString(column);
+    }
+
+    private Integer integerValue(String column) {
+        return valuesWith(column).getAsInteger(column);
+    }
+
+    private Long longValue(String column) {
+        return valuesWith(column).getAsLong(column);
+    }
+
+    /**
+     * @return the values, after reading the rest of the book's columns if
+     *         the column is one not yet read
+     */
+    private ContentValues valuesWith(String column) {
+        if (lazyResolver != null && !values.containsKey(column)) {
+            refresh(lazyResolver);
+        }
+        return values;
+    }
+
     public BookSection getCurrentSection(ContentResolver resolver) {
         return getSection(resolver, getCurrentSectionNumber());
     }
 
-    private Duration duration;
+    /**
+     * The total of the sections' durations, maintained with the book's row.
+     */
+    public Duration getDuration() {
+        Long val = longValue(Books.COLUMN_NAME_TOTAL_DURATION_MS);
+        if (val == null) {
+            return new Duration(0, 0, 0);
+        }
+        return Duration.fromMilliseconds(val);
+    }
 
-    public Duration getDuration(ContentResolver resolver) {
-        if (duration == null) {
-            Duration result = new Duration(0, 0, 0);
-            for (BookSection each : getSections(resolver)) {
-                result = result.add(each.getDuration());
-            }
-            duration = result;
+    /**
+     * The total of the sections' sizes, maintained with the book's row.
+     */
+    public long getSize() {
+        Long val = longValue(Books.COLUMN_NAME_TOTAL_SIZE_BYTES);
+        if (val == null) {
+            return 0;
         }
-        return duration;
+        return val;
     }
 
     public BookSection getSection(ContentResolver resolver, int section) {
@@ -184,16 +239,44 @@ public final class Book {
         }
     }
 
+    public static Book readHeader(ContentResolver resolver, long bookId) {
+        return readHeader(resolver, Uri.withAppendedPath(Books.CONTENT_ID_URI_BASE, Long.toString(bookId)));
+    }
+
+    /**
+     * Read only the {@link #HEADER_PROJECTION} columns, the rest are read if
+     * asked for.
+     */
+    public static Book readHeader(ContentResolver resolver, Uri bookUri) {
+        Cursor bookCursor = resolver.query(bookUri, HEADER_PROJECTION, null, null, null);
+        try {
+            if (!bookCursor.moveToFirst()) {
+                throw new RuntimeException("No book with uri " + bookUri);
+            }
+            Book book = new Book(bookCursor);
+            book.lazyResolver = resolver;
+            return book;
+        } finally {
+            bookCursor.close();
+        }
+    }
+
     public static Book fromCursor(Cursor c) {
         return new Book(c);
     }
 
     static ContentValues extractContentValues(Cursor bookCursor) {
-        ContentValues values = new ContentValues();
-        for (int i = 0; i < bookCursor.getColumnCount(); i++) {
+        int columnCount = bookCursor.getColumnCount();
+        ContentValues values = new ContentValues(columnCount);
+        for (int i = 0; i < columnCount; i++) {
             String columnName = bookCursor.getColumnName(i);
-            String value = bookCursor.getString(i);
-            values.put(columnName, value);
+            if (bookCursor.isNull(i)) {
+                values.putNull(columnName);
+            } else if (INTEGER_COLUMNS.contains(columnName)) {
+                values.put(columnName, bookCursor.getLong(i));
+            } else {
+                values.put(columnName, bookCursor.getString(i));
+            }
         }
         return values;
     }
@@ -257,6 +340,7 @@ public final class Book {
             }
 
             values = extractContentValues(bookCursor);
+            lazyResolver = null;
             if (bookCursor.moveToNext()) {
                 throw new RuntimeException("A duplicate book with uri " + getUri());
             }
@@ -29,7 +29,7 @@ public class BookSection {
 
     public Book getBook(ContentResolver resolver) {
         if (book == null) {
-            book = Book.read(resolver, getBookId());
+            book = Book.readHeader(resolver, Long.parseLong(getBookId()));
         }
         return book;
     }
@@ -51,10 +51,18 @@ public class BookSection {
     }
 
     public Duration getDuration() {
+        Long milliseconds = values.getAsLong(Libridroid.BookSections.COLUMN_NAME_DURATION_MS);
+        if (milliseconds != null) {
+            return Duration.fromMilliseconds(milliseconds);
+        }
         return Duration.from(values.getAsString(Libridroid.BookSections.COLUMN_NAME_DURATION));
     }
 
     public long getSize() {
+        Long bytes = values.getAsLong(Libridroid.BookSections.COLUMN_NAME_SIZE_BYTES);
+        if (bytes != null) {
+            return bytes;
+        }
         return values.getAsLong(Libridroid.BookSections.COLUMN_NAME_SIZE);
     }
 
@@ -20,22 +20,42 @@ public final class FileHelper {
     public static File getFile(ContentResolver resolver, long bookId, long sectionNumber,
             boolean forWrite, String title, String librivoxId) {
         BookSection section = Book.readSection(resolver, Long.toString(bookId), sectionNumber);
-        String url = section.getUrl();
-        String fileNameUrl = url.substring(url.lastIndexOf('/') + 1);
+        return getFileForUrl(librivoxId, title, section.getUrl(), sectionNumber, forWrite);
+    }
+
+    /**
+     * The section's file, named from its url- for callers that already have
+     * the url (eg, a queued download), without reading the section.
+     */
+    public static File getFileForUrl(String librivoxId, String title, String url, long sectionNumber,
+            boolean forWrite) {
+        return getFileInBook(librivoxId, title, getFileName(url, sectionNumber), forWrite);
+    }
 
-        return getFile(librivoxId, title, fileNameUrl, sectionNumber, forWrite);
+    /**
+     * @return the name of the section's file, within its book's directory
+     */
+    public static String getFileName(String url, long sectionNumber) {
+        String fileNameUrl = url.substring(url.lastIndexOf('/') + 1);
+        return sectionNumber + "_" + escapeToSafeFilename(fileNameUrl);
     }
 
     protected static File getFile(String librivoxId, String title, String fileNameUrl, long sectionNumber,
             boolean forWrite) {
+        return getFileInBook(librivoxId, title, getFileName(fileNameUrl, sectionNumber), forWrite);
+    }
+
+    /**
+     * @param fileName
+     *            as given by {@link #getFileName(String, long)}
+     */
+    public static File getFileInBook(String librivoxId, String title, String fileName, boolean forWrite) {
         File dir = getBookDirectory(librivoxId, title);
         if (forWrite && !dir.exists() && !dir.mkdirs()) {
             LogHelper.error("DownloadService",
                     "Unable to create directories for " + dir.getAbsolutePath());
         }
-        String fileSafeSectionName = escapeToSafeFilename(fileNameUrl);
-        File file = new File(dir, sectionNumber + "_" + fileSafeSectionName);
-        return file;
+        return new File(dir, fileName);
     }
 
     public static File getRootLibridroidDirectory() {
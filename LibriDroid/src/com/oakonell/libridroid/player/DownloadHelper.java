@@ -9,6 +9,7 @@ import android.os.IBinder;
 import com.oakonell.libridroid.download.DownloadService;
 import com.oakonell.libridroid.impl.BookSection;
 import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.TaskScheduler;
 
 public class DownloadHelper {
     private BookSection currentSection;
@@ -29,8 +30,7 @@ public class DownloadHelper {
             mBoundService = ((DownloadService.LocalBinder) service).getService();
             mBoundService.startPriorityDownload(currentSection);
             if (onStart != null) {
-                Thread thread = new Thread(onStart);
-                thread.start();
+                TaskScheduler.execute(TaskScheduler.Lane.PLAYBACK, onStart);
             }
             LogHelper.info("DownloadView", "Connecting to service - button should say pause");
         }
@@ -88,6 +88,17 @@ public class DownloadHelper {
         return mBoundService.canStartPlayingPriorityDownload(currentSection, positionFraction);
     }
 
+    /**
+     * @return the bytes of the section downloaded so far that can be played,
+     *         or -1 if that isn't known (eg, it is not downloading)
+     */
+    public long getPlayableBytes() {
+        if (mBoundService == null) {
+            return -1;
+        }
+        return mBoundService.getPlayableBytes(currentSection);
+    }
+
     public boolean isDownloading() {
         if (mBoundService == null) {
             return false;
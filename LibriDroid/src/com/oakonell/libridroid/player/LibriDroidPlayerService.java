@@ -34,6 +34,7 @@ import com.oakonell.libridroid.impl.BookSection;
 import com.oakonell.libridroid.impl.Notifications;
 import com.oakonell.utils.EarlierAndroidCompatibleService;
 import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.TaskScheduler;
 
 public class LibriDroidPlayerService extends EarlierAndroidCompatibleService implements IPlayerService {
     private static final int END_OF_FILE_POSITION_LOOSENESS_MS = 1000;
@@ -124,7 +125,7 @@ public class LibriDroidPlayerService extends EarlierAndroidCompatibleService imp
                 // if already playing this book, we're done
                 if (libriIsPlaying()) {
                     if (Long.parseLong(bookId) == data.book.getId()) {
-                        Book requestedBook = Book.read(getContentResolver(), bookUri);
+                        Book requestedBook = Book.readHeader(getContentResolver(), bookUri);
                         // playing the same book, but a different
                         // section
                         // results in pausing/restarting
@@ -144,7 +145,7 @@ public class LibriDroidPlayerService extends EarlierAndroidCompatibleService imp
             }
             setWaiting(R.string.pleaseWait);
 
-            data.book = Book.read(getContentResolver(), bookUri);
+            data.book = Book.readHeader(getContentResolver(), bookUri);
             data.currentSection = data.book.getCurrentSection(getContentResolver());
             if (data.progressUpdater != null) {
                 data.progressUpdater.updateBookAndSection(data.currentSection);
@@ -362,6 +363,30 @@ public class LibriDroidPlayerService extends EarlierAndroidCompatibleService imp
         return true;
     }
 
+    /**
+     * @return the bytes of the current section downloaded, as published by
+     *         the download, else as in the file
+     */
+    private synchronized long downloadedLength() {
+        if (data.downloadHelper != null) {
+            long playable = data.downloadHelper.getPlayableBytes();
+            if (playable >= 0) {
+                return playable;
+            }
+        }
+        try {
+            // "touch" the file to get updated
+            // length...
+            FileInputStream fis = new FileInputStream(data.file);
+            FileDescriptor fd = fis.getFD();
+            fd.sync();
+            fis.close();
+        } catch (IOException e) {
+            // shouldn't happen.. but no worries..
+        }
+        return data.file.length();
+    }
+
     // do NOT call under synchronized block...
     private boolean bufferEnoughOfFile(int progress) {
         float fraction = 0;
@@ -423,7 +448,7 @@ public class LibriDroidPlayerService extends EarlierAndroidCompatibleService imp
                             }
                         }
                     };
-                    new Thread(continuation).start();
+                    TaskScheduler.execute(TaskScheduler.Lane.PLAYBACK, continuation);
                 }
             }
         });
@@ -534,18 +559,7 @@ public class LibriDroidPlayerService extends EarlierAndroidCompatibleService imp
                             // logStart("progressUpdater");
                             if (data.player != null) {
                                 if (data.isDownloading) {
-                                    try {
-                                        // "touch" the file to get updated
-                                        // length...
-                                        FileInputStream fis = new FileInputStream(data.file);
-                                        FileDescriptor fd = fis.getFD();
-                                        fd.sync();
-                                        fis.close();
-                                    } catch (IOException e) {
-                                        // shouldn't happen.. but no worries..
-                                    }
-
-                                    long fileLength = data.file.length();
+                                    long fileLength = downloadedLength();
                                     double fileFractionDownloaded = ((double) fileLength)
                                             / data.currentSection.getSize();
                                     data.lastSyncedDownloadedApproxMs = (int) (fileFractionDownloaded * data.currentSection
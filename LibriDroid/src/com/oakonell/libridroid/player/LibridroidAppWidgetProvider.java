@@ -47,7 +47,7 @@ public class LibridroidAppWidgetProvider extends AppWidgetProvider {
         // try to get the latest book listened to... or at least the
         // first
         // book in the library
-        Cursor query = context.getContentResolver().query(Libridroid.Books.CONTENT_URI, null,
+        Cursor query = context.getContentResolver().query(Libridroid.Books.CONTENT_URI, Book.HEADER_PROJECTION,
                 Libridroid.Books.COLUMN_NAME_IS_DOWNLOADED + " > 0 ", null,
                 BookSort.LAST_LISTENED.getSortBy());
         if (query.moveToFirst()) {
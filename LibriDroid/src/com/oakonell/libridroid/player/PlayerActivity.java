@@ -30,6 +30,7 @@ import com.oakonell.libridroid.impl.BookSection;
 import com.oakonell.libridroid.impl.MenuHelper;
 import com.oakonell.utils.Duration;
 import com.oakonell.utils.LogHelper;
+import com.oakonell.utils.TaskScheduler;
 import com.oakonell.utils.activity.AbstractFlingableActitivty;
 
 public class PlayerActivity extends AbstractFlingableActitivty {
@@ -123,7 +124,7 @@ public class PlayerActivity extends AbstractFlingableActitivty {
                             startActivity(intent);
                         }
                     };
-                    new Thread(runnable).start();
+                    TaskScheduler.execute(TaskScheduler.Lane.INTERACTIVE, runnable);
                 }
             }
         });
@@ -245,7 +246,7 @@ public class PlayerActivity extends AbstractFlingableActitivty {
         sectionSeekBar.setMax(sectionDuration.getTotalMilliseconds());
         updateText(bookView, R.id.duration, sectionDuration.toString());
 
-        Duration bookDuration = book.getDuration(getContentResolver());
+        Duration bookDuration = book.getDuration();
         updateText(bookView, R.id.bookDuration, bookDuration.toString());
 
         bookProgressBar.setMax(bookDuration.getTotalMilliseconds());
@@ -262,7 +263,7 @@ public class PlayerActivity extends AbstractFlingableActitivty {
 
         Duration bookDuration = bookSection.getBookDurationAtStart(getContentResolver()).add(duration);
         bookPositionText.setText(bookDuration.toString());
-        Duration totalBookDuration = bookSection.getBook(getContentResolver()).getDuration(getContentResolver());
+        Duration totalBookDuration = bookSection.getBook(getContentResolver()).getDuration();
         bookRemainingText.setText(totalBookDuration.subtract(bookDuration).toString());
 
         bookProgressBar.setProgress(bookDuration.getTotalMilliseconds());
@@ -0,0 +1,197 @@
+package com.oakonell.libridroid.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.oakonell.libridroid.Libridroid;
+
+/**
+ * Upgrades a library saved at each older schema version and checks that it
+ * is kept, and that the result matches a freshly created database.
+ */
+public class BookDatabaseMigrationTest extends AndroidTestCase {
+    private static final String OLD_DATABASE_NAME = "migration_test_old.db";
+    private static final String FRESH_DATABASE_NAME = "migration_test_fresh.db";
+
+    // the search table was the only one changed before version 37 (its
+    // upgrade rebuilt just the search table), last_used was added in 37 and
+    // collection_title in 36
+    private static final String VERSION_35_SEARCH_TABLE = "CREATE TABLE search (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "title TEXT, author TEXT, description TEXT, rss_url TEXT, "
+            + "wiki_url TEXT, author_wiki_url TEXT, genre TEXT, category TEXT, librivox_url TEXT, "
+            + "librivox_id TEXT , num_sections INTEGER );";
+    private static final String VERSION_36_SEARCH_TABLE = "CREATE TABLE search (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "title TEXT, collection_title TEXT, author TEXT, description TEXT, rss_url TEXT, "
+            + "wiki_url TEXT, author_wiki_url TEXT, genre TEXT, category TEXT, librivox_url TEXT, "
+            + "librivox_id TEXT , num_sections INTEGER );";
+    // the version 37 layout, as shipped
+    private static final String VERSION_37_SEARCH_TABLE = "CREATE TABLE search (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "title TEXT, collection_title TEXT, author TEXT, description TEXT, rss_url TEXT, "
+            + "wiki_url TEXT, author_wiki_url TEXT, genre TEXT, category TEXT, librivox_url TEXT, "
+            + "librivox_id TEXT , num_sections INTEGER , last_used INTEGER);";
+    private static final String VERSION_37_BOOK_TABLE = "CREATE TABLE books (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "title TEXT, author TEXT, description TEXT, rss_url TEXT, "
+            + "wiki_url TEXT, author_wiki_url TEXT, genre TEXT, category TEXT, librivox_url TEXT, "
+            + "librivox_id TEXT UNIQUE, num_sections INTEGER, "
+            + "current_section_number INTEGER, current_position INTEGER, last_listened_on TEXT,"
+            + "is_downloaded INTEGER,timestamp TEXT);";
+    private static final String VERSION_37_SECTION_TABLE = "CREATE TABLE book_sections (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "book_id INTEGER, section_number INTEGER, url TEXT, title TEXT, author TEXT, "
+            + "size TEXT, duration TEXT);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(OLD_DATABASE_NAME);
+        getContext().deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(OLD_DATABASE_NAME);
+        getContext().deleteDatabase(FRESH_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeFromEveryVersion() {
+        BookDatabaseHelper freshHelper = new BookDatabaseHelper(getContext(), FRESH_DATABASE_NAME, null);
+        String freshSchema = describeSchema(freshHelper.getReadableDatabase());
+        freshHelper.close();
+
+        for (int version = 35; version <= 41; version++) {
+            getContext().deleteDatabase(OLD_DATABASE_NAME);
+            createLibrary(version);
+
+            BookDatabaseHelper helper = new BookDatabaseHelper(getContext(), OLD_DATABASE_NAME, null);
+            SQLiteDatabase db = helper.getWritableDatabase();
+            try {
+                String message = "from version " + version;
+                assertEquals(message, freshSchema, describeSchema(db));
+
+                assertEquals(message, "Emma", queryString(db, "SELECT title FROM books WHERE librivox_id = '1936'"));
+                assertEquals(message, "4521",
+                        queryString(db, "SELECT current_position FROM books WHERE librivox_id = '1936'"));
+                // the duplicate section read by older versions is dropped
+                assertEquals(message, "2", queryString(db, "SELECT COUNT(*) FROM book_sections"));
+                assertEquals(message, "3723000",
+                        queryString(db, "SELECT duration_ms FROM book_sections WHERE section_number = 2"));
+                // the book's totals are filled in from its sections
+                assertEquals(message, "5020000 10379683 2",
+                        queryString(db, "SELECT total_duration_ms || ' ' || total_size_bytes || ' ' || section_count "
+                                + "FROM books WHERE librivox_id = '1936'"));
+
+                String match = FullTextSearch.whereClause(FullTextSearch.matchExpression("austen"));
+                String searchCount = queryString(db, "SELECT COUNT(*) FROM " + Libridroid.Search.SEARCH_TABLE_NAME
+                        + " WHERE " + match);
+                // before 37 the search cache is rebuilt, afterwards it is kept
+                // (and indexed)
+                assertEquals(message, version < 37 ? "0" : "1", searchCount);
+            } finally {
+                helper.close();
+            }
+        }
+    }
+
+    /**
+     * Save a small library in the layout of the given version- as shipped up
+     * to version 37, and after that by applying the upgrade steps from the
+     * version 37 fixture.
+     */
+    private void createLibrary(int version) {
+        SQLiteDatabase db = getContext().openOrCreateDatabase(OLD_DATABASE_NAME, Context.MODE_PRIVATE, null);
+        try {
+            if (version == 35) {
+                db.execSQL(VERSION_35_SEARCH_TABLE);
+            } else if (version == 36) {
+                db.execSQL(VERSION_36_SEARCH_TABLE);
+            } else {
+                db.execSQL(VERSION_37_SEARCH_TABLE);
+            }
+            db.execSQL(VERSION_37_BOOK_TABLE);
+            db.execSQL(VERSION_37_SECTION_TABLE);
+            if (version > 37) {
+                BookDatabaseHelper.MIGRATIONS.migrate(db, 37, version);
+            }
+
+            db.execSQL("INSERT INTO books (title, author, librivox_id, num_sections, current_section_number, current_position) "
+                    + "VALUES ('Emma', 'Austen, Jane', '1936', 2, 1, 4521)");
+            db.execSQL("INSERT INTO book_sections (book_id, section_number, url, title, size, duration) "
+                    + "VALUES (1, 1, 'http://www.archive.org/download/emma_01.mp3', 'Chapter 1', '10377635', '21:37')");
+            db.execSQL("INSERT INTO book_sections (book_id, section_number, url, title, size, duration) "
+                    + "VALUES (1, 2, 'http://www.archive.org/download/emma_02.mp3', 'Chapter 2', '2048', '1:02:03')");
+            if (version < 41) {
+                db.execSQL("INSERT INTO book_sections (book_id, section_number, url, title, size, duration) "
+                        + "VALUES (1, 2, 'http://www.archive.org/download/emma_02.mp3', 'Chapter 2', '2048', '1:02:03')");
+            }
+            if (version < 37) {
+                db.execSQL("INSERT INTO search (title, author, librivox_id, num_sections) "
+                        + "VALUES ('Emma', 'Austen, Jane', '1936', 2)");
+            } else {
+                db.execSQL("INSERT INTO search (title, author, librivox_id, num_sections, last_used) "
+                        + "VALUES ('Emma', 'Austen, Jane', '1936', 2, 0)");
+            }
+
+            db.setVersion(version);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * @return the tables (by their columns), indexes and triggers of the
+     *         database- a column added by ALTER TABLE compares equal to one
+     *         created with its table
+     */
+    private String describeSchema(SQLiteDatabase db) {
+        StringBuilder builder = new StringBuilder();
+        Cursor cursor = db.rawQuery("SELECT type, name, sql FROM sqlite_master WHERE name NOT LIKE 'sqlite_%' "
+                + "ORDER BY type, name", null);
+        try {
+            while (cursor.moveToNext()) {
+                String type = cursor.getString(0);
+                String name = cursor.getString(1);
+                builder.append(type).append(' ').append(name).append(": ");
+                if ("table".equals(type)) {
+                    builder.append(describeColumns(db, name));
+                } else {
+                    builder.append(cursor.getString(2));
+                }
+                builder.append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return builder.toString();
+    }
+
+    private String describeColumns(SQLiteDatabase db, String table) {
+        StringBuilder builder = new StringBuilder();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            int typeIndex = cursor.getColumnIndex("type");
+            int defaultIndex = cursor.getColumnIndex("dflt_value");
+            int keyIndex = cursor.getColumnIndex("pk");
+            while (cursor.moveToNext()) {
+                builder.append(cursor.getString(nameIndex)).append(' ').append(cursor.getString(typeIndex))
+                        .append(" default=").append(cursor.getString(defaultIndex))
+                        .append(" pk=").append(cursor.getString(keyIndex)).append(", ");
+            }
+        } finally {
+            cursor.close();
+        }
+        return builder.toString();
+    }
+
+    private String queryString(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            assertTrue(sql, cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
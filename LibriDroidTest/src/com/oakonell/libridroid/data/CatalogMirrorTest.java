@@ -0,0 +1,57 @@
+package com.oakonell.libridroid.data;
+
+import android.test.AndroidTestCase;
+
+public class CatalogMirrorTest extends AndroidTestCase {
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        CatalogMirror.reset(getContext());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        CatalogMirror.reset(getContext());
+        super.tearDown();
+    }
+
+    public void testRecordSync() {
+        CatalogMirror.recordSync(getContext(), 1000);
+        assertEquals(1000, CatalogMirror.getLastSync(getContext()));
+
+        CatalogMirror.recordSync(getContext(), 2000);
+        assertEquals(2000, CatalogMirror.getLastSync(getContext()));
+    }
+
+    public void testAnswersSearchesOnlyWhenCurrent() {
+        long now = System.currentTimeMillis();
+        // never imported
+        assertFalse(CatalogMirror.canAnswerSearches(getContext(), now));
+
+        CatalogMirror.recordSync(getContext(), now);
+        assertTrue(CatalogMirror.canAnswerSearches(getContext(), now));
+        // too old, searches go to the network as well
+        assertFalse(CatalogMirror.canAnswerSearches(getContext(), now + 30L * 24 * 60 * 60 * 1000));
+
+        // the last sync failed
+        CatalogMirror.recordFailure(getContext());
+        assertFalse(CatalogMirror.canAnswerSearches(getContext(), now));
+        CatalogMirror.recordSync(getContext(), now);
+        assertTrue(CatalogMirror.canAnswerSearches(getContext(), now));
+    }
+
+    public void testFailuresBackOff() {
+        long start = System.currentTimeMillis();
+        CatalogMirror.recordFailure(getContext());
+        long first = CatalogMirror.getNextAttempt(getContext()) - start;
+        assertTrue(first > 0);
+
+        CatalogMirror.recordFailure(getContext());
+        long second = CatalogMirror.getNextAttempt(getContext()) - start;
+        assertTrue(second > first);
+
+        // a successful sync clears the back off
+        CatalogMirror.recordSync(getContext(), start);
+        assertEquals(0, CatalogMirror.getNextAttempt(getContext()));
+    }
+}
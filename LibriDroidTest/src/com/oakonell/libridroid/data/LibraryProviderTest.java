@@ -1,17 +1,34 @@
 package com.oakonell.libridroid.data;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.test.ProviderTestCase2;
 import android.test.mock.MockContentResolver;
+import android.text.TextUtils;
 import android.util.Log;
 
 import com.oakonell.libridroid.Libridroid;
+import com.oakonell.libridroid.impl.Book;
 import com.oakonell.utils.query.BufferedAsyncQueryHelper;
 
 public class LibraryProviderTest extends
@@ -70,6 +87,16 @@ public class LibraryProviderTest extends
          * the helper.
          */
         mDb = getProvider().getOpenHelperForTest().getWritableDatabase();
+
+        // the books queries would otherwise start reading feeds in the
+        // background
+        getProvider().setUrlRepairQueue(new LibrivoxUrlRepairQueue(getProvider().getChangeNotifier(),
+                getProvider().getOpenHelperForTest()) {
+            @Override
+            void requestRepair() {
+                // repaired only when a test asks
+            }
+        });
     }
 
     /*
@@ -579,6 +606,200 @@ public class LibraryProviderTest extends
         assertTrue(1 < cursor.getCount());
     }
 
+    public void testSearchBulkUpsert() {
+        ContentValues emma = searchValues("Emma", "1936");
+        ContentValues moon = searchValues("First Men in the Moon, The", "1430");
+
+        int inserted = mMockResolver.bulkInsert(Libridroid.Search.CONTENT_URI,
+                new ContentValues[] { emma, moon });
+        assertEquals(2, inserted);
+
+        // an existing (librivox id, title) is only touched, not duplicated
+        ContentValues timeMachine = searchValues("Time Machine", "817");
+        inserted = mMockResolver.bulkInsert(Libridroid.Search.CONTENT_URI,
+                new ContentValues[] { emma, timeMachine });
+        assertEquals(1, inserted);
+
+        Cursor cursor = mMockResolver.query(
+                Libridroid.Search.CONTENT_URI, // the URI for the search table
+                null, // no projection, get all columns
+                null, // no selection criteria, get all records
+                null, // no selection arguments
+                null // use default sort order
+                );
+        assertEquals(3, cursor.getCount());
+        int lastUsedIndex = cursor.getColumnIndex(Libridroid.Search.COLUMN_NAME_LAST_USED);
+        while (cursor.moveToNext()) {
+            assertFalse(cursor.isNull(lastUsedIndex));
+        }
+        cursor.close();
+    }
+
+    public void testSearchMirrorUpsert() {
+        ContentValues emma = searchValues("Emma", "1936");
+        emma.put(Libridroid.Search.COLUMN_NAME_AUTHOR, "Austen");
+        mMockResolver.bulkInsert(Libridroid.Search.CONTENT_URI, new ContentValues[] { emma });
+
+        // a catalog sync refreshes the existing row's details and marks it
+        // as mirrored
+        Uri mirrorUri = Libridroid.Search.CONTENT_URI.buildUpon()
+                .appendQueryParameter(Libridroid.Search.MIRROR_PARAM_NAME, "true").build();
+        ContentValues syncedEmma = searchValues("Emma", "1936");
+        syncedEmma.put(Libridroid.Search.COLUMN_NAME_AUTHOR, "Austen, Jane");
+        int inserted = mMockResolver.bulkInsert(mirrorUri,
+                new ContentValues[] { syncedEmma, searchValues("Time Machine", "817") });
+        assertEquals(1, inserted);
+
+        Cursor cursor = mMockResolver.query(Libridroid.Search.CONTENT_URI, null,
+                Libridroid.Search.COLUMN_NAME_MIRRORED + " = 1", null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+
+        cursor = mMockResolver.query(Libridroid.Search.CONTENT_URI,
+                new String[] { Libridroid.Search.COLUMN_NAME_AUTHOR },
+                Libridroid.Search.SEARCH_TABLE_NAME + "." + Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID + " = ?",
+                new String[] { "1936" }, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Austen, Jane", cursor.getString(0));
+        cursor.close();
+    }
+
+    public void testSearchResultCache() {
+        SearchResultCache cache = getProvider().getSearchCache();
+        assertNull(cache.lookup("Jane Austen"));
+
+        cache.stored("Jane Austen", "\"abc\"", "Sat, 01 Jan 2011 00:00:00 GMT");
+        // the key is normalized- case, spacing and punctuation don't matter
+        SearchResultCache.Entry entry = cache.lookup("  jane,  AUSTEN ");
+        assertNotNull(entry);
+        assertTrue(entry.isFresh());
+        assertEquals("\"abc\"", entry.getEtag());
+        assertEquals("Sat, 01 Jan 2011 00:00:00 GMT", entry.getLastModified());
+
+        assertEquals(1, cache.expireStoredBefore(System.currentTimeMillis() + 1));
+        assertNull(cache.lookup("Jane Austen"));
+    }
+
+    public void testFailedSearchNotCached() {
+        Uri uri = Uri.parse("http://catalog.librivox.org/search_xml.php?extended=1&simple=jane+austen");
+        LibrivoxAsyncQueryHelper failing = new LibrivoxAsyncQueryHelper(getProvider(), null);
+        failing.handleResponse(searchResponse(HttpStatus.SC_SERVICE_UNAVAILABLE), uri);
+        // neither read nor cached, so the next search tries again
+        assertNull(getProvider().getSearchCache().lookup("jane austen"));
+        Cursor cursor = mMockResolver.query(Libridroid.Search.CONTENT_URI, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        LibrivoxAsyncQueryHelper succeeding = new LibrivoxAsyncQueryHelper(getProvider(), null);
+        succeeding.handleResponse(searchResponse(HttpStatus.SC_OK), uri);
+        assertTrue(getProvider().getSearchCache().lookup("jane austen").isFresh());
+        cursor = mMockResolver.query(Libridroid.Search.CONTENT_URI, null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+    }
+
+    private static HttpResponse searchResponse(int statusCode) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+        try {
+            response.setEntity(new StringEntity("<results><book><title>Austen, Jane. \"Emma\"</title>"
+                    + "<description>A Description</description><id>1936</id>"
+                    + "<rssurl>http://librivox.org/bookfeeds/emma-by-jane-austen-solo.xml</rssurl>"
+                    + "<NumberOfSections>55</NumberOfSections></book></results>", "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+        return response;
+    }
+
+    public void testSearchFullTextFilter() {
+        ContentValues emma = searchValues("Emma", "1936");
+        emma.put(Libridroid.Search.COLUMN_NAME_AUTHOR, "Austen, Jane");
+        ContentValues moon = searchValues("First Men in the Moon, The", "1430");
+        moon.put(Libridroid.Search.COLUMN_NAME_AUTHOR, "Wells, H. G.");
+        ContentValues timeMachine = searchValues("Time Machine", "817");
+        timeMachine.put(Libridroid.Search.COLUMN_NAME_AUTHOR, "Wells, H. G.");
+        mMockResolver.bulkInsert(Libridroid.Search.CONTENT_URI,
+                new ContentValues[] { emma, moon, timeMachine });
+
+        // prefix match on the author
+        Cursor cursor = mMockResolver.query(filterUri("wel"), null, null, null, null);
+        assertEquals(2, cursor.getCount());
+        cursor.close();
+
+        // every word must match, in any column
+        cursor = mMockResolver.query(filterUri("wells moon"), null, null, null, null);
+        assertEquals(1, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("1430", cursor.getString(cursor
+                .getColumnIndex(Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID)));
+        cursor.close();
+
+        // the index follows deletes
+        mMockResolver.delete(Libridroid.Search.CONTENT_URI,
+                Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID + " = ?", new String[] { "817" });
+        cursor = mMockResolver.query(filterUri("time"), null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testSearchPages() {
+        String[][] books = { { "Time Machine", "817" }, { "Wells of Loneliness", "4001" },
+                { "Invisible Man, The", "4002" }, { "Time Machine", "4003" }, { "Kipps", "4004" } };
+        ContentValues[] values = new ContentValues[books.length];
+        for (int i = 0; i < books.length; i++) {
+            values[i] = searchValues(books[i][0], books[i][1]);
+            values[i].put(Libridroid.Search.COLUMN_NAME_AUTHOR, "Wells, H. G.");
+        }
+        mMockResolver.bulkInsert(Libridroid.Search.CONTENT_URI, values);
+
+        // the pages, read after each other's last row- titles starting with
+        // the word first, then by title, equal titles by id
+        List<String> expected = Arrays.asList("4001", "4002", "4004", "817", "4003");
+
+        List<String> paged = new ArrayList<String>();
+        Uri pageUri = filterUri("wells").buildUpon()
+                .appendQueryParameter(Libridroid.Search.PAGE_SIZE_PARAM_NAME, "2").build();
+        Uri uri = pageUri;
+        for (int page = 0; page < 3; page++) {
+            Cursor cursor = mMockResolver.query(uri, null, null, null, null);
+            try {
+                assertEquals(page < 2 ? 2 : 1, cursor.getCount());
+                while (cursor.moveToNext()) {
+                    paged.add(cursor.getString(cursor.getColumnIndex(Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID)));
+                }
+                assertTrue(cursor.moveToLast());
+                uri = pageUri.buildUpon()
+                        .appendQueryParameter(Libridroid.Search.AFTER_SORT_KEY_PARAM_NAME,
+                                cursor.getString(cursor.getColumnIndex(Libridroid.Search.COLUMN_NAME_SORT_KEY)))
+                        .appendQueryParameter(Libridroid.Search.AFTER_ID_PARAM_NAME,
+                                cursor.getString(cursor.getColumnIndex(Libridroid.Search._ID)))
+                        .build();
+            } finally {
+                cursor.close();
+            }
+        }
+        assertEquals(expected, paged);
+
+        try {
+            mMockResolver.query(pageUri, null, null, null, Libridroid.Search.DEFAULT_SORT_ORDER);
+            fail("a paged search can't be given a sort order");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private Uri filterUri(String filter) {
+        return Uri.parse(Libridroid.Search.CONTENT_URI + "?"
+                + Libridroid.Search.FILTER_PARAM_NAME + "=" + Uri.encode(filter));
+    }
+
+    private ContentValues searchValues(String title, String librivoxId) {
+        ContentValues values = new ContentValues();
+        values.put(Libridroid.Search.COLUMN_NAME_TITLE, title);
+        values.put(Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID, librivoxId);
+        return values;
+    }
+
     public void testSectionInsert() {
         long bookId = mDb.insertOrThrow(
                 Libridroid.Books.BOOK_TABLE_NAME, // the table name for the
@@ -618,6 +839,188 @@ public class LibraryProviderTest extends
 
     }
 
+    public void testBookHeaderRead() {
+        ContentValues values = TEST_BOOKS[1].getContentValues();
+        values.put(Libridroid.Books.COLUMN_NAME_DESCRIPTION, "Emma Woodhouse, handsome, clever, and rich...");
+        values.put(Libridroid.Books.COLUMN_NAME_CURRENT_SECTION, 3);
+        long bookId = mDb.insertOrThrow(Libridroid.Books.BOOK_TABLE_NAME, null, values);
+
+        Book book = Book.readHeader(mMockResolver, bookId);
+        assertEquals(bookId, book.getId());
+        assertEquals("Emma", book.getTitle());
+        assertEquals(3, book.getCurrentSectionNumber());
+        // not in the header, read when asked for
+        assertEquals("Emma Woodhouse, handsome, clever, and rich...", book.getDecription());
+    }
+
+    public void testBookTotals() {
+        long bookId = mDb.insertOrThrow(Libridroid.Books.BOOK_TABLE_NAME, null, TEST_BOOKS[0].getContentValues());
+        Uri sectionsUri = Libridroid.BookSections.contentUri(Long.toString(bookId));
+
+        ContentValues[] sections = new ContentValues[2];
+        for (int i = 0; i < sections.length; i++) {
+            sections[i] = new ContentValues();
+            sections[i].put(Libridroid.BookSections.COLUMN_NAME_BOOK_ID, bookId);
+            sections[i].put(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER, i + 1);
+            sections[i].put(Libridroid.BookSections.COLUMN_NAME_URL, "http://foo.bar/baz" + i + ".mp3");
+        }
+        sections[0].put(Libridroid.BookSections.COLUMN_NAME_SIZE, "1024");
+        sections[0].put(Libridroid.BookSections.COLUMN_NAME_DURATION, "21:37");
+        sections[1].put(Libridroid.BookSections.COLUMN_NAME_SIZE, "2048");
+        sections[1].put(Libridroid.BookSections.COLUMN_NAME_DURATION, "1:02:03");
+        mMockResolver.bulkInsert(sectionsUri, sections);
+
+        Uri bookUri = ContentUris.withAppendedId(Libridroid.Books.CONTENT_ID_URI_BASE, bookId);
+        assertBookTotals(bookUri, 1297000 + 3723000, 1024 + 2048, 2);
+
+        // the actual size read on download replaces the feed's
+        ContentValues size = new ContentValues();
+        size.put(Libridroid.BookSections.COLUMN_NAME_SIZE, 4096);
+        mMockResolver.update(Libridroid.BookSections.contentUri(Long.toString(bookId), 2), size, null, null);
+        assertBookTotals(bookUri, 1297000 + 3723000, 1024 + 4096, 2);
+
+        mDb.delete(Libridroid.BookSections.BOOK_SECTION_TABLE_NAME, Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER
+                + " = 1", null);
+        assertBookTotals(bookUri, 3723000, 4096, 1);
+    }
+
+    private void assertBookTotals(Uri bookUri, long durationMs, long sizeBytes, int sectionCount) {
+        Cursor cursor = mMockResolver.query(bookUri, new String[] { Libridroid.Books.COLUMN_NAME_TOTAL_DURATION_MS,
+                Libridroid.Books.COLUMN_NAME_TOTAL_SIZE_BYTES, Libridroid.Books.COLUMN_NAME_SECTION_COUNT },
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(durationMs, cursor.getLong(0));
+        assertEquals(sizeBytes, cursor.getLong(1));
+        assertEquals(sectionCount, cursor.getInt(2));
+        cursor.close();
+    }
+
+    public void testSectionUniqueness() {
+        ContentValues section = new ContentValues();
+        section.put(Libridroid.BookSections.COLUMN_NAME_BOOK_ID, 1);
+        section.put(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER, 1);
+        mDb.insertOrThrow(Libridroid.BookSections.BOOK_SECTION_TABLE_NAME, null, section);
+        try {
+            mDb.insertOrThrow(Libridroid.BookSections.BOOK_SECTION_TABLE_NAME, null, section);
+            fail("Expected a duplicate section to be rejected");
+        } catch (SQLException e) {
+            // expected
+        }
+    }
+
+    public void testSectionLookupsUseIndex() {
+        String plan = queryPlan("SELECT * FROM " + Libridroid.BookSections.BOOK_SECTION_TABLE_NAME + " WHERE "
+                + Libridroid.BookSections.COLUMN_NAME_BOOK_ID + " = ?", new String[] { "1" });
+        assertTrue(plan, plan.contains(BookDatabaseHelper.SECTION_BOOK_SECTION_INDEX_NAME));
+
+        plan = queryPlan("SELECT * FROM " + Libridroid.BookSections.BOOK_SECTION_TABLE_NAME + " WHERE "
+                + Libridroid.BookSections.COLUMN_NAME_BOOK_ID + " = ? AND "
+                + Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER + " = ?", new String[] { "1", "2" });
+        assertTrue(plan, plan.contains(BookDatabaseHelper.SECTION_BOOK_SECTION_INDEX_NAME));
+    }
+
+    public void testSearchLookupsUseIndex() {
+        String plan = queryPlan("SELECT _id FROM " + Libridroid.Search.SEARCH_TABLE_NAME + " WHERE "
+                + Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID + " = ? AND "
+                + Libridroid.Search.COLUMN_NAME_TITLE + " = ?", new String[] { "1936", "Emma" });
+        assertTrue(plan, plan.contains(BookDatabaseHelper.SEARCH_LIBRIVOX_ID_TITLE_INDEX_NAME));
+    }
+
+    public void testLibrivoxUrlRepair() {
+        insertData();
+        ContentValues values = new ContentValues();
+        values.put(Libridroid.Books.COLUMN_NAME_LIBRIVOX_URL, "http://librivox.org/emma-by-jane-austen/");
+        mDb.update(Libridroid.Books.BOOK_TABLE_NAME, values, Libridroid.Books.COLUMN_NAME_TITLE + " = ?",
+                new String[] { "Emma" });
+
+        final List<String> feedsRead = new ArrayList<String>();
+        LibrivoxUrlRepairQueue queue = new LibrivoxUrlRepairQueue(getProvider().getChangeNotifier(),
+                getProvider().getOpenHelperForTest()) {
+            @Override
+            String readLibrivoxUrl(String rssUrl) {
+                feedsRead.add(rssUrl);
+                if (rssUrl.contains("dolls-house")) {
+                    // eg, offline
+                    return null;
+                }
+                return "http://librivox.org/" + feedsRead.size();
+            }
+        };
+
+        // only the books missing the url are read, the unreadable one is left
+        // for a retry
+        assertEquals(1, queue.repairAll());
+        assertEquals(3, feedsRead.size());
+
+        // and only retried a few times
+        assertEquals(1, queue.repairAll());
+        assertEquals(0, queue.repairAll());
+        assertEquals(5, feedsRead.size());
+        assertEquals(0, queue.repairAll());
+        assertEquals(5, feedsRead.size());
+        Cursor cursor = mDb.query(Libridroid.Books.BOOK_TABLE_NAME,
+                new String[] { Libridroid.Books.COLUMN_NAME_TITLE, Libridroid.Books.COLUMN_NAME_LIBRIVOX_URL },
+                null, null, null, null, Libridroid.Books.COLUMN_NAME_TITLE);
+        Map<String, String> librivoxUrls = new HashMap<String, String>();
+        while (cursor.moveToNext()) {
+            librivoxUrls.put(cursor.getString(0), cursor.getString(1));
+        }
+        cursor.close();
+        assertEquals("http://librivox.org/emma-by-jane-austen/", librivoxUrls.get("Emma"));
+        assertEquals("http://librivox.org/1", librivoxUrls.get("War of the Worlds"));
+        assertEquals("http://librivox.org/2", librivoxUrls.get("Time Machine"));
+        assertNull(librivoxUrls.get("Doll's House"));
+
+        // a book without a feed can never be repaired, it is not retried
+        ContentValues noFeed = TEST_BOOKS[0].getContentValues();
+        noFeed.put(Libridroid.Books.COLUMN_NAME_RSS_URL, "");
+        noFeed.put(Libridroid.Books.COLUMN_NAME_LIBRIVOX_ID, "no-feed");
+        mDb.insertOrThrow(Libridroid.Books.BOOK_TABLE_NAME, null, noFeed);
+        final List<String> noFeedsRead = new ArrayList<String>();
+        LibrivoxUrlRepairQueue realQueue = new LibrivoxUrlRepairQueue(getProvider().getChangeNotifier(),
+                getProvider().getOpenHelperForTest()) {
+            @Override
+            String readLibrivoxUrl(String rssUrl) {
+                // (without going to the network for the others)
+                if (!TextUtils.isEmpty(rssUrl)) {
+                    return null;
+                }
+                noFeedsRead.add(rssUrl);
+                return super.readLibrivoxUrl(rssUrl);
+            }
+        };
+        assertEquals(1, realQueue.repairAll());
+        assertEquals(1, noFeedsRead.size());
+        realQueue.repairAll();
+        assertEquals(1, noFeedsRead.size());
+
+        // the parser stops at the channel's link
+        String feed = "<rss version=\"2.0\"><channel><title><![CDATA[Emma by Austen, Jane]]></title>"
+                + "<link><![CDATA[http://librivox.org/emma-by-jane-austen/]]></link>"
+                + "<item><link>http://librivox.org/not-this/</link></item></channel></rss>";
+        try {
+            assertEquals("http://librivox.org/emma-by-jane-austen/", LibrivoxUrlRepairQueue
+                    .parseChannelLink(new InputStreamReader(new ByteArrayInputStream(feed.getBytes()))));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the detail lines of the query plan
+     */
+    private String queryPlan(String sql, String[] selectionArgs) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        StringBuilder plan = new StringBuilder();
+        // the detail is the last column, however many precede it
+        int detailIndex = cursor.getColumnCount() - 1;
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detailIndex)).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+
     public void testSectionQuery() {
         long bookId = mDb.insertOrThrow(
                 Libridroid.Books.BOOK_TABLE_NAME, // the table name for the
@@ -757,4 +1160,53 @@ public class LibraryProviderTest extends
             getProvider().setSectionsAsyncQueryHelper(oldHelper);
         }
     }
+
+    public void testIncompleteSectionsRefetched() {
+        ContentValues book = TEST_BOOKS[1].getContentValues();
+        book.put(Libridroid.Books.COLUMN_NAME_NUM_SECTIONS, 2);
+        long bookId = mDb.insertOrThrow(Libridroid.Books.BOOK_TABLE_NAME, null, book);
+        final Uri sectionsUri = Libridroid.BookSections.contentUri(Long.toString(bookId));
+        // a feed that stopped after its first section
+        mMockResolver.insert(sectionsUri, section(bookId, 1, "http://foo.bar/partial.mp3"));
+
+        final int[] count = new int[] { 0 };
+        BufferedAsyncQueryHelper oldHelper = getProvider().setSectionsAsyncQueryHelper(
+                new BufferedAsyncQueryHelper() {
+                    @Override
+                    public void asyncQueryRequest(String queryText, Map<String, String> extraInputs) {
+                        long id = Long.parseLong(extraInputs.get("bookId"));
+                        Uri replaceUri = sectionsUri.buildUpon()
+                                .appendQueryParameter(Libridroid.BookSections.REPLACE_PARAM_NAME, "true").build();
+                        mMockResolver.bulkInsert(replaceUri, new ContentValues[] {
+                                section(id, 1, "http://foo.bar/baz1.mp3"), section(id, 2, "http://foo.bar/baz2.mp3") });
+                        count[0]++;
+                    }
+                });
+        try {
+            Cursor cursor = mMockResolver.query(sectionsUri, null, null, null,
+                    Libridroid.BookSections.DEFAULT_SORT_ORDER);
+            assertEquals(1, count[0]);
+            cursor.requery();
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("http://foo.bar/baz1.mp3",
+                    cursor.getString(cursor.getColumnIndex(Libridroid.BookSections.COLUMN_NAME_URL)));
+            cursor.close();
+
+            // complete now, not fetched again
+            cursor = mMockResolver.query(sectionsUri, null, null, null, null);
+            assertEquals(1, count[0]);
+            cursor.close();
+        } finally {
+            getProvider().setSectionsAsyncQueryHelper(oldHelper);
+        }
+    }
+
+    private static ContentValues section(long bookId, int sectionNumber, String url) {
+        ContentValues values = new ContentValues();
+        values.put(Libridroid.BookSections.COLUMN_NAME_BOOK_ID, bookId);
+        values.put(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER, sectionNumber);
+        values.put(Libridroid.BookSections.COLUMN_NAME_URL, url);
+        return values;
+    }
 }
@@ -0,0 +1,62 @@
+package com.oakonell.libridroid.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.oakonell.libridroid.Libridroid;
+import com.oakonell.libridroid.data.LibrivoxSectionsParser.SectionParsedCallback;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+
+public class LibrivoxSectionsParserTest extends AndroidTestCase {
+	private static final String FEED = "<rss xmlns:itunes=\"http://www.itunes.com/dtds/podcast-1.0.dtd\" version=\"2.0\"><channel>"
+			+ "<title><![CDATA[Emma by Austen, Jane]]></title>"
+			+ "<link><![CDATA[http://librivox.org/emma-by-jane-austen/]]></link>"
+			+ "<item><title><![CDATA[01 \"Chapter 1\" by Jane Austen]]></title>"
+			+ "<enclosure url=\"http://www.archive.org/download/emma_01.mp3\" length=\"10377635\" type=\"audio/mpeg\" />"
+			+ "<itunes:duration>21:37</itunes:duration></item>"
+			+ "<item><title><![CDATA[Chapter 2]]></title>"
+			+ "<enclosure url=\"http://www.archive.org/download/emma_02.mp3\" length=\"2048\" type=\"audio/mpeg\" />"
+			+ "<itunes:duration>1:02:03</itunes:duration></item>"
+			+ "</channel></rss>";
+
+	public void testSections() throws IOException {
+		InputStream in = new ByteArrayInputStream(FEED.getBytes());
+		InputStreamReader reader = new InputStreamReader(in);
+
+		final List<ContentValues> sections = new ArrayList<ContentValues>();
+
+		LibrivoxSectionsParser parser = new LibrivoxSectionsParser(reader, "7",
+				new SectionParsedCallback() {
+					@Override
+					public void finishedSection(ContentValues values) {
+						sections.add(values);
+					}
+				});
+
+		int num = parser.parse();
+		assertEquals(2, num);
+		assertEquals(2, sections.size());
+
+		ContentValues section = sections.get(0);
+		assertEquals("7", section.getAsString(Libridroid.BookSections.COLUMN_NAME_BOOK_ID));
+		assertEquals(1, section.getAsInteger(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER).intValue());
+		assertEquals("Chapter 1", section.getAsString(Libridroid.BookSections.COLUMN_NAME_SECTION_TITLE));
+		assertEquals("Jane Austen", section.getAsString(Libridroid.BookSections.COLUMN_NAME_SECTION_AUTHOR));
+		assertEquals("http://www.archive.org/download/emma_01.mp3",
+				section.getAsString(Libridroid.BookSections.COLUMN_NAME_URL));
+		assertEquals("10377635", section.getAsString(Libridroid.BookSections.COLUMN_NAME_SIZE));
+		assertEquals("21:37", section.getAsString(Libridroid.BookSections.COLUMN_NAME_DURATION));
+
+		section = sections.get(1);
+		assertEquals(2, section.getAsInteger(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER).intValue());
+		assertEquals("Chapter 2", section.getAsString(Libridroid.BookSections.COLUMN_NAME_SECTION_TITLE));
+		assertEquals("", section.getAsString(Libridroid.BookSections.COLUMN_NAME_SECTION_AUTHOR));
+		assertEquals("1:02:03", section.getAsString(Libridroid.BookSections.COLUMN_NAME_DURATION));
+	}
+}
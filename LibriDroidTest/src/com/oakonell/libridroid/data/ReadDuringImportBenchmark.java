@@ -0,0 +1,138 @@
+package com.oakonell.libridroid.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.ProviderTestCase2;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.oakonell.libridroid.Libridroid;
+
+/**
+ * Times the library list query on its own and while a catalog import writes
+ * the search table, to show the query isn't held behind the import. Only
+ * its timings in the log are of interest, and it takes a while, so it is
+ * kept out of the regular tests- run it on its own, eg
+ *
+ * adb shell am instrument -w -e class
+ * com.oakonell.libridroid.data.ReadDuringImportBenchmark
+ * com.oakonell.libridroid.test/android.test.InstrumentationTestRunner
+ *
+ * and leave it out of a full run with -e notAnnotation
+ * android.test.suitebuilder.annotation.LargeTest
+ */
+public class ReadDuringImportBenchmark extends ProviderTestCase2<LibraryContentProvider> {
+    private static final int BOOKS = 50;
+    private static final int IDLE_QUERIES = 100;
+    private static final int IMPORT_ROWS = 20000;
+    // as the catalog mirror hands them to the provider
+    private static final int IMPORT_BATCH_SIZE = 100;
+
+    public ReadDuringImportBenchmark() {
+        super(LibraryContentProvider.class, Libridroid.AUTHORITY);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // the books query would otherwise start reading feeds
+        getProvider().setUrlRepairQueue(new LibrivoxUrlRepairQueue(getProvider().getChangeNotifier(),
+                getProvider().getOpenHelperForTest()) {
+            @Override
+            void requestRepair() {
+                // not repaired
+            }
+        });
+        SQLiteDatabase db = getProvider().getOpenHelperForTest().getWritableDatabase();
+        for (int i = 0; i < BOOKS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(Libridroid.Books.COLUMN_NAME_TITLE, "Book " + i);
+            values.put(Libridroid.Books.COLUMN_NAME_AUTHOR, "Author " + i);
+            values.put(Libridroid.Books.COLUMN_NAME_LIBRIVOX_ID, Integer.toString(i));
+            db.insertOrThrow(Libridroid.Books.BOOK_TABLE_NAME, null, values);
+        }
+    }
+
+    /**
+     * Logs the list query's median and worst latency, idle and during an
+     * import.
+     */
+    @LargeTest
+    public void testListQueryLatencyDuringImport() throws Exception {
+        // warm up
+        queryBooks();
+
+        List<Long> idle = new ArrayList<Long>();
+        for (int i = 0; i < IDLE_QUERIES; i++) {
+            idle.add(queryBooks());
+        }
+
+        final Throwable[] failure = new Throwable[1];
+        Thread importing = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    importCatalog();
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        }, "ReadDuringImportBenchmark import");
+        List<Long> duringImport = new ArrayList<Long>();
+        long start = System.nanoTime();
+        importing.start();
+        while (importing.isAlive()) {
+            duringImport.add(queryBooks());
+        }
+        long importNanos = System.nanoTime() - start;
+        assertNull(failure[0]);
+        assertFalse(duringImport.isEmpty());
+
+        Log.i("ReadDuringImportBenchmark", "Idle: " + describe(idle));
+        Log.i("ReadDuringImportBenchmark", "During a " + IMPORT_ROWS + " row import (" + importNanos / 1000000
+                + " ms): " + describe(duringImport));
+    }
+
+    /**
+     * @return the nanoseconds to query and read the list
+     */
+    private long queryBooks() {
+        long start = System.nanoTime();
+        Cursor cursor = getMockContentResolver().query(Libridroid.Books.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(BOOKS, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private void importCatalog() {
+        Uri mirror = Libridroid.Search.CONTENT_URI.buildUpon()
+                .appendQueryParameter(Libridroid.Search.MIRROR_PARAM_NAME, "true").build();
+        for (int batch = 0; batch < IMPORT_ROWS / IMPORT_BATCH_SIZE; batch++) {
+            ContentValues[] rows = new ContentValues[IMPORT_BATCH_SIZE];
+            for (int i = 0; i < rows.length; i++) {
+                int id = batch * IMPORT_BATCH_SIZE + i;
+                rows[i] = new ContentValues();
+                rows[i].put(Libridroid.Search.COLUMN_NAME_LIBRIVOX_ID, Integer.toString(id));
+                rows[i].put(Libridroid.Search.COLUMN_NAME_TITLE, "Catalog book " + id);
+                rows[i].put(Libridroid.Search.COLUMN_NAME_AUTHOR, "Catalog author " + id);
+            }
+            getProvider().bulkInsert(mirror, rows);
+        }
+    }
+
+    private static String describe(List<Long> nanos) {
+        List<Long> sorted = new ArrayList<Long>(nanos);
+        Collections.sort(sorted);
+        return String.format("%d queries, median %.2f ms, worst %.2f ms", sorted.size(),
+                sorted.get(sorted.size() / 2) / 1e6, sorted.get(sorted.size() - 1) / 1e6);
+    }
+}
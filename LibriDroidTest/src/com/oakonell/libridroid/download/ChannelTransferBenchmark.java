@@ -0,0 +1,145 @@
+package com.oakonell.libridroid.download;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Compares the channel transfer with the download loop it replaced, against
+ * a local server. Only its timings in the log are of interest, and it takes
+ * a while, so it is kept out of the regular tests- run it on its own, eg
+ *
+ * adb shell am instrument -w -e class
+ * com.oakonell.libridroid.download.ChannelTransferBenchmark
+ * com.oakonell.libridroid.test/android.test.InstrumentationTestRunner
+ *
+ * and leave it out of a full run with -e notAnnotation
+ * android.test.suitebuilder.annotation.LargeTest
+ */
+public class ChannelTransferBenchmark extends AndroidTestCase {
+    private static final int BENCHMARK_BYTES = 8 * 1024 * 1024;
+    private static final int OLD_BUFFER_SIZE = 1024 * 12;
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "benchmark.mp3");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    /**
+     * Downloads from a local server with the old per-read flushing loop and
+     * with the channel transfer, and logs the throughput and CPU use of each.
+     */
+    @LargeTest
+    public void testBenchmarkAgainstLocalServer() throws Exception {
+        byte[] data = ChannelTransferTest.bytes(BENCHMARK_BYTES);
+        // warm up both
+        download(data, false);
+        download(data, true);
+
+        long[] old = download(data, false);
+        assertContents(data);
+        long[] channel = download(data, true);
+        assertContents(data);
+
+        Log.i("ChannelTransferBenchmark", "Per read flush: " + describe(old));
+        Log.i("ChannelTransferBenchmark", "Channel transfer: " + describe(channel));
+    }
+
+    /**
+     * @return the elapsed and thread CPU nanoseconds of the download
+     */
+    private long[] download(byte[] data, boolean useChannel) throws Exception {
+        file.delete();
+        LocalHttpServer server = new LocalHttpServer(data);
+        try {
+            URL url = new URL(server.getUrl());
+            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+            try {
+                long start = System.nanoTime();
+                long startCpu = Debug.threadCpuTimeNanos();
+                InputStream in = urlConnection.getInputStream();
+                try {
+                    if (useChannel) {
+                        transferToFile(in);
+                    } else {
+                        copyFlushingEachRead(in);
+                    }
+                } finally {
+                    in.close();
+                }
+                return new long[] { System.nanoTime() - start, Debug.threadCpuTimeNanos() - startCpu };
+            } finally {
+                urlConnection.disconnect();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private void transferToFile(InputStream in) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            new ChannelTransfer().transfer(in, out.getChannel(), 0, -1, ChannelTransferTest.keepGoing());
+        } finally {
+            out.close();
+        }
+    }
+
+    // the download loop as it was
+    private void copyFlushingEachRead(InputStream stream) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(stream, OLD_BUFFER_SIZE);
+        BufferedOutputStream bout = new BufferedOutputStream(new FileOutputStream(file), OLD_BUFFER_SIZE);
+        try {
+            byte[] data = new byte[OLD_BUFFER_SIZE];
+            int numBytesRead;
+            while ((numBytesRead = in.read(data, 0, OLD_BUFFER_SIZE)) >= 0) {
+                bout.write(data, 0, numBytesRead);
+                bout.flush();
+                Thread.yield();
+            }
+        } finally {
+            bout.close();
+        }
+    }
+
+    private static String describe(long[] nanos) {
+        double megabytes = BENCHMARK_BYTES / (1024.0 * 1024.0);
+        double seconds = nanos[0] / 1e9;
+        double cpuMs = nanos[1] / 1e6;
+        return String.format("%.1f MB/s, %.1f ms CPU per MB", megabytes / seconds, cpuMs / megabytes);
+    }
+
+    private void assertContents(byte[] expected) throws IOException {
+        assertEquals(expected.length, file.length());
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] actual = new byte[expected.length];
+            in.readFully(actual);
+            assertTrue(Arrays.equals(expected, actual));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.oakonell.libridroid.download;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import android.test.AndroidTestCase;
+
+public class ChannelTransferTest extends AndroidTestCase {
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "transfer.mp3");
+        file.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testTransferWholeStream() throws IOException {
+        byte[] data = bytes(100 * 1000);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            ChannelTransfer transfer = new ChannelTransfer(4096, 1000, ChannelTransfer.UNTHROTTLED);
+            long position = transfer.transfer(new ByteArrayInputStream(data), out.getChannel(), 0, -1, keepGoing());
+            assertEquals(data.length, position);
+        } finally {
+            out.close();
+        }
+        assertContents(data, 0, data.length);
+    }
+
+    public void testTransferStopsAtEnd() throws IOException {
+        byte[] data = bytes(50 * 1000);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(data.length);
+            // the middle of the file, from a stream of the whole file
+            InputStream in = new ByteArrayInputStream(data, 10000, data.length - 10000);
+            ChannelTransfer transfer = new ChannelTransfer(4096, 4096, ChannelTransfer.UNTHROTTLED);
+            long position = transfer.transfer(in, out.getChannel(), 10000, 30000, keepGoing());
+            assertEquals(30000, position);
+        } finally {
+            out.close();
+        }
+        assertContents(data, 10000, 30000);
+    }
+
+    public void testListenerStops() throws IOException {
+        byte[] data = bytes(100 * 1000);
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            ChannelTransfer transfer = new ChannelTransfer(4096, 2048, ChannelTransfer.UNTHROTTLED);
+            long position = transfer.transfer(new ByteArrayInputStream(data), out.getChannel(), 0, -1,
+                    new ChannelTransfer.Listener() {
+                        @Override
+                        public boolean written(long written) {
+                            return written < 10000;
+                        }
+                    });
+            assertTrue(position >= 10000);
+            assertTrue(position < data.length);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertContents(byte[] expected, int from, int to) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] actual = new byte[to - from];
+            in.seek(from);
+            in.readFully(actual);
+            for (int i = 0; i < actual.length; i++) {
+                assertEquals("Byte " + (from + i), expected[from + i], actual[i]);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] bytes(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + i / 251);
+        }
+        return data;
+    }
+
+    static ChannelTransfer.Listener keepGoing() {
+        return new ChannelTransfer.Listener() {
+            @Override
+            public boolean written(long position) {
+                return true;
+            }
+        };
+    }
+}
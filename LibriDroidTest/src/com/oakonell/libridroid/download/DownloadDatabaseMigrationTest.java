@@ -0,0 +1,104 @@
+package com.oakonell.libridroid.download;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+/**
+ * Upgrades a download queue saved at each older schema version and checks
+ * that it is kept, and that the result matches a freshly created database.
+ */
+public class DownloadDatabaseMigrationTest extends AndroidTestCase {
+    private static final String OLD_DATABASE_NAME = "download_migration_test_old.db";
+    private static final String FRESH_DATABASE_NAME = "download_migration_test_fresh.db";
+
+    // the version 7 layout, as shipped
+    private static final String VERSION_7_DOWNLOAD_TABLE = "CREATE TABLE downloads (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+            + "url TEXT, book_id INTEGER, section_number INTEGER, downloaded_bytes INTEGER, total_bytes INTEGER, "
+            + "sequence INTEGER);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(OLD_DATABASE_NAME);
+        getContext().deleteDatabase(FRESH_DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        getContext().deleteDatabase(OLD_DATABASE_NAME);
+        getContext().deleteDatabase(FRESH_DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testUpgradeFromVersion7() {
+        DownloadDatabaseHelper freshHelper = new DownloadDatabaseHelper(getContext(), FRESH_DATABASE_NAME, null);
+        String freshSchema = describeColumns(freshHelper.getReadableDatabase());
+        freshHelper.close();
+
+        createQueue();
+
+        DownloadDatabaseHelper helper = new DownloadDatabaseHelper(getContext(), OLD_DATABASE_NAME, null);
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            assertEquals(freshSchema, describeColumns(db));
+
+            // the queued downloads are kept, and have no segments yet
+            assertEquals("2", queryString(db, "SELECT COUNT(*) FROM downloads"));
+            assertEquals("http://www.archive.org/download/emma_02.mp3 4096 20480",
+                    queryString(db, "SELECT url || ' ' || downloaded_bytes || ' ' || total_bytes "
+                            + "FROM downloads WHERE section_number = 2"));
+            assertEquals("0", queryString(db, "SELECT COUNT(*) FROM downloads WHERE segments IS NOT NULL"));
+        } finally {
+            helper.close();
+        }
+    }
+
+    private void createQueue() {
+        SQLiteDatabase db = getContext().openOrCreateDatabase(OLD_DATABASE_NAME, Context.MODE_PRIVATE, null);
+        try {
+            db.execSQL(VERSION_7_DOWNLOAD_TABLE);
+            db.execSQL("INSERT INTO downloads (url, book_id, section_number, downloaded_bytes, total_bytes, sequence) "
+                    + "VALUES ('http://www.archive.org/download/emma_01.mp3', 1, 1, 0, 10240, 1)");
+            db.execSQL("INSERT INTO downloads (url, book_id, section_number, downloaded_bytes, total_bytes, sequence) "
+                    + "VALUES ('http://www.archive.org/download/emma_02.mp3', 1, 2, 4096, 20480, 2)");
+            db.setVersion(7);
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * @return the download table's columns- a column added by ALTER TABLE
+     *         compares equal to one created with its table
+     */
+    private String describeColumns(SQLiteDatabase db) {
+        StringBuilder builder = new StringBuilder();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(downloads)", null);
+        try {
+            int nameIndex = cursor.getColumnIndex("name");
+            int typeIndex = cursor.getColumnIndex("type");
+            int defaultIndex = cursor.getColumnIndex("dflt_value");
+            int keyIndex = cursor.getColumnIndex("pk");
+            while (cursor.moveToNext()) {
+                builder.append(cursor.getString(nameIndex)).append(' ').append(cursor.getString(typeIndex))
+                        .append(" default=").append(cursor.getString(defaultIndex))
+                        .append(" pk=").append(cursor.getString(keyIndex)).append(", ");
+            }
+        } finally {
+            cursor.close();
+        }
+        return builder.toString();
+    }
+
+    private String queryString(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            assertTrue(sql, cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
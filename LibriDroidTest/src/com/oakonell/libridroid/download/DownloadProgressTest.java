@@ -0,0 +1,77 @@
+package com.oakonell.libridroid.download;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+public class DownloadProgressTest extends AndroidTestCase {
+    private static final String URL = "http://www.archive.org/download/emma_01.mp3";
+
+    public void testPublishesToListeners() {
+        DownloadProgress bus = new DownloadProgress();
+        final List<DownloadProgress.Event> events = new ArrayList<DownloadProgress.Event>();
+        bus.addListener(new DownloadProgress.Listener() {
+            @Override
+            public void progressed(DownloadProgress.Event event) {
+                events.add(event);
+            }
+        });
+
+        DownloadProgress.Tracker tracker = bus.track(download(1, 3), 100, 1000, true);
+        assertEquals(1, events.size());
+        assertEquals(DownloadProgress.State.STARTED, events.get(0).getState());
+        assertEquals(1, bus.getRunning().size());
+        assertSame(events.get(0), bus.getLatest(1));
+        assertSame(events.get(0), bus.getLatest("7", 3));
+        assertNull(bus.getLatest("7", 4));
+        assertEquals(100, bus.getLatest(1).getPlayableBytes());
+
+        tracker.finished(1000, true);
+        assertEquals(2, events.size());
+        assertEquals(DownloadProgress.State.FINISHED, events.get(1).getState());
+        assertTrue(bus.getRunning().isEmpty());
+        assertNull(bus.getLatest(1));
+    }
+
+    public void testUpdatesArePaced() {
+        DownloadProgress bus = new DownloadProgress();
+        final List<DownloadProgress.Event> events = new ArrayList<DownloadProgress.Event>();
+        bus.addListener(new DownloadProgress.Listener() {
+            @Override
+            public void progressed(DownloadProgress.Event event) {
+                events.add(event);
+            }
+        });
+
+        DownloadProgress.Tracker tracker = bus.track(download(1, 3), 0, 1000, true);
+        // straight after starting, too soon to publish again
+        tracker.update(10, 1000);
+        tracker.update(20, 1000);
+        assertEquals(1, events.size());
+        assertEquals(0, bus.getLatest(1).getDownloaded());
+    }
+
+    public void testSegmentedIsNotPlayableUntilFinished() {
+        DownloadProgress bus = new DownloadProgress();
+        DownloadProgress.Tracker tracker = bus.track(download(2, 5), 600, 1000, false);
+        assertEquals(600, bus.getLatest(2).getDownloaded());
+        assertEquals(0, bus.getLatest(2).getPlayableBytes());
+        tracker.finished(400, false);
+        assertNull(bus.getLatest(2));
+    }
+
+    public void testSecondsLeft() {
+        DownloadProgress.Event unknown = new DownloadProgress.Event(1, "7", 3, "Emma 3", 100, 1000, 0, true,
+                DownloadProgress.State.DOWNLOADING);
+        assertEquals(-1, unknown.getSecondsLeft());
+
+        DownloadProgress.Event event = new DownloadProgress.Event(1, "7", 3, "Emma 3", 100, 1000, 30, true,
+                DownloadProgress.State.DOWNLOADING);
+        assertEquals(30, event.getSecondsLeft());
+    }
+
+    private QueuedDownload download(long id, long sectionNumber) {
+        return new QueuedDownload(id, "7", sectionNumber, URL, 1000, 0, "Emma", "1936", null, null);
+    }
+}
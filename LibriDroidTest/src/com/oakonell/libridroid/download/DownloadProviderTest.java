@@ -1,5 +1,7 @@
 package com.oakonell.libridroid.download;
 
+import com.oakonell.libridroid.Libridroid;
+import com.oakonell.libridroid.data.BookDatabaseHelper;
 import com.oakonell.libridroid.download.Download;
 import com.oakonell.libridroid.download.DownloadContentProvider;
 import com.oakonell.libridroid.download.Download.Downloads;
@@ -495,6 +497,83 @@ public class DownloadProviderTest extends
 		assertEquals(inputNoteId, cursor.getInt(0));
 	}
 
+	public void testQueueJoinsLibrary() {
+		BookDatabaseHelper libraryHelper = new BookDatabaseHelper(
+				getMockContext(), BookDatabaseHelper.DATABASE_NAME, null);
+		SQLiteDatabase library = libraryHelper.getWritableDatabase();
+		ContentValues book = new ContentValues();
+		book.put(Libridroid.Books.COLUMN_NAME_TITLE, "Emma");
+		book.put(Libridroid.Books.COLUMN_NAME_LIBRIVOX_ID, "1936");
+		long bookId = library.insertOrThrow(
+				Libridroid.Books.BOOK_TABLE_NAME, null, book);
+		ContentValues section = new ContentValues();
+		section.put(Libridroid.BookSections.COLUMN_NAME_BOOK_ID, bookId);
+		section.put(Libridroid.BookSections.COLUMN_NAME_SECTION_NUMBER, 2);
+		section.put(Libridroid.BookSections.COLUMN_NAME_SECTION_TITLE,
+				"Chapter 2");
+		section.put(Libridroid.BookSections.COLUMN_NAME_URL,
+				"http://www.archive.org/download/emma_02.mp3");
+		library.insertOrThrow(
+				Libridroid.BookSections.BOOK_SECTION_TABLE_NAME, null, section);
+		libraryHelper.close();
+
+		mDb.insertOrThrow(Download.Downloads.DOWNLOAD_TABLE_NAME, null,
+				new DownloadInfo(bookId, 2, 0,
+						"http://www.archive.org/download/emma_02.mp3", 2048, 0)
+						.getContentValues());
+		// a book since removed from the library
+		mDb.insertOrThrow(Download.Downloads.DOWNLOAD_TABLE_NAME, null,
+				new DownloadInfo(bookId + 1, 1, 1, "", 1024, 0)
+						.getContentValues());
+
+		Cursor cursor = mMockResolver.query(Download.Queue.CONTENT_URI, null,
+				null, null, null);
+		try {
+			assertEquals(2, cursor.getCount());
+			assertTrue(cursor.moveToFirst());
+			assertEquals("Emma", cursor.getString(cursor
+					.getColumnIndex(Download.Queue.COLUMN_NAME_BOOK_TITLE)));
+			assertEquals("1936", cursor.getString(cursor
+					.getColumnIndex(Download.Queue.COLUMN_NAME_LIBRIVOX_ID)));
+			assertEquals("Chapter 2", cursor.getString(cursor
+					.getColumnIndex(Download.Queue.COLUMN_NAME_SECTION_TITLE)));
+			assertEquals(2, cursor.getLong(cursor
+					.getColumnIndex(Download.Downloads.COLUMN_NAME_SECTION_NUM)));
+			assertEquals("2_emma_02.mp3", cursor.getString(cursor
+					.getColumnIndex(Download.Queue.COLUMN_NAME_FILE_NAME)));
+
+			assertTrue(cursor.moveToNext());
+			assertTrue(cursor.isNull(cursor
+					.getColumnIndex(Download.Queue.COLUMN_NAME_BOOK_TITLE)));
+		} finally {
+			cursor.close();
+		}
+	}
+
+	public void testQueueFileNameProjected() {
+		mDb.insertOrThrow(Download.Downloads.DOWNLOAD_TABLE_NAME, null,
+				new DownloadInfo(1, 3, 0,
+						"http://www.archive.org/download/emma_03.mp3", 2048, 0)
+						.getContentValues());
+		// the queue is empty without a library to join
+		new BookDatabaseHelper(getMockContext(),
+				BookDatabaseHelper.DATABASE_NAME, null).getWritableDatabase()
+				.close();
+
+		// the columns the name is made from are queried, though not asked for
+		Cursor cursor = mMockResolver.query(Download.Queue.CONTENT_URI,
+				new String[] { Download.Downloads._ID,
+						Download.Queue.COLUMN_NAME_FILE_NAME }, null, null,
+				null);
+		try {
+			assertTrue(cursor.moveToFirst());
+			assertEquals("3_emma_03.mp3", cursor.getString(cursor
+					.getColumnIndexOrThrow(Download.Queue.COLUMN_NAME_FILE_NAME)));
+		} finally {
+			cursor.close();
+		}
+	}
+
 	private static final class DownloadInfo {
 		long bookId;
 		long sectionNumber;
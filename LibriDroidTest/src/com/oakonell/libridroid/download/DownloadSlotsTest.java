@@ -0,0 +1,90 @@
+package com.oakonell.libridroid.download;
+
+import android.test.AndroidTestCase;
+
+public class DownloadSlotsTest extends AndroidTestCase {
+    private static final String ARCHIVE_URL = "http://www.archive.org/download/emma_01.mp3";
+    private static final String OTHER_URL = "http://librivox.example.org/emma_02.mp3";
+
+    public void testConcurrentLimit() {
+        DownloadSlots slots = new DownloadSlots(2, 4);
+        QueuedDownload first = download(1, 0, ARCHIVE_URL);
+        QueuedDownload second = download(2, 0, ARCHIVE_URL);
+        QueuedDownload third = download(3, 0, ARCHIVE_URL);
+
+        assertTrue(slots.isIdle());
+        assertTrue(slots.tryStart(first, 1));
+        assertFalse(slots.tryStart(first, 1));
+        assertTrue(slots.tryStart(second, 1));
+        assertFalse(slots.tryStart(third, 1));
+
+        slots.finished(first);
+        assertTrue(slots.tryStart(third, 1));
+        assertEquals(2, slots.getActive().size());
+        assertEquals(2, slots.getActive().get(0).getId());
+
+        slots.finished(second);
+        slots.finished(third);
+        assertTrue(slots.isIdle());
+    }
+
+    public void testHostLimit() {
+        DownloadSlots slots = new DownloadSlots(3, 1);
+        assertTrue(slots.tryStart(download(1, 0, ARCHIVE_URL), 1));
+        assertFalse(slots.tryStart(download(2, 0, ARCHIVE_URL), 1));
+        assertTrue(slots.tryStart(download(3, 0, OTHER_URL), 1));
+    }
+
+    public void testSegmentsCountAgainstHostLimit() {
+        DownloadSlots slots = new DownloadSlots(3, 4);
+        QueuedDownload segmented = download(1, 0, ARCHIVE_URL);
+        assertTrue(slots.tryStart(segmented, 3));
+        assertFalse(slots.tryStart(download(2, 0, ARCHIVE_URL), 2));
+        assertTrue(slots.tryStart(download(3, 0, ARCHIVE_URL), 1));
+
+        slots.finished(segmented);
+        assertTrue(slots.tryStart(download(2, 0, ARCHIVE_URL), 2));
+
+        // more segments than the limit may still use an idle host
+        assertTrue(slots.tryStart(download(4, 0, OTHER_URL), 6));
+    }
+
+    public void testPriorityHasReservedSlot() {
+        DownloadSlots slots = new DownloadSlots(1, 1);
+        assertTrue(slots.tryStart(download(1, 0, ARCHIVE_URL), 1));
+
+        // neither the background slots nor the host limit hold it back
+        QueuedDownload priority = download(2, -1, ARCHIVE_URL);
+        assertTrue(slots.tryStart(priority, 1));
+        assertFalse(slots.tryStart(download(3, -1, OTHER_URL), 1));
+
+        // and it does not free a background slot when done
+        slots.finished(priority);
+        assertFalse(slots.tryStart(download(4, 0, OTHER_URL), 1));
+        assertTrue(slots.tryStart(download(3, -1, OTHER_URL), 1));
+    }
+
+    public void testPriorityChangeKeepsDownloading() {
+        DownloadSlots slots = new DownloadSlots(1, 4);
+        assertTrue(slots.tryStart(download(1, 0, ARCHIVE_URL), 1));
+        QueuedDownload played = download(2, -1, ARCHIVE_URL);
+        assertTrue(slots.tryStart(played, 1));
+        assertTrue(slots.isActive(played.getId()));
+
+        // another section is wanted for playing- the first carries on, over
+        // the background limit, and the new one gets the slot
+        slots.priorityChanged(3);
+        assertTrue(slots.isActive(played.getId()));
+        assertTrue(slots.tryStart(download(3, -1, ARCHIVE_URL), 1));
+
+        // and, when done, frees a background slot
+        slots.finished(played);
+        assertFalse(slots.tryStart(download(4, 0, ARCHIVE_URL), 1));
+        slots.finished(download(1, 0, ARCHIVE_URL));
+        assertTrue(slots.tryStart(download(4, 0, ARCHIVE_URL), 1));
+    }
+
+    private QueuedDownload download(long id, long sequence, String url) {
+        return new QueuedDownload(id, "7", id, url, 1024, sequence, "Emma", "1936", null, null);
+    }
+}
@@ -0,0 +1,166 @@
+package com.oakonell.libridroid.download;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.util.Log;
+
+/**
+ * Serves one file over http on the loopback address, for the download tests-
+ * in byte ranges if asked for them and serving ranges, otherwise whole. Each
+ * connection is served on its own thread, and closed after one response.
+ */
+final class LocalHttpServer {
+    private final byte[] data;
+    private final boolean servesRanges;
+    private final long reportedTotal;
+    private final ServerSocket server;
+    private final Thread accepting;
+    private final List<Thread> serving = Collections.synchronizedList(new ArrayList<Thread>());
+    private final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Serve the whole file, ignoring any range asked for.
+     */
+    LocalHttpServer(byte[] data) throws IOException {
+        this(data, false, data.length);
+    }
+
+    /**
+     * @param reportedTotal
+     *            the file's size given in a ranged response
+     */
+    LocalHttpServer(byte[] data, boolean servesRanges, long reportedTotal) throws IOException {
+        this.data = data;
+        this.servesRanges = servesRanges;
+        this.reportedTotal = reportedTotal;
+        server = new ServerSocket(0);
+        accepting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "LocalHttpServer");
+        accepting.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getLocalPort() + "/section.mp3";
+    }
+
+    /**
+     * @return the ranges asked for, eg "0-1023", or "" for a request without
+     *         a range
+     */
+    List<String> getRequestedRanges() {
+        synchronized (ranges) {
+            return new ArrayList<String>(ranges);
+        }
+    }
+
+    void close() throws IOException, InterruptedException {
+        server.close();
+        accepting.join();
+        List<Thread> threads;
+        synchronized (serving) {
+            threads = new ArrayList<Thread>(serving);
+        }
+        for (Thread each : threads) {
+            each.join();
+        }
+    }
+
+    private void accept() {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketException e) {
+                // closed
+                return;
+            } catch (IOException e) {
+                Log.w("LocalHttpServer", "Accept failed", e);
+                return;
+            }
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        try {
+                            respond(socket);
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        // (eg, the client stopped reading)
+                        Log.w("LocalHttpServer", "Serving failed", e);
+                    }
+                }
+            });
+            serving.add(thread);
+            thread.start();
+        }
+    }
+
+    private void respond(Socket socket) throws IOException {
+        String range = rangeOf(readHeaders(socket.getInputStream()));
+        ranges.add(range);
+        OutputStream out = socket.getOutputStream();
+        if (!servesRanges || range.length() == 0) {
+            out.write(("HTTP/1.0 200 OK\r\nContent-Type: audio/mpeg\r\nContent-Length: " + data.length
+                    + "\r\n\r\n").getBytes("US-ASCII"));
+            out.write(data);
+        } else {
+            int dash = range.indexOf('-');
+            int from = Integer.parseInt(range.substring(0, dash));
+            int to = dash == range.length() - 1 ? data.length - 1 : Integer.parseInt(range.substring(dash + 1));
+            to = Math.min(to, data.length - 1);
+            out.write(("HTTP/1.0 206 Partial Content\r\nContent-Type: audio/mpeg\r\nContent-Length: "
+                    + (to - from + 1) + "\r\nContent-Range: bytes " + from + "-" + to + "/" + reportedTotal
+                    + "\r\n\r\n").getBytes("US-ASCII"));
+            out.write(data, from, to - from + 1);
+        }
+        out.flush();
+    }
+
+    /**
+     * Read the request, up to the blank line ending its headers.
+     *
+     * @return the request line and headers
+     */
+    private static String readHeaders(InputStream in) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        int matched = 0;
+        int each;
+        while (matched < 4 && (each = in.read()) >= 0) {
+            builder.append((char) each);
+            if (each == (matched % 2 == 0 ? '\r' : '\n')) {
+                matched++;
+            } else {
+                matched = each == '\r' ? 1 : 0;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * @return the range asked for, eg "0-1023", or ""
+     */
+    private static String rangeOf(String headers) {
+        for (String each : headers.split("\r\n")) {
+            int colon = each.indexOf(':');
+            if (colon > 0 && each.substring(0, colon).trim().equalsIgnoreCase("Range")) {
+                String value = each.substring(colon + 1).trim();
+                return value.startsWith("bytes=") ? value.substring("bytes=".length()) : value;
+            }
+        }
+        return "";
+    }
+}
@@ -0,0 +1,227 @@
+package com.oakonell.libridroid.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.test.AndroidTestCase;
+
+public class SegmentedDownloadTest extends AndroidTestCase {
+    private static final int SECTION_BYTES = 256 * 1024;
+
+    private File file;
+    private File partFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = new File(getContext().getCacheDir(), "segmented.mp3");
+        partFile = SegmentedDownload.partFileFor(file);
+        file.delete();
+        partFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        partFile.delete();
+        super.tearDown();
+    }
+
+    public void testProgressRoundTrip() {
+        long[] done = new long[] { 1024, 0, 37, 2048 };
+        String saved = SegmentedDownload.formatProgress(done);
+        assertEquals("1024,0,37,2048", saved);
+        assertTrue(Arrays.equals(done, SegmentedDownload.parseProgress(saved)));
+
+        assertNull(SegmentedDownload.parseProgress(null));
+        assertNull(SegmentedDownload.parseProgress(""));
+        assertNull(SegmentedDownload.parseProgress("12,x,4"));
+    }
+
+    public void testSegmentsCoverTheFile() {
+        long total = 10 * 1024 * 1024 + 3;
+        int segments = SegmentedDownload.SEGMENTS;
+        assertEquals(0, SegmentedDownload.segmentStart(0, segments, total));
+        assertEquals(total, SegmentedDownload.segmentStart(segments, segments, total));
+        long covered = 0;
+        for (int i = 0; i < segments; i++) {
+            long start = SegmentedDownload.segmentStart(i, segments, total);
+            long end = SegmentedDownload.segmentStart(i + 1, segments, total);
+            assertEquals(covered, start);
+            assertTrue(end > start);
+            covered = end;
+        }
+        assertEquals(total, covered);
+    }
+
+    public void testFetchesRangesIntoPartFile() throws Exception {
+        byte[] data = ChannelTransferTest.bytes(SECTION_BYTES);
+        LocalHttpServer server = new LocalHttpServer(data, true, data.length);
+        RecordingProgress progress = new RecordingProgress();
+        try {
+            SegmentedDownload download = new SegmentedDownload(server.getUrl(), file, data.length, null,
+                    ChannelTransfer.UNTHROTTLED);
+            assertTrue(download.run(progress));
+        } finally {
+            server.close();
+        }
+
+        // the part file is renamed once every segment is done
+        assertFalse(partFile.exists());
+        assertContents(data);
+        List<String> ranges = server.getRequestedRanges();
+        assertEquals(SegmentedDownload.SEGMENTS, ranges.size());
+        for (int i = 0; i < SegmentedDownload.SEGMENTS; i++) {
+            assertTrue(ranges.toString(), ranges.contains(range(i, data.length, 0)));
+        }
+        String none = SegmentedDownload.formatProgress(new long[SegmentedDownload.SEGMENTS]);
+        assertEquals(none, progress.checkpoints.get(0));
+        assertEquals(data.length, progress.lastDownloaded);
+        assertEquals(data.length, sum(SegmentedDownload.parseProgress(last(progress.checkpoints))));
+    }
+
+    public void testResumesSavedSegments() throws Exception {
+        byte[] data = ChannelTransferTest.bytes(SECTION_BYTES);
+        // saved in four segments- resumed in as many as were saved, whatever
+        // a new download is split into
+        long segmentBytes = data.length / 4;
+        // the first segment done, the second half done, the rest not started
+        long[] done = new long[] { segmentBytes, segmentBytes / 2, 0, 0 };
+        RandomAccessFile out = new RandomAccessFile(partFile, "rw");
+        try {
+            out.setLength(data.length);
+            out.write(data, 0, (int) (segmentBytes + segmentBytes / 2));
+        } finally {
+            out.close();
+        }
+
+        LocalHttpServer server = new LocalHttpServer(data, true, data.length);
+        RecordingProgress progress = new RecordingProgress();
+        try {
+            SegmentedDownload download = new SegmentedDownload(server.getUrl(), file, data.length,
+                    SegmentedDownload.formatProgress(done), ChannelTransfer.UNTHROTTLED);
+            assertTrue(download.run(progress));
+        } finally {
+            server.close();
+        }
+
+        assertContents(data);
+        List<String> ranges = server.getRequestedRanges();
+        assertEquals(ranges.toString(), 3, ranges.size());
+        assertTrue(ranges.toString(), ranges.contains(range(1, 4, data.length, segmentBytes / 2)));
+        assertTrue(ranges.toString(), ranges.contains(range(2, 4, data.length, 0)));
+        assertTrue(ranges.toString(), ranges.contains(range(3, 4, data.length, 0)));
+        assertEquals(SegmentedDownload.formatProgress(done), progress.checkpoints.get(0));
+    }
+
+    public void testSavedSegmentsIgnoredWithoutPartFile() throws Exception {
+        byte[] data = ChannelTransferTest.bytes(SECTION_BYTES);
+        LocalHttpServer server = new LocalHttpServer(data, true, data.length);
+        try {
+            SegmentedDownload download = new SegmentedDownload(server.getUrl(), file, data.length,
+                    "1000,1000,1000,1000", ChannelTransfer.UNTHROTTLED);
+            assertTrue(download.run(new RecordingProgress()));
+        } finally {
+            server.close();
+        }
+
+        assertContents(data);
+        assertTrue(server.getRequestedRanges().contains(range(0, data.length, 0)));
+    }
+
+    public void testNotSegmentableWithoutRanges() throws Exception {
+        byte[] data = ChannelTransferTest.bytes(SECTION_BYTES);
+        // a 200 with the whole file
+        LocalHttpServer server = new LocalHttpServer(data);
+        try {
+            SegmentedDownload download = new SegmentedDownload(server.getUrl(), file, data.length, null,
+                    ChannelTransfer.UNTHROTTLED);
+            download.run(new RecordingProgress());
+            fail("Expected NotSegmentableException");
+        } catch (SegmentedDownload.NotSegmentableException e) {
+            // expected
+        } finally {
+            server.close();
+        }
+        assertFalse(file.exists());
+    }
+
+    public void testNotSegmentableWhenSizeDiffers() throws Exception {
+        byte[] data = ChannelTransferTest.bytes(SECTION_BYTES);
+        LocalHttpServer server = new LocalHttpServer(data, true, data.length);
+        try {
+            // the download record's size is out of date
+            SegmentedDownload download = new SegmentedDownload(server.getUrl(), file, data.length - 1000, null,
+                    ChannelTransfer.UNTHROTTLED);
+            download.run(new RecordingProgress());
+            fail("Expected NotSegmentableException");
+        } catch (SegmentedDownload.NotSegmentableException e) {
+            // expected
+        } finally {
+            server.close();
+        }
+        assertFalse(file.exists());
+    }
+
+    private static final class RecordingProgress implements SegmentedDownload.Progress {
+        private final List<String> checkpoints = new ArrayList<String>();
+        private volatile long lastDownloaded;
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void update(long downloaded, String segments) {
+            lastDownloaded = downloaded;
+        }
+
+        @Override
+        public void checkpoint(long downloaded, String segments) {
+            lastDownloaded = downloaded;
+            checkpoints.add(segments);
+        }
+    }
+
+    /**
+     * @return the range a segment asks for, eg "0-1023"
+     */
+    private static String range(int segment, long total, long done) {
+        return range(segment, SegmentedDownload.SEGMENTS, total, done);
+    }
+
+    private static String range(int segment, int segments, long total, long done) {
+        long start = SegmentedDownload.segmentStart(segment, segments, total);
+        long end = SegmentedDownload.segmentStart(segment + 1, segments, total);
+        return (start + done) + "-" + (end - 1);
+    }
+
+    private static long sum(long[] values) {
+        long sum = 0;
+        for (long each : values) {
+            sum += each;
+        }
+        return sum;
+    }
+
+    private static String last(List<String> values) {
+        return values.get(values.size() - 1);
+    }
+
+    private void assertContents(byte[] expected) throws IOException {
+        assertEquals(expected.length, file.length());
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] actual = new byte[expected.length];
+            in.readFully(actual);
+            assertTrue(Arrays.equals(expected, actual));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.oakonell.libridroid.download;
+
+import android.test.AndroidTestCase;
+
+public class TokenBucketTest extends AndroidTestCase {
+    private static final long SECOND = 1000 * 1000 * 1000L;
+
+    public void testUnlimited() {
+        TokenBucket bucket = new TokenBucket(0, 0);
+        assertEquals(0, bucket.take(10 * 1024 * 1024, 0));
+    }
+
+    public void testDebtIsWaitedOff() {
+        TokenBucket bucket = new TokenBucket(1000, 0);
+        // starts with a second's burst
+        assertEquals(0, bucket.take(1000, 0));
+        // half a second in debt
+        assertEquals(SECOND / 2, bucket.take(500, 0));
+        // which is repaid after half a second
+        assertEquals(0, bucket.take(0, SECOND / 2));
+        assertEquals(0, bucket.take(250, SECOND * 3 / 4));
+    }
+
+    public void testRefillIsCappedAtABurst() {
+        TokenBucket bucket = new TokenBucket(1000, 0);
+        // idle for a long while still only allows a second's worth
+        assertEquals(SECOND, bucket.take(2000, 60 * SECOND));
+    }
+
+    public void testLoweringTheRate() {
+        TokenBucket bucket = new TokenBucket(1000, 0);
+        bucket.setRate(100, 0);
+        assertEquals(100, bucket.getRate());
+        assertEquals(SECOND, bucket.take(200, 0));
+
+        bucket.setRate(0, 0);
+        assertEquals(0, bucket.take(1000, 0));
+    }
+}
@@ -0,0 +1,144 @@
+package com.oakonell.utils.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentResolver;
+
+public class ChangeNotifierTest extends AndroidTestCase {
+    private static final long WINDOW_MS = 50;
+    // long enough for the window to pass and the main looper to deliver
+    private static final long DELIVERY_WAIT_MS = 2000;
+
+    private static final Uri BOOKS = Uri.parse("content://com.oakonell.test/books");
+    private static final Uri BOOK = Uri.parse("content://com.oakonell.test/books/1");
+    private static final Uri SECTIONS = Uri.parse("content://com.oakonell.test/books/1/sections");
+    private static final Uri SEARCH = Uri.parse("content://com.oakonell.test/search");
+
+    private RecordingResolver resolver;
+    private ChangeNotifier notifier;
+
+    private static final class RecordingResolver extends MockContentResolver {
+        private final List<Uri> notified = new ArrayList<Uri>();
+
+        @Override
+        public void notifyChange(Uri uri, ContentObserver observer) {
+            synchronized (notified) {
+                notified.add(uri);
+                notified.notifyAll();
+            }
+        }
+
+        List<Uri> getNotified() {
+            synchronized (notified) {
+                return new ArrayList<Uri>(notified);
+            }
+        }
+
+        /**
+         * @return the notifications, once there are at least the given number
+         *         (or the wait is over)
+         */
+        List<Uri> awaitNotified(int count) throws InterruptedException {
+            long end = System.currentTimeMillis() + DELIVERY_WAIT_MS;
+            synchronized (notified) {
+                long left = DELIVERY_WAIT_MS;
+                while (notified.size() < count && left > 0) {
+                    notified.wait(left);
+                    left = end - System.currentTimeMillis();
+                }
+                return new ArrayList<Uri>(notified);
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        resolver = new RecordingResolver();
+        notifier = new ChangeNotifier(resolver, WINDOW_MS);
+    }
+
+    public void testWindowCoalesces() throws InterruptedException {
+        notifier.notifyChange(SEARCH);
+        notifier.notifyChange(SEARCH);
+        notifier.notifyChange(SEARCH);
+        // held for the window
+        assertTrue(resolver.getNotified().isEmpty());
+
+        assertEquals(1, resolver.awaitNotified(1).size());
+        // and nothing more after it
+        Thread.sleep(WINDOW_MS * 4);
+        assertEquals(1, resolver.getNotified().size());
+        assertEquals(SEARCH, resolver.getNotified().get(0));
+    }
+
+    public void testPendingAncestorDropsDescendants() throws InterruptedException {
+        notifier.notifyChange(SECTIONS);
+        notifier.notifyChange(BOOKS);
+        // already covered by the pending ancestor
+        notifier.notifyChange(BOOK);
+        notifier.notifyChange(SEARCH);
+
+        resolver.awaitNotified(2);
+        Thread.sleep(WINDOW_MS * 4);
+        List<Uri> notified = resolver.getNotified();
+        assertEquals(notified.toString(), 2, notified.size());
+        assertTrue(notified.contains(BOOKS));
+        assertTrue(notified.contains(SEARCH));
+    }
+
+    public void testNestedBatchDeliversAtFinalEnd() throws InterruptedException {
+        notifier.beginBatch();
+        notifier.notifyChange(BOOK);
+        notifier.beginBatch();
+        notifier.notifyChange(SEARCH);
+        notifier.endBatch();
+        // still inside the outer batch, past its window
+        Thread.sleep(WINDOW_MS * 4);
+        assertTrue(resolver.getNotified().isEmpty());
+
+        // delivered straight away as the outer batch ends
+        notifier.endBatch();
+        List<Uri> notified = resolver.getNotified();
+        assertEquals(2, notified.size());
+        assertTrue(notified.contains(BOOK));
+        assertTrue(notified.contains(SEARCH));
+    }
+
+    public void testEndBatchWithoutBegin() {
+        try {
+            notifier.endBatch();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    public void testBatchHoldsOnlyItsOwnThread() throws InterruptedException {
+        notifier.beginBatch();
+        try {
+            Thread other = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    notifier.notifyChange(BOOK);
+                }
+            });
+            other.start();
+            other.join();
+            notifier.notifyChange(SEARCH);
+
+            // the other thread's write is notified while this batch is open
+            List<Uri> notified = resolver.awaitNotified(1);
+            assertEquals(1, notified.size());
+            assertEquals(BOOK, notified.get(0));
+        } finally {
+            notifier.endBatch();
+        }
+        assertEquals(2, resolver.getNotified().size());
+        assertEquals(SEARCH, resolver.getNotified().get(1));
+    }
+}
@@ -0,0 +1,221 @@
+package com.oakonell.utils.db;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.test.AndroidTestCase;
+
+public class StatementCacheTest extends AndroidTestCase {
+    private static final String DATABASE_NAME = "statement_cache_test.db";
+    private static final long DEADLOCK_WAIT_MS = 10000;
+    private static final StatementCache.Shape INSERT_AB = StatementCache.insertShape("t", "a", "b");
+    private static final StatementCache.Shape INSERT_C = StatementCache.insertShape("t", "c");
+    private static final StatementCache.Shape UPDATE_A = StatementCache.updateByIdShape("t", "a");
+    private static final StatementCache.Shape UPDATE_B = StatementCache.updateByIdShape("t", "b");
+    private static final StatementCache.Shape UPDATE_AB = StatementCache.updateByIdShape("t", "a", "b");
+
+    private SQLiteOpenHelper helper;
+    private StatementCache statements;
+
+    private static final class TestHelper extends SQLiteOpenHelper {
+        TestHelper(Context context) {
+            super(context, DATABASE_NAME, null, 1);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE t (_id INTEGER PRIMARY KEY AUTOINCREMENT, a TEXT, b INTEGER, c TEXT);");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            // only the one version
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase(DATABASE_NAME);
+        helper = new TestHelper(getContext());
+        statements = new StatementCache(helper);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        statements.close();
+        helper.close();
+        getContext().deleteDatabase(DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testStatementPerShape() {
+        long first = statements.insert(INSERT_AB, values("a", "one", "b", 1L));
+        long second = statements.insert(INSERT_AB, values("a", "two", "b", 2L));
+        assertEquals(1, statements.size());
+
+        long third = statements.insert(INSERT_C, values("c", "three"));
+        assertEquals(2, statements.size());
+
+        assertRow(first, "one", 1, null);
+        assertRow(second, "two", 2, null);
+        assertRow(third, null, 0, "three");
+
+        // a null value is bound as null
+        statements.updateById(UPDATE_AB, values("a", null, "b", 5L), first);
+        assertRow(first, null, 5, null);
+    }
+
+    public void testFits() {
+        // an insert binds null for a column left out
+        assertTrue(INSERT_AB.fits(values("a", "one")));
+        assertFalse(INSERT_AB.fits(values("a", "one", "c", "three")));
+        long id = statements.insert(INSERT_AB, values("a", "one"));
+        assertRow(id, "one", 0, null);
+
+        // an update needs every column
+        assertTrue(UPDATE_AB.fits(values("b", 1L, "a", "one")));
+        assertFalse(UPDATE_AB.fits(values("a", "one")));
+        assertSame(UPDATE_A, StatementCache.fitting(values("a", "one"), UPDATE_AB, UPDATE_A));
+        assertNull(StatementCache.fitting(values("c", "three"), UPDATE_AB, UPDATE_A));
+    }
+
+    public void testUpdateCountsChanges() {
+        long id = statements.insert(INSERT_AB, values("a", "one"));
+
+        assertEquals(1, statements.updateById(UPDATE_A, values("a", "uno"), id));
+        assertRow(id, "uno", 0, null);
+        assertEquals(0, statements.updateById(UPDATE_A, values("a", "none"), id + 1));
+
+        // the count is of the update just made, not of an earlier statement
+        statements.insert(INSERT_AB, values("a", "two"));
+        assertEquals(0, statements.updateById(UPDATE_A, values("a", "none"), id + 100));
+
+        // and likewise inside the caller's transaction
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            assertEquals(1, statements.updateById(UPDATE_B, values("b", 3L), id));
+            assertEquals(0, statements.updateById(UPDATE_B, values("b", 3L), id + 100));
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        assertRow(id, "uno", 3, null);
+    }
+
+    public void testSimpleQueryForLong() {
+        statements.insert(INSERT_AB, values("a", "one", "b", 7L));
+
+        StatementCache.Shape query = StatementCache.queryShape("SELECT b FROM t WHERE a = ?");
+        assertEquals(Long.valueOf(7), statements.simpleQueryForLong(query, "one"));
+        assertNull(statements.simpleQueryForLong(query, "two"));
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        StatementCache.Shape[] queries = new StatementCache.Shape[StatementCache.MAX_STATEMENTS];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = StatementCache.queryShape("SELECT " + i);
+            statements.simpleQueryForLong(queries[i]);
+        }
+        assertEquals(StatementCache.MAX_STATEMENTS, statements.size());
+        // the first is used again, the second is now the least recently used
+        statements.simpleQueryForLong(queries[0]);
+
+        long id = statements.insert(INSERT_AB, values("a", "one"));
+        assertEquals(StatementCache.MAX_STATEMENTS, statements.size());
+        assertTrue(statements.holds(INSERT_AB));
+        assertTrue(statements.holds(queries[0]));
+        assertFalse(statements.holds(queries[1]));
+        assertTrue(statements.holds(queries[2]));
+
+        // an evicted shape is compiled again when next used
+        assertEquals(Long.valueOf(1), statements.simpleQueryForLong(queries[1]));
+        assertFalse(statements.holds(queries[2]));
+        assertEquals(1, statements.updateById(UPDATE_A, values("a", "uno"), id));
+        assertRow(id, "uno", 0, null);
+    }
+
+    /**
+     * A caller in its own transaction holds the database's lock when it calls
+     * in, while another caller's call takes the cache's monitor- neither may
+     * wait on the other for good.
+     */
+    public void testNoDeadlockWithCallerTransaction() throws InterruptedException {
+        final long id = statements.insert(INSERT_AB, values("a", "one"));
+        final SQLiteDatabase db = helper.getWritableDatabase();
+        final Throwable[] failures = new Throwable[2];
+
+        Thread bulk = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        db.beginTransaction();
+                        try {
+                            statements.insert(INSERT_AB, values("a", "bulk", "b", (long) i));
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures[0] = e;
+                }
+            }
+        });
+        Thread single = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 100; i++) {
+                        statements.updateById(UPDATE_B, values("b", (long) i), id);
+                    }
+                } catch (Throwable e) {
+                    failures[1] = e;
+                }
+            }
+        });
+        bulk.start();
+        single.start();
+        bulk.join(DEADLOCK_WAIT_MS);
+        single.join(DEADLOCK_WAIT_MS);
+
+        assertFalse("Deadlocked", bulk.isAlive() || single.isAlive());
+        assertNull(failures[0]);
+        assertNull(failures[1]);
+        assertEquals(Long.valueOf(101), statements.simpleQueryForLong(StatementCache.queryShape("SELECT count(*) FROM t")));
+        assertRow(id, "one", 99, null);
+    }
+
+    private void assertRow(long id, String a, long b, String c) {
+        Cursor cursor = helper.getReadableDatabase().query("t", new String[] { "a", "b", "c" }, "_id = ?",
+                new String[] { Long.toString(id) }, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(a, cursor.getString(0));
+            assertEquals(b, cursor.getLong(1));
+            assertEquals(c, cursor.getString(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues values(Object... keysAndValues) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            String key = (String) keysAndValues[i];
+            Object value = keysAndValues[i + 1];
+            if (value == null) {
+                values.putNull(key);
+            } else if (value instanceof Long) {
+                values.put(key, (Long) value);
+            } else {
+                values.put(key, (String) value);
+            }
+        }
+        return values;
+    }
+}